@@ -0,0 +1,60 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.util.BytesRef;
+
+import java.util.TreeMap;
+
+/**
+ * The original TreeMap based stored field visitor, kept as a baseline for StatsStoredFieldVisitor.
+ */
+class MapStoredFieldVisitor extends StoredFieldVisitor {
+
+    final TreeMap<String, Long> STATS = new TreeMap<>();
+    final TreeMap<String, String> SAMPLE = new TreeMap<>();
+
+    @Override
+    public Status needsField(FieldInfo fieldInfo) {
+        STATS.putIfAbsent(fieldInfo.name, 0L);
+        return Status.YES;
+    }
+
+    @Override
+    public void binaryField(FieldInfo fieldInfo, byte[] value) {
+        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name) + value.length);
+        if (fieldInfo.name.equalsIgnoreCase("_source") || fieldInfo.name.equalsIgnoreCase("_recovery_source"))
+            SAMPLE.put(fieldInfo.name, (new BytesRef(value)).utf8ToString());
+        else
+            SAMPLE.put(fieldInfo.name, (new BytesRef(value)).toString());
+    }
+
+    @Override
+    public void stringField(FieldInfo fieldInfo, byte[] value) {
+        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name) + value.length);
+        if (fieldInfo.name.equalsIgnoreCase("_source"))
+            SAMPLE.put(fieldInfo.name, (new BytesRef(value)).utf8ToString());
+        else
+            SAMPLE.put(fieldInfo.name, (new BytesRef(value)).toString());
+    }
+
+    @Override
+    public void intField(FieldInfo fieldInfo, int value) {
+        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name) + 1);
+    }
+
+    @Override
+    public void longField(FieldInfo fieldInfo, long value) {
+        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name) + 1);
+    }
+
+    @Override
+    public void floatField(FieldInfo fieldInfo, float value) {
+        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name) + 1);
+    }
+
+    @Override
+    public void doubleField(FieldInfo fieldInfo, double value) {
+        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name) + 1);
+    }
+}
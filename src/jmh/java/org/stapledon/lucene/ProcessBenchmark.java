@@ -0,0 +1,63 @@
+package org.stapledon.lucene;
+
+import org.apache.commons.cli.CommandLine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end wall time of ElasticLuceneStats.process() over a synthetic node.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ProcessBenchmark {
+
+    @Param({"10"})
+    public int indices;
+
+    @Param({"10000"})
+    public int docs;
+
+    @Param({"20"})
+    public int fields;
+
+    @Param({"1024"})
+    public int sourceBytes;
+
+    @Param({"1"})
+    public int threads;
+
+    private Path node;
+    private ElasticLuceneStats subject;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = Files.createTempDirectory("process-benchmark");
+        Path state = SyntheticIndex.createNode(node, indices, docs, fields, sourceBytes);
+        CommandLine options = StartupUtils.parseOptions(new String[]{"-d", state.toString(), "-t", Integer.toString(threads)});
+        subject = new ElasticLuceneStats(options);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticIndex.delete(node);
+    }
+
+    @Benchmark
+    public void process() {
+        subject.process();
+    }
+}
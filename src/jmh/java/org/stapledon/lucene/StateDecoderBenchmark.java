@@ -0,0 +1,61 @@
+package org.stapledon.lucene;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Entries/second for decoding the SMILE-encoded index metadata of a "_state" index. Read the "entries" counter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+public class StateDecoderBenchmark {
+
+    @Param({"5000"})
+    public int indices;
+
+    private Path node;
+    private Path state;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long entries;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            entries = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        node = Files.createTempDirectory("state-decoder-benchmark");
+        state = SyntheticIndex.createState(node, indices);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticIndex.delete(node);
+    }
+
+    @Benchmark
+    public void decode(Counters counters, Blackhole blackhole) {
+        ElasticsearchStateDecoder decoder = new ElasticsearchStateDecoder();
+        decoder.decode(state.toString());
+        counters.entries += decoder.indexMappings.size();
+        blackhole.consume(decoder);
+    }
+}
@@ -0,0 +1,91 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Documents/second for visiting every stored field of a segment, with the current visitor and the original
+ * map-based one as a baseline. Read the "docs" counter for documents/second.
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+public class StoredFieldVisitorBenchmark {
+
+    @Param({"20000"})
+    public int docs;
+
+    @Param({"20"})
+    public int fields;
+
+    @Param({"1024"})
+    public int sourceBytes;
+
+    private Path directory;
+    private DirectoryReader reader;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long docs;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            docs = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("stored-field-benchmark");
+        SyntheticIndex.createIndex(directory, docs, fields, sourceBytes, new Random(0));
+        reader = DirectoryReader.open(FSDirectory.open(directory));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        SyntheticIndex.delete(directory);
+    }
+
+    @Benchmark
+    public void primitiveVisitor(Counters counters, Blackhole blackhole) throws IOException {
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leaf = context.reader();
+            StatsStoredFieldVisitor visitor = new StatsStoredFieldVisitor(leaf.getFieldInfos(), false, false);
+            for (int i = 0; i < leaf.maxDoc(); i++)
+                leaf.document(i, visitor);
+            counters.docs += leaf.maxDoc();
+            blackhole.consume(visitor.totalBytes());
+        }
+    }
+
+    @Benchmark
+    public void mapVisitor(Counters counters, Blackhole blackhole) throws IOException {
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leaf = context.reader();
+            MapStoredFieldVisitor visitor = new MapStoredFieldVisitor();
+            for (int i = 0; i < leaf.maxDoc(); i++)
+                leaf.document(i, visitor);
+            counters.docs += leaf.maxDoc();
+            blackhole.consume(visitor.STATS);
+        }
+    }
+}
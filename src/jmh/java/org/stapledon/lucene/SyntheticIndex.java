@@ -0,0 +1,129 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Generates a synthetic Elasticsearch node on local disk: a "_state" index describing the indices, and a Lucene
+ * index for each of them laid out the way Elasticsearch does (indices/&lt;uuid&gt;/0/index).
+ */
+final class SyntheticIndex {
+    private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel", "india", "juliet"};
+
+    private SyntheticIndex() {
+    }
+
+    /**
+     * @param node        - Node directory to create (the equivalent of nodes/0)
+     * @param indices     - Number of indices
+     * @param docs        - Documents per index
+     * @param fields      - Number of keyword fields per document, in addition to a text, numeric and _id field
+     * @param sourceBytes - Approximate size of each document's _source
+     * @return The node's "_state" directory
+     */
+    static Path createNode(Path node, int indices, int docs, int fields, int sourceBytes) throws IOException {
+        Path state = node.resolve("_state");
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(state), new IndexWriterConfig())) {
+            for (int i = 0; i < indices; i++) {
+                String name = String.format("synthetic_0-%04d", i);
+                String uuid = String.format("uuid%04d", i);
+                writer.addDocument(stateEntry(name, uuid));
+                createIndex(node.resolve("indices").resolve(uuid).resolve("0").resolve("index"), docs, fields, sourceBytes, new Random(i));
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Create a "_state" index only, with the given number of index entries
+     */
+    static Path createState(Path node, int indices) throws IOException {
+        Path state = node.resolve("_state");
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(state), new IndexWriterConfig())) {
+            for (int i = 0; i < indices; i++)
+                writer.addDocument(stateEntry(String.format("synthetic_0-%06d", i), String.format("uuid%06d", i)));
+        }
+        return state;
+    }
+
+    static void createIndex(Path directory, int docs, int fields, int sourceBytes, Random random) throws IOException {
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(directory), new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < docs; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("_id", Integer.toString(i), Field.Store.YES));
+                StringBuilder source = new StringBuilder("{\"message\":\"");
+                StringBuilder message = new StringBuilder();
+                while (message.length() < sourceBytes / 2)
+                    message.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                doc.add(new TextField("message", message.toString(), Field.Store.NO));
+                source.append(message).append('"');
+                for (int f = 0; f < fields; f++) {
+                    String value = WORDS[random.nextInt(WORDS.length)] + random.nextInt(1000);
+                    doc.add(new StringField("field" + f, value, Field.Store.NO));
+                    doc.add(new SortedSetDocValuesField("field" + f, new BytesRef(value)));
+                    source.append(",\"field").append(f).append("\":\"").append(value).append('"');
+                }
+                long timestamp = 1_600_000_000_000L + random.nextInt(1_000_000_000);
+                doc.add(new LongPoint("timestamp", timestamp));
+                doc.add(new NumericDocValuesField("timestamp", timestamp));
+                source.append(",\"timestamp\":").append(timestamp);
+                while (source.length() < sourceBytes)
+                    source.append(' ');
+                doc.add(new StoredField("_source", new BytesRef(source.append('}').toString())));
+                writer.addDocument(doc);
+            }
+        }
+    }
+
+    private static Document stateEntry(String name, String uuid) throws IOException {
+        XContentBuilder builder = XContentFactory.smileBuilder();
+        builder.startObject().startObject(name)
+                .field("version", 3)
+                .startArray("mappings").value(new byte[512]).endArray()
+                .startObject("settings")
+                .field("index.creation_date", "1603912611994")
+                .field("index.uuid", uuid)
+                .field("index.provided_name", name)
+                .field("index.number_of_replicas", "0")
+                .field("index.number_of_shards", "1")
+                .field("index.analysis.filter.typeahead-ngrams.type", "edge_ngram")
+                .field("index.analysis.filter.typeahead-ngrams.max_gram", "140")
+                .endObject()
+                .field("state", "open")
+                .field("routing_num_shards", 1024)
+                .endObject().endObject();
+        builder.close();
+        byte[] bytes = ((ByteArrayOutputStream) builder.getOutputStream()).toByteArray();
+
+        Document doc = new Document();
+        doc.add(new StoredField("data", new BytesRef(bytes)));
+        return doc;
+    }
+
+    static void delete(Path directory) throws IOException {
+        try (Stream<Path> walk = Files.walk(directory)) {
+            walk.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
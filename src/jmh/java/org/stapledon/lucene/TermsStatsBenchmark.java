@@ -0,0 +1,83 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.codecs.blocktree.FieldReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Fields/second for collecting the blocktree terms statistics of every field. Read the "fields" counter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@State(Scope.Benchmark)
+public class TermsStatsBenchmark {
+
+    @Param({"20000"})
+    public int docs;
+
+    @Param({"20"})
+    public int fields;
+
+    @Param({"1024"})
+    public int sourceBytes;
+
+    private Path directory;
+    private DirectoryReader reader;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long fields;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            fields = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("terms-stats-benchmark");
+        SyntheticIndex.createIndex(directory, docs, fields, sourceBytes, new Random(0));
+        reader = DirectoryReader.open(FSDirectory.open(directory));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.close();
+        SyntheticIndex.delete(directory);
+    }
+
+    @Benchmark
+    public void termsStats(Counters counters, Blackhole blackhole) throws IOException {
+        for (LeafReaderContext context : reader.leaves()) {
+            LeafReader leaf = context.reader();
+            for (FieldInfo field : leaf.getFieldInfos()) {
+                Terms terms = leaf.terms(field.name);
+                if (terms instanceof FieldReader) {
+                    blackhole.consume(((FieldReader) terms).getStats());
+                    counters.fields++;
+                }
+            }
+        }
+    }
+}
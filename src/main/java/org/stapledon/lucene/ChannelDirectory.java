@@ -0,0 +1,155 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.store.BufferedIndexInput;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.FSLockFactory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only directory that reads files with positional channel reads through large buffers, optionally with direct
+ * I/O so the reads bypass the page cache.
+ *
+ * Direct reads must start at, and be sized in, multiples of the file system's block size, into a block-aligned native
+ * buffer. Each read is rounded out to whole blocks and only the requested bytes are copied out, through a native
+ * buffer per thread. If the file system doesn't support direct I/O, files are read through the page cache instead.
+ *
+ * O_DIRECT is only available as the JDK's com.sun.nio.file.ExtendedOpenOption.DIRECT, which is looked up by name so
+ * the build doesn't depend on internal API. A JDK without it reads through the page cache too.
+ */
+class ChannelDirectory extends FSDirectory {
+    private static final Logger LOG = LoggerFactory.getLogger(ChannelDirectory.class);
+    private static final OpenOption DIRECT_OPTION = directOption();
+
+    private final boolean direct;
+    private final IoStats stats;
+    private final int blockSize;
+    private final ThreadLocal<ByteBuffer> alignedBuffers;
+    private volatile boolean directUnsupported;
+
+    ChannelDirectory(Path path, boolean direct, IoStats stats) throws IOException {
+        super(path, FSLockFactory.getDefault());
+        this.direct = direct;
+        this.stats = stats;
+        this.blockSize = direct ? (int) Files.getFileStore(path).getBlockSize() : 0;
+        this.alignedBuffers = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(IoMode.BUFFER_SIZE + 2 * blockSize).alignedSlice(blockSize));
+    }
+
+    @Override
+    public IndexInput openInput(String name, IOContext context) throws IOException {
+        ensureOpen();
+        ensureCanRead(name);
+        Path path = getDirectory().resolve(name);
+        if (direct && !directUnsupported && DIRECT_OPTION == null) {
+            directUnsupported = true;
+            LOG.warn("Direct I/O isn't supported by this JDK, which has no O_DIRECT open option; reading through the page cache");
+        }
+        if (direct && !directUnsupported) {
+            try {
+                return new ChannelIndexInput("ChannelIndexInput(direct, path=\"" + path + "\")", FileChannel.open(path, StandardOpenOption.READ, DIRECT_OPTION), true);
+            } catch (IOException e) {
+                directUnsupported = true;
+                LOG.warn("Direct I/O isn't supported for {} ({}); reading through the page cache", path, e.getLocalizedMessage());
+            }
+        }
+        return new ChannelIndexInput("ChannelIndexInput(path=\"" + path + "\")", FileChannel.open(path, StandardOpenOption.READ), false);
+    }
+
+    /**
+     * @return The JDK's O_DIRECT open option, or null if it has none
+     */
+    private static OpenOption directOption() {
+        try {
+            for (Object option : Class.forName("com.sun.nio.file.ExtendedOpenOption").getEnumConstants()) {
+                if ("DIRECT".equals(((Enum<?>) option).name()))
+                    return (OpenOption) option;
+            }
+        } catch (ClassNotFoundException e) {
+            // Not an OpenJDK based runtime
+        }
+        return null;
+    }
+
+    private class ChannelIndexInput extends BufferedIndexInput {
+        private final FileChannel channel;
+        private final boolean directChannel;
+        private final long length;
+        private boolean isClone;
+
+        ChannelIndexInput(String resourceDescription, FileChannel channel, boolean directChannel) throws IOException {
+            super(resourceDescription, IoMode.BUFFER_SIZE);
+            this.channel = channel;
+            this.directChannel = directChannel;
+            this.length = channel.size();
+        }
+
+        @Override
+        protected void readInternal(ByteBuffer b) throws IOException {
+            long pos = getFilePointer();
+            if (pos + b.remaining() > length)
+                throw new EOFException("read past EOF: " + this);
+            if (directChannel)
+                readDirect(b, pos);
+            else {
+                while (b.hasRemaining()) {
+                    int read = channel.read(b, pos);
+                    if (read < 0)
+                        throw new EOFException("read past EOF: " + this);
+                    pos += read;
+                    stats.bytesRead.add(read);
+                }
+            }
+        }
+
+        private void readDirect(ByteBuffer b, long pos) throws IOException {
+            ByteBuffer aligned = alignedBuffers.get();
+            while (b.hasRemaining()) {
+                long alignedPos = pos - pos % blockSize;
+                int skip = (int) (pos - alignedPos);
+                aligned.clear();
+                int read = channel.read(aligned, alignedPos);
+                if (read <= skip)
+                    throw new EOFException("read past EOF: " + this);
+                stats.bytesRead.add(read);
+                int take = Math.min(read - skip, b.remaining());
+                aligned.position(skip).limit(skip + take);
+                b.put(aligned);
+                pos += take;
+            }
+        }
+
+        @Override
+        protected void seekInternal(long pos) {
+            // Reads are positional
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!isClone)
+                channel.close();
+        }
+
+        @Override
+        public ChannelIndexInput clone() {
+            ChannelIndexInput clone = (ChannelIndexInput) super.clone();
+            clone.isClone = true;
+            return clone;
+        }
+    }
+}
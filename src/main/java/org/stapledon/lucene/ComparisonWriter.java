@@ -0,0 +1,40 @@
+package org.stapledon.lucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives a comparison of saved reports: startComparison, then a delta for each field and group as the reports are
+ * merged, and finally one for the whole node. The console, JSON Lines and CSV report writers also write comparisons;
+ * metrics are only of the current state of a node, so the Prometheus writer doesn't.
+ */
+interface ComparisonWriter extends Closeable {
+
+    /**
+     * @param snapshots - The reports being compared, oldest first
+     */
+    void startComparison(List<ReportComparison.Snapshot> snapshots) throws IOException;
+
+    /**
+     * Write the difference in a group or field between the reports being compared, or of the node when it has no group
+     */
+    void writeDelta(ReportComparison.Delta delta) throws IOException;
+
+    /**
+     * Create a writer for the given format; the output file defaults to compare.<format>
+     *
+     * @param format - console, jsonl or csv; null for console
+     */
+    static ComparisonWriter create(String format, String output) throws IOException {
+        if (format == null || ReportWriter.FORMAT_CONSOLE.equalsIgnoreCase(format))
+            return new ConsoleReportWriter(false);
+        if (output == null)
+            output = "compare." + format.toLowerCase();
+        if (ReportWriter.FORMAT_JSON_LINES.equalsIgnoreCase(format))
+            return new JsonLinesReportWriter(StructuredReportWriter.open(output));
+        if (ReportWriter.FORMAT_CSV.equalsIgnoreCase(format))
+            return new CsvReportWriter(StructuredReportWriter.open(output));
+        throw new IllegalArgumentException("Unknown comparison format: " + format);
+    }
+}
@@ -0,0 +1,56 @@
+package org.stapledon.lucene;
+
+/**
+ * Results of re-compressing sampled stored documents with each CompressionWhatIf candidate, summed over segments.
+ */
+class CompressionStats {
+    long docs;
+    long uncompressedBytes;
+    final long[] compressedBytes = new long[CompressionWhatIf.CANDIDATES.size()];
+    final long[] compressNanos = new long[CompressionWhatIf.CANDIDATES.size()];
+    final long[] decompressNanos = new long[CompressionWhatIf.CANDIDATES.size()];
+
+    /**
+     * Add another set of results; either may be null
+     */
+    static CompressionStats merge(CompressionStats target, CompressionStats source) {
+        if (source == null)
+            return target;
+        if (target == null)
+            target = new CompressionStats();
+        target.docs += source.docs;
+        target.uncompressedBytes += source.uncompressedBytes;
+        for (int i = 0; i < target.compressedBytes.length; i++) {
+            target.compressedBytes[i] += source.compressedBytes[i];
+            target.compressNanos[i] += source.compressNanos[i];
+            target.decompressNanos[i] += source.decompressNanos[i];
+        }
+        return target;
+    }
+
+    /**
+     * @return Compressed size as a fraction of the uncompressed size
+     */
+    double ratio(int candidate) {
+        return uncompressedBytes > 0 ? (double) compressedBytes[candidate] / uncompressedBytes : 0.0;
+    }
+
+    /**
+     * @return Size of the stored fields if the given number of uncompressed bytes were compressed with the candidate
+     */
+    long projectedBytes(int candidate, long totalUncompressedBytes) {
+        return Math.round(totalUncompressedBytes * ratio(candidate));
+    }
+
+    double compressMegabytesPerSecond(int candidate) {
+        return megabytesPerSecond(uncompressedBytes, compressNanos[candidate]);
+    }
+
+    double decompressMegabytesPerSecond(int candidate) {
+        return megabytesPerSecond(uncompressedBytes, decompressNanos[candidate]);
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos > 0 ? bytes / (1024.0 * 1024.0) / (nanos / 1e9) : 0.0;
+    }
+}
@@ -0,0 +1,245 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.codecs.compressing.CompressionMode;
+import org.apache.lucene.codecs.compressing.Compressor;
+import org.apache.lucene.codecs.compressing.Decompressor;
+import org.apache.lucene.codecs.lucene87.Lucene87StoredFieldsFormat;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Re-compresses a sample of a segment's stored documents with each of Lucene's stored fields compression modes at
+ * several chunk sizes, to project the size of the stored fields and the cost of reading them under each.
+ *
+ * Documents are re-encoded much as the stored fields writer encodes them (field number and type, then the value),
+ * grouped into chunks the way the writer does, and each chunk is compressed and decompressed in memory.
+ */
+final class CompressionWhatIf {
+    private static final int KB = 1024;
+
+    /**
+     * A compression mode and chunk size to try
+     */
+    static final class Candidate {
+        final String name;
+        final CompressionMode mode;
+        final int chunkSize;
+        final int maxDocsPerChunk;
+
+        Candidate(String name, CompressionMode mode, int chunkSize, int maxDocsPerChunk) {
+            this.name = name;
+            this.mode = mode;
+            this.chunkSize = chunkSize;
+            this.maxDocsPerChunk = maxDocsPerChunk;
+        }
+    }
+
+    // index.codec: default is BEST_SPEED (LZ4) with 80KB chunks, best_compression is BEST_COMPRESSION (DEFLATE) with
+    // 480KB chunks; the other chunk sizes show how much of the difference comes from the chunk size alone.
+    static final List<Candidate> CANDIDATES = Collections.unmodifiableList(Arrays.asList(
+            new Candidate("BEST_SPEED", Lucene87StoredFieldsFormat.BEST_SPEED_MODE, 16 * KB, 1024),
+            new Candidate("BEST_SPEED", Lucene87StoredFieldsFormat.BEST_SPEED_MODE, 80 * KB, 1024),
+            new Candidate("BEST_SPEED", Lucene87StoredFieldsFormat.BEST_SPEED_MODE, 480 * KB, 1024),
+            new Candidate("BEST_COMPRESSION", Lucene87StoredFieldsFormat.BEST_COMPRESSION_MODE, 80 * KB, 4096),
+            new Candidate("BEST_COMPRESSION", Lucene87StoredFieldsFormat.BEST_COMPRESSION_MODE, 480 * KB, 4096),
+            new Candidate("BEST_COMPRESSION", Lucene87StoredFieldsFormat.BEST_COMPRESSION_MODE, 960 * KB, 4096)));
+
+    // Every sample fills at least one chunk of the largest size tried, so no candidate only sees a partial chunk
+    static final int MIN_SAMPLE_BYTES = CANDIDATES.stream().mapToInt(c -> c.chunkSize).max().orElse(0);
+    // A group's sample is drawn from at most this many of its largest segments
+    static final int MAX_SAMPLES = 4;
+
+    private CompressionWhatIf() {
+    }
+
+    /**
+     * Number of samples to split a group's budget into: as many as fit at MIN_SAMPLE_BYTES each, up to MAX_SAMPLES
+     */
+    static int samples(long budgetBytes) {
+        return (int) Math.max(1, Math.min(MAX_SAMPLES, budgetBytes / MIN_SAMPLE_BYTES));
+    }
+
+    /**
+     * Bytes of documents in each sample; never less than MIN_SAMPLE_BYTES, even if the budget is smaller
+     */
+    static long sampleBytes(long budgetBytes) {
+        return Math.max(MIN_SAMPLE_BYTES, budgetBytes / samples(budgetBytes));
+    }
+
+    /**
+     * Sample up to budgetBytes of a segment's live documents and compress them with every candidate. The sample is a
+     * contiguous run of documents from a random starting point, so documents are compressed alongside the same
+     * neighbours they have on disk.
+     *
+     * @return The results, or null if the segment has no live documents
+     */
+    static CompressionStats measure(LeafReader reader, long budgetBytes, Random random) throws IOException {
+        if (reader.numDocs() == 0 || budgetBytes <= 0)
+            return null;
+        List<byte[]> documents = new ArrayList<>();
+        Bits liveDocs = reader.getLiveDocs();
+        RawDocumentVisitor visitor = new RawDocumentVisitor();
+        int start = random.nextInt(reader.maxDoc());
+        long sampled = 0;
+        for (int i = 0; i < reader.maxDoc() && sampled < budgetBytes; i++) {
+            int doc = (start + i) % reader.maxDoc();
+            if (liveDocs != null && !liveDocs.get(doc))
+                continue;
+            // Keep runs contiguous in doc ID order when the sample wraps around the end of the segment
+            if (doc == 0 && i > 0)
+                documents.add(null);
+            reader.document(doc, visitor);
+            byte[] document = visitor.finish();
+            documents.add(document);
+            sampled += document.length;
+        }
+        return measure(documents);
+    }
+
+    /**
+     * Compress the documents with every candidate. A null entry ends the current chunk.
+     */
+    static CompressionStats measure(List<byte[]> documents) throws IOException {
+        CompressionStats stats = new CompressionStats();
+        for (byte[] document : documents) {
+            if (document != null) {
+                stats.docs++;
+                stats.uncompressedBytes += document.length;
+            }
+        }
+        for (int c = 0; c < CANDIDATES.size(); c++) {
+            Candidate candidate = CANDIDATES.get(c);
+            Compressor compressor = candidate.mode.newCompressor();
+            Decompressor decompressor = candidate.mode.newDecompressor();
+            ByteBuffersDataOutput chunk = new ByteBuffersDataOutput();
+            int chunkDocs = 0;
+            boolean warm = false;
+            for (byte[] document : documents) {
+                if (document != null) {
+                    chunk.writeBytes(document, 0, document.length);
+                    chunkDocs++;
+                }
+                if (document == null || chunk.size() >= candidate.chunkSize || chunkDocs >= candidate.maxDocsPerChunk) {
+                    warm = compressChunk(chunk.toArrayCopy(), compressor, decompressor, stats, c, warm);
+                    chunk.reset();
+                    chunkDocs = 0;
+                }
+            }
+            compressChunk(chunk.toArrayCopy(), compressor, decompressor, stats, c, warm);
+            compressor.close();
+        }
+        return stats;
+    }
+
+    /**
+     * Compress and decompress one chunk, timing each separately. The first chunk of a candidate is run through once
+     * untimed, so class loading and the compressor's first allocations aren't charged to it.
+     *
+     * @return Whether the candidate is now warmed up
+     */
+    private static boolean compressChunk(byte[] chunk, Compressor compressor, Decompressor decompressor, CompressionStats stats, int candidate, boolean warm) throws IOException {
+        if (chunk.length == 0)
+            return warm;
+        BytesRef restored = new BytesRef();
+        if (!warm) {
+            ByteBuffersDataOutput compressed = new ByteBuffersDataOutput();
+            compressor.compress(chunk, 0, chunk.length, compressed);
+            decompressor.decompress(new ByteArrayDataInput(compressed.toArrayCopy()), chunk.length, 0, chunk.length, restored);
+        }
+
+        ByteBuffersDataOutput compressed = new ByteBuffersDataOutput();
+        long started = System.nanoTime();
+        compressor.compress(chunk, 0, chunk.length, compressed);
+        long compressedAt = System.nanoTime();
+        ByteArrayDataInput input = new ByteArrayDataInput(compressed.toArrayCopy());
+        long decompressStarted = System.nanoTime();
+        decompressor.decompress(input, chunk.length, 0, chunk.length, restored);
+        long decompressedAt = System.nanoTime();
+
+        stats.compressedBytes[candidate] += compressed.size();
+        stats.compressNanos[candidate] += compressedAt - started;
+        stats.decompressNanos[candidate] += decompressedAt - decompressStarted;
+        return true;
+    }
+
+    /**
+     * Re-encodes each visited document into one byte array, in roughly the layout of the stored fields format
+     */
+    static class RawDocumentVisitor extends StoredFieldVisitor {
+        // Lower bits of the field header holding the value's type, as in the stored fields format
+        private static final int TYPE_BITS = 3;
+        private static final int STRING = 0;
+        private static final int BYTE_ARR = 1;
+        private static final int NUMERIC_INT = 2;
+        private static final int NUMERIC_FLOAT = 3;
+        private static final int NUMERIC_LONG = 4;
+        private static final int NUMERIC_DOUBLE = 5;
+
+        private final ByteBuffersDataOutput out = new ByteBuffersDataOutput();
+
+        byte[] finish() {
+            byte[] document = out.toArrayCopy();
+            out.reset();
+            return document;
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            return Status.YES;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) throws IOException {
+            header(fieldInfo, BYTE_ARR);
+            out.writeVInt(value.length);
+            out.writeBytes(value, 0, value.length);
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, byte[] value) throws IOException {
+            header(fieldInfo, STRING);
+            out.writeVInt(value.length);
+            out.writeBytes(value, 0, value.length);
+        }
+
+        @Override
+        public void intField(FieldInfo fieldInfo, int value) throws IOException {
+            header(fieldInfo, NUMERIC_INT);
+            out.writeZInt(value);
+        }
+
+        @Override
+        public void longField(FieldInfo fieldInfo, long value) throws IOException {
+            header(fieldInfo, NUMERIC_LONG);
+            out.writeZLong(value);
+        }
+
+        @Override
+        public void floatField(FieldInfo fieldInfo, float value) throws IOException {
+            header(fieldInfo, NUMERIC_FLOAT);
+            out.writeInt(Float.floatToIntBits(value));
+        }
+
+        @Override
+        public void doubleField(FieldInfo fieldInfo, double value) throws IOException {
+            header(fieldInfo, NUMERIC_DOUBLE);
+            out.writeLong(Double.doubleToLongBits(value));
+        }
+
+        private void header(FieldInfo fieldInfo, int type) throws IOException {
+            out.writeVLong(((long) fieldInfo.number << TYPE_BITS) | type);
+        }
+    }
+}
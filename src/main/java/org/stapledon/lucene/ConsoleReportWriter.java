@@ -0,0 +1,309 @@
+package org.stapledon.lucene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import static org.stapledon.lucene.ElasticLuceneStats.DISK_BYTES;
+import static org.stapledon.lucene.ElasticLuceneStats.SECTION_SEPARATOR;
+
+/**
+ * The human readable report, written through the log.
+ */
+class ConsoleReportWriter implements ReportWriter, ComparisonWriter {
+    private static final Logger LOG = LoggerFactory.getLogger(ElasticLuceneStats.class);
+
+    // Paths listed in the source profile; the structured reports have all of them
+    private static final int TOP_SOURCE_PATHS = 40;
+
+    private final boolean includeSampleDocs;
+    private long nodeDiskBytes;
+
+    ConsoleReportWriter(boolean includeSampleDocs) {
+        this.includeSampleDocs = includeSampleDocs;
+    }
+
+    @Override
+    public void start(String stateDirectory, long nodeDiskBytes) {
+        this.nodeDiskBytes = nodeDiskBytes;
+    }
+
+    @Override
+    public void writeGroup(IndexGroup indexGroup) {
+        // Display Segment Details
+        LOG.info("Index Group: {}", indexGroup.indexGroupName);
+        LOG.info(SECTION_SEPARATOR);
+        for (IndexShard index : indexGroup.indices) {
+            LOG.info("  -> {}", index);
+        }
+        LOG.info(SECTION_SEPARATOR);
+        if (indexGroup.indices.stream().anyMatch(index -> !index.segments.isEmpty()))
+            writeSegments(indexGroup);
+        if (indexGroup.indices.stream().anyMatch(index -> index.translog != null))
+            writeTranslogs(indexGroup);
+
+
+        LOG.info("Index Statistics: {}", indexGroup.indexGroupName);
+        LOG.info(" - # of Documents    : {}", String.format("%,15d", indexGroup.docs));
+        LOG.info(" - # of Deleted Docs : {}", String.format("%,15d", indexGroup.deletedDocs));
+        LOG.info(" - Overall Percentage: {}", String.format("%15.2f %%", ((double) indexGroup.totalDiskSize / nodeDiskBytes)*100));
+        LOG.info(" - Lucene Index      : {}", String.format(DISK_BYTES, indexGroup.totalDiskSize));
+        LOG.info(" - Lucene TransLog   : {}", String.format(DISK_BYTES, indexGroup.totalTransLogSize));
+        LOG.info(" - Stored Fields     : {}", String.format(DISK_BYTES, indexGroup.storedFieldsDiskBytes));
+        LOG.info(" - Reclaimable       : {}", String.format(DISK_BYTES, indexGroup.reclaimableBytes));
+        LOG.info(" - After Force Merge : {}", String.format(DISK_BYTES, indexGroup.getForceMergedSize()));
+        LOG.info(" - Total Uncompressed: {}", String.format(DISK_BYTES, indexGroup.totalDiskSize));
+        LOG.info(SECTION_SEPARATOR);
+        if (!indexGroup.fileTypes.isEmpty())
+            writeFileTypes(indexGroup.indexGroupName, indexGroup.fileTypes);
+        if (indexGroup.memory != null)
+            writeMemory(indexGroup.indexGroupName, indexGroup.memory, indexGroup.indices.size());
+        if (indexGroup.compression != null)
+            writeCompression(indexGroup);
+        if (indexGroup.source != null && indexGroup.source.sampledDocuments > 0)
+            writeSourceProfile(indexGroup.indexGroupName, indexGroup.source);
+        if (indexGroup.fields.size() == 0)
+            LOG.info("No Records");
+        else {
+            indexGroup.fields.forEach((key, fieldStats) -> LOG.info("  -> {}", fieldStats));
+            if (indexGroup.fields.values().stream().anyMatch(f -> f.termsProfile != null))
+                writeTermsProfiles(indexGroup);
+            if (includeSampleDocs) {
+                LOG.info(SECTION_SEPARATOR);
+                LOG.info("Sample Docs:");
+                indexGroup.fields.forEach((key, fieldStats) -> {
+                        if (fieldStats.sampleDoc != null)
+                            LOG.info("  {} -> {}", fieldStats.name, fieldStats.sampleDoc);
+                });
+            }
+        }
+        LOG.info("{}\n\n", SECTION_SEPARATOR);
+    }
+
+    private void writeSegments(IndexGroup indexGroup) {
+        LOG.info("Segments: {}", indexGroup.indexGroupName);
+        for (IndexShard index : indexGroup.indices) {
+            LOG.info("  {}[{}]", index.getIndexName(), index.getShardId());
+            for (SegmentProfile segment : index.segments)
+                LOG.info("    -> {}", segment);
+            for (MergeSimulator.Merge merge : index.merges)
+                LOG.info("    => {}", merge);
+        }
+        StringBuilder tiers = new StringBuilder();
+        for (int i = 0; i < SegmentProfile.TIER_LABELS.length; i++) {
+            if (indexGroup.segmentTierCounts[i] > 0)
+                tiers.append(String.format("%s: %,d segments, %,d bytes;  ", SegmentProfile.TIER_LABELS[i], indexGroup.segmentTierCounts[i], indexGroup.segmentTierBytes[i]));
+        }
+        LOG.info(" - Size Tiers        : {}", tiers.toString().trim());
+        LOG.info(" - Pending Merges    : {}", String.format("%,15d", indexGroup.pendingMerges));
+        LOG.info(SECTION_SEPARATOR);
+    }
+
+    private void writeTranslogs(IndexGroup indexGroup) {
+        LOG.info("Translog: {}", indexGroup.indexGroupName);
+        for (IndexShard index : indexGroup.indices) {
+            TranslogStats translog = index.translog;
+            if (translog == null)
+                continue;
+            LOG.info("  -> {}[{}]: {};  ~{}s to replay", index.getIndexName(), index.getShardId(), translog, String.format("%,.1f", translog.replaySeconds));
+            for (String warning : translog.warnings)
+                LOG.info("     ! {}", warning);
+        }
+        LOG.info(SECTION_SEPARATOR);
+    }
+
+    /**
+     * Number and size of the files of each extension, largest first
+     */
+    private void writeFileTypes(String name, Map<String, DirectorySizes.FileStats> fileTypes) {
+        long totalBytes = fileTypes.values().stream().mapToLong(f -> f.bytes).sum();
+        LOG.info("Files: {}", name);
+        fileTypes.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, DirectorySizes.FileStats> e) -> e.getValue().bytes).reversed())
+                .forEach(e -> LOG.info(String.format("  -> %-9s %,10d files %,18d bytes %6.2f%%  %s", e.getKey(), e.getValue().files, e.getValue().bytes,
+                        totalBytes > 0 ? (double) e.getValue().bytes / totalBytes * 100 : 0.0, SegmentFiles.describe(e.getKey()))));
+        LOG.info(SECTION_SEPARATOR);
+    }
+
+    private void writeMemory(String name, MemoryStats memory, int shards) {
+        LOG.info("Memory: {}", name);
+        LOG.info(" - Heap              : {}", String.format(DISK_BYTES, memory.getHeapBytes()));
+        LOG.info("     Postings        : {} (terms readers {})", String.format(DISK_BYTES, memory.postingsHeapBytes), String.format("%,d", memory.termsIndexHeapBytes));
+        LOG.info("     Doc Values      : {}", String.format(DISK_BYTES, memory.docValuesHeapBytes));
+        LOG.info("     Points          : {}", String.format(DISK_BYTES, memory.pointsHeapBytes));
+        LOG.info("     Norms           : {}", String.format(DISK_BYTES, memory.normsHeapBytes));
+        LOG.info("     Stored Fields   : {}", String.format(DISK_BYTES, memory.storedFieldsHeapBytes));
+        LOG.info("     Term Vectors    : {}", String.format(DISK_BYTES, memory.termVectorsHeapBytes));
+        LOG.info(" - Off-Heap          : {} (terms index {}, points index {})", String.format(DISK_BYTES, memory.getOffHeapBytes()),
+                String.format("%,d", memory.termsIndexOffHeapBytes), String.format("%,d", memory.pointsIndexOffHeapBytes));
+        LOG.info(" - Fielddata (text)  : {}", String.format(DISK_BYTES, memory.fielddataBytes));
+        if (shards > 0)
+            LOG.info(" - Heap per Shard    : {}", String.format(DISK_BYTES, memory.getHeapBytes() / shards));
+        LOG.info(" - Heap per 1M Docs  : {}", String.format(DISK_BYTES, memory.getHeapBytesPerMillionDocs()));
+        LOG.info(SECTION_SEPARATOR);
+    }
+
+    private void writeCompression(IndexGroup indexGroup) {
+        CompressionStats compression = indexGroup.compression;
+        long storedBytes = indexGroup.getStoredUncompressedBytes();
+        LOG.info("Compression What-If: {} ({} documents, {} bytes sampled; {} bytes stored, {} bytes on disk)", indexGroup.indexGroupName,
+                String.format("%,d", compression.docs), String.format("%,d", compression.uncompressedBytes), String.format("%,d", storedBytes),
+                String.format("%,d", indexGroup.storedFieldsDiskBytes));
+        for (int i = 0; i < CompressionWhatIf.CANDIDATES.size(); i++) {
+            CompressionWhatIf.Candidate candidate = CompressionWhatIf.CANDIDATES.get(i);
+            LOG.info(String.format("  -> %-16s %4dKB chunks: %5.1f%% of uncompressed; projected %,15d bytes; compress %,8.1f MB/s; decompress %,8.1f MB/s",
+                    candidate.name, candidate.chunkSize / 1024, compression.ratio(i) * 100, compression.projectedBytes(i, storedBytes),
+                    compression.compressMegabytesPerSecond(i), compression.decompressMegabytesPerSecond(i)));
+        }
+        LOG.info(SECTION_SEPARATOR);
+    }
+
+    /**
+     * The heaviest JSON paths of the _source; a path's bytes include the paths below it
+     */
+    private void writeSourceProfile(String name, SourceProfile source) {
+        LOG.info("Source Profile: {} ({} documents sampled; ~{} bytes of _source in ~{} documents)", name, String.format("%,d", source.sampledDocuments),
+                String.format("%,.0f", source.sourceBytes), String.format("%,.0f", source.documents));
+        List<SourceProfile.Path> paths = source.getPaths();
+        for (SourceProfile.Path path : paths.subList(0, Math.min(TOP_SOURCE_PATHS, paths.size())))
+            LOG.info(String.format("  -> %-50s ~%,18.0f bytes %6.2f%%;  in %6.2f%% of documents, %,12.1f bytes each",
+                    path.path, path.bytes, source.share(path) * 100, source.documents > 0 ? path.docs / source.documents * 100 : 0.0, path.getAverageBytes()));
+        if (paths.size() > TOP_SOURCE_PATHS)
+            LOG.info("  ... {} more paths", paths.size() - TOP_SOURCE_PATHS);
+        if (source.truncated)
+            LOG.info("  Over {} paths; the bytes of further paths are counted in their parents", SourceProfile.MAX_PATHS);
+        if (source.unparsedDocuments > 0)
+            LOG.info("  {} documents couldn't be parsed", String.format("%,d", source.unparsedDocuments));
+        LOG.info(SECTION_SEPARATOR);
+    }
+
+    private void writeTermsProfiles(IndexGroup indexGroup) {
+        LOG.info(SECTION_SEPARATOR);
+        LOG.info("Terms Profile: {} (distinct terms +/-{}%)", indexGroup.indexGroupName, String.format("%.1f", HyperLogLog.STANDARD_ERROR * 100));
+        indexGroup.fields.forEach((key, fieldStats) -> {
+            TermsProfile profile = fieldStats.termsProfile;
+            if (profile == null)
+                return;
+            LOG.info(String.format("  -> %-35s ~%,d distinct of %,d terms (%,d bytes); %5.1f%% in a single document",
+                    fieldStats.name, profile.uniqueTerms(), profile.terms, profile.termBytes, profile.singletonShare() * 100));
+            LOG.info("       Term Lengths  : {}", format(profile.getLengthHistogram()));
+            LOG.info("       Doc Frequency : {}", format(profile.getDocFreqHistogram()));
+            LOG.info("       Top Prefixes  : {}", format(profile.getTopPrefixes()));
+        });
+    }
+
+    private static String format(Map<String, Long> counts) {
+        return counts.entrySet().stream().map(e -> String.format("%s: %,d", e.getKey(), e.getValue())).collect(Collectors.joining(";  "));
+    }
+
+    @Override
+    public void finish(Collection<IndexGroup> groups, IoStats io) {
+        LOG.info("{}\n\n", SECTION_SEPARATOR);
+        LOG.info("Index Groups");
+        LOG.info(SECTION_SEPARATOR);
+        for (IndexGroup indexGroup : groups) {
+            LOG.info(String.format("Index Group: %-33s  Percentage: %6.2f%%,  Documents: %,18d,  Size: %,20d",
+                    indexGroup.indexGroupName,
+                    ((double) indexGroup.totalDiskSize / nodeDiskBytes)*100,
+                    indexGroup.docs,
+                    indexGroup.totalDiskSize));
+        }
+        LOG.info(SECTION_SEPARATOR);
+        MemoryStats nodeMemory = null;
+        Map<String, DirectorySizes.FileStats> nodeFileTypes = new TreeMap<>();
+        int shards = 0;
+        for (IndexGroup indexGroup : groups) {
+            nodeMemory = MemoryStats.merge(nodeMemory, indexGroup.memory);
+            DirectorySizes.mergeInto(nodeFileTypes, indexGroup.fileTypes);
+            shards += indexGroup.indices.size();
+        }
+        if (!nodeFileTypes.isEmpty())
+            writeFileTypes("this node", nodeFileTypes);
+        if (nodeMemory != null)
+            writeMemory("this node", nodeMemory, shards);
+        LOG.info("I/O {}", io);
+        LOG.info(SECTION_SEPARATOR);
+        writeRunProfile(io.profile);
+        LOG.info("{}\n\n", SECTION_SEPARATOR);
+    }
+
+    /**
+     * Time by phase, the segment throughput, and the slowest segments and fields
+     */
+    private void writeRunProfile(RunProfile profile) {
+        LOG.info("Run Profile");
+        LOG.info(String.format("  -> %-18s %8s %12s %12s", "Phase", "Calls", "Seconds", "CPU Seconds"));
+        for (RunProfile.Phase phase : RunProfile.Phase.values()) {
+            if (profile.getCalls(phase) == 0)
+                continue;
+            double cpuSeconds = profile.getCpuSeconds(phase);
+            LOG.info(String.format("  -> %-18s %,8d %12.3f %12s", phase.label, profile.getCalls(phase), profile.getSeconds(phase),
+                    cpuSeconds >= 0 ? String.format("%.3f", cpuSeconds) : "-"));
+        }
+        double seconds = profile.analysedNanos.sum() / 1e9;
+        LOG.info(String.format("Segments: %,d analysed, %,d cached; %,.0f docs/s and %,.1f MB/s per thread", profile.analysedSegments.sum(),
+                profile.cachedSegments.sum(), seconds > 0 ? profile.analysedDocs.sum() / seconds : 0.0,
+                seconds > 0 ? profile.analysedBytes.sum() / (1024.0 * 1024.0) / seconds : 0.0));
+        List<RunProfile.Segment> segments = profile.getSlowestSegments();
+        if (!segments.isEmpty()) {
+            LOG.info("Slowest Segments");
+            for (RunProfile.Segment segment : segments)
+                LOG.info(String.format("  -> %-40s %-8s %10.3f s %,12d docs %,18d bytes %,12.0f docs/s %,10.1f MB/s",
+                        segment.index + "[" + segment.shard + "]", segment.segment, segment.getSeconds(), segment.docs, segment.bytes,
+                        segment.getDocsPerSecond(), segment.getBytesPerSecond() / (1024.0 * 1024.0)));
+        }
+        List<RunProfile.Field> fields = profile.getSlowestFields();
+        if (!fields.isEmpty()) {
+            LOG.info("Slowest Fields (terms)");
+            for (RunProfile.Field field : fields)
+                LOG.info(String.format("  -> %-40s %10.3f s %,8d segments", field.name, field.getSeconds(), field.segments));
+        }
+    }
+
+    @Override
+    public void startComparison(List<ReportComparison.Snapshot> snapshots) {
+        LOG.info("Comparing Reports");
+        LOG.info(SECTION_SEPARATOR);
+        for (ReportComparison.Snapshot snapshot : snapshots)
+            LOG.info(String.format("  -> %-24s %,20d bytes  %s  (%s)", snapshot.time, snapshot.diskBytes, snapshot.path, snapshot.file));
+        LOG.info(SECTION_SEPARATOR);
+    }
+
+    /**
+     * Groups with the fields driving their growth, then the node; the structured reports also have every field
+     */
+    @Override
+    public void writeDelta(ReportComparison.Delta delta) {
+        if (delta.field != null)
+            return;
+        if (delta.group == null) {
+            LOG.info(SECTION_SEPARATOR);
+            LOG.info(String.format("This Node: %,20d bytes %+,18d %s;  %,18d docs %+,15d %s over %.1f days",
+                    delta.getLastBytes(), delta.getDeltaBytes(), perDay(delta, delta.getBytesPerDay()), delta.docs[delta.docs.length - 1],
+                    delta.getDeltaDocs(), perDay(delta, delta.getDocsPerDay()), delta.getDays()));
+            LOG.info("{}\n\n", SECTION_SEPARATOR);
+            return;
+        }
+        LOG.info(String.format("Index Group: %-33s %-7s %,20d bytes %+,18d %s;  %+,15d docs;  %,12.1f bytes/doc (%+,.1f)",
+                delta.group, delta.getStatus(), delta.getLastBytes(), delta.getDeltaBytes(), perDay(delta, delta.getBytesPerDay()), delta.getDeltaDocs(),
+                delta.getLastBytesPerDoc(), delta.getLastBytesPerDoc() - delta.getFirstBytesPerDoc()));
+        for (ReportComparison.Delta driver : delta.drivers)
+            LOG.info(String.format("    -> %-40s %-7s %+,18d bytes %s;  %,12.1f bytes/doc (%+,.1f)",
+                    driver.field, driver.getStatus(), driver.getDeltaBytes(), perDay(driver, driver.getBytesPerDay()), driver.getLastBytesPerDoc(),
+                    driver.getLastBytesPerDoc() - driver.getFirstBytesPerDoc()));
+    }
+
+    private static String perDay(ReportComparison.Delta delta, double rate) {
+        return delta.isOverTime() ? String.format("(%+,15.0f/day)", rate) : String.format("%21s", "");
+    }
+
+    @Override
+    public void close() {
+    }
+}
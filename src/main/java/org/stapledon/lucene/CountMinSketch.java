@@ -0,0 +1,40 @@
+package org.stapledon.lucene;
+
+/**
+ * Count-min sketch: approximate counts of many keys in fixed memory. An estimate never undercounts, and overcounts by
+ * at most a small share of the total count with high probability. Sketches of the same dimensions merge by adding
+ * their cells.
+ */
+class CountMinSketch {
+    static final int DEPTH = 4;
+    static final int WIDTH = 1024;
+
+    private final long[][] cells = new long[DEPTH][WIDTH];
+
+    /**
+     * Add to the count of a key, given as two independent 64-bit hashes of it
+     */
+    void add(long hash1, long hash2, long count) {
+        for (int row = 0; row < DEPTH; row++)
+            cells[row][cell(hash1, hash2, row)] += count;
+    }
+
+    long estimate(long hash1, long hash2) {
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++)
+            estimate = Math.min(estimate, cells[row][cell(hash1, hash2, row)]);
+        return estimate;
+    }
+
+    void merge(CountMinSketch other) {
+        for (int row = 0; row < DEPTH; row++) {
+            for (int i = 0; i < WIDTH; i++)
+                cells[row][i] += other.cells[row][i];
+        }
+    }
+
+    // Each row's hash is derived from the two hashes (Kirsch-Mitzenmacher)
+    private static int cell(long hash1, long hash2, int row) {
+        return (int) Long.remainderUnsigned(hash1 + row * hash2, WIDTH);
+    }
+}
@@ -0,0 +1,25 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+
+import java.io.IOException;
+
+/**
+ * Counts the bytes Lucene reads from the wrapped directory's inputs, including their clones and slices.
+ */
+class CountingDirectory extends FilterDirectory {
+    private final ListeningIndexInput.Listener counter;
+
+    CountingDirectory(Directory in, IoStats stats) {
+        super(in);
+        this.counter = stats.bytesRead::add;
+    }
+
+    @Override
+    public IndexInput openInput(String name, IOContext context) throws IOException {
+        return new ListeningIndexInput(in.openInput(name, context), counter);
+    }
+}
@@ -0,0 +1,52 @@
+package org.stapledon.lucene;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Writes the report as CSV with a header row. Every record has the same columns (see COLUMNS); the "type" column
+ * says which kind of record a row is, and columns that don't apply to it are left empty. Sample documents are
+ * never written.
+ */
+class CsvReportWriter extends StructuredReportWriter {
+    private static final List<String> CSV_COLUMNS = COLUMNS.stream().filter(c -> !"sample".equals(c)).collect(Collectors.toList());
+
+    CsvReportWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    public void start(String stateDirectory, long nodeDiskBytes) throws IOException {
+        out.write(String.join(",", CSV_COLUMNS));
+        out.write('\n');
+        super.start(stateDirectory, nodeDiskBytes);
+    }
+
+    @Override
+    public void startComparison(List<ReportComparison.Snapshot> snapshots) throws IOException {
+        out.write(String.join(",", CSV_COLUMNS));
+        out.write('\n');
+        super.startComparison(snapshots);
+    }
+
+    @Override
+    protected void writeRecord(Map<String, Object> record) throws IOException {
+        for (int i = 0; i < CSV_COLUMNS.size(); i++) {
+            if (i > 0)
+                out.write(',');
+            Object value = record.get(CSV_COLUMNS.get(i));
+            if (value != null)
+                out.write(escape(value.toString()));
+        }
+        out.write('\n');
+    }
+
+    static String escape(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
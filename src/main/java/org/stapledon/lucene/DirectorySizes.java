@@ -0,0 +1,248 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.store.ByteArrayDataInput;
+import org.apache.lucene.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * Size of every directory under one or more "indices" directories, gathered in a single pass.
+ *
+ * Each index directory is walked as a separate task, so the walk runs in parallel when the runner has more than one
+ * thread. File sizes come from the attributes returned by the walk itself, which avoids a second stat per file. Every
+ * directory keeps the number and size of the files beneath it, in total and by file extension, so any sizing question
+ * about a directory is answered from memory. The contents of compound files are counted under their own extensions
+ * (fdt, tim, ...), read from each segment's small compound entries file; the compound files themselves are left with
+ * just their headers and footers.
+ */
+class DirectorySizes {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectorySizes.class);
+    // Extension used for files without one
+    static final String NO_EXTENSION = "(none)";
+    // Compound files are split into their entries, which are listed in the compound entries (.cfe) file
+    private static final String COMPOUND_FILE_EXTENSION = "cfs";
+    private static final String COMPOUND_ENTRIES_EXTENSION = "cfe";
+    private static final String COMPOUND_ENTRIES_CODEC = "Lucene50CompoundEntries";
+
+    /**
+     * Number and total size of a set of files
+     */
+    static final class FileStats {
+        long files;
+        long bytes;
+
+        void add(long files, long bytes) {
+            this.files += files;
+            this.bytes += bytes;
+        }
+    }
+
+    /**
+     * Files beneath a directory, in total and by extension
+     */
+    private static final class Node {
+        final FileStats total = new FileStats();
+        final Map<String, FileStats> extensions = new TreeMap<>();
+
+        void addFile(String extension, long bytes) {
+            total.add(1, bytes);
+            extensions.computeIfAbsent(extension, k -> new FileStats()).add(1, bytes);
+        }
+
+        /**
+         * Count the entries of a compound file under their own extensions rather than the compound file's, leaving
+         * the totals unchanged
+         */
+        void addCompoundEntries(Map<String, FileStats> entries) {
+            FileStats compound = extensions.computeIfAbsent(COMPOUND_FILE_EXTENSION, k -> new FileStats());
+            entries.forEach((extension, stats) -> {
+                extensions.computeIfAbsent(extension, k -> new FileStats()).add(stats.files, stats.bytes);
+                compound.add(0, -stats.bytes);
+            });
+        }
+
+        void addAll(Node child) {
+            total.add(child.total.files, child.total.bytes);
+            child.extensions.forEach((extension, stats) -> extensions.computeIfAbsent(extension, k -> new FileStats()).add(stats.files, stats.bytes));
+        }
+    }
+
+    private static final Node EMPTY = new Node();
+
+    private final Map<Path, Node> nodes = new HashMap<>();
+    private long total;
+
+    private DirectorySizes() {
+    }
+
+    static DirectorySizes walk(TaskRunner runner, List<Path> roots) {
+        List<Callable<Map<Path, Node>>> tasks = new ArrayList<>();
+        List<Path> directories = new ArrayList<>();
+        List<Path> looseFiles = new ArrayList<>();
+        for (Path root : roots) {
+            if (!Files.isDirectory(root))
+                continue;
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(root)) {
+                for (Path child : children) {
+                    if (Files.isDirectory(child)) {
+                        directories.add(child.toAbsolutePath().normalize());
+                        tasks.add(() -> walkDirectory(child));
+                    } else
+                        looseFiles.add(child);
+                }
+            } catch (IOException e) {
+                LOG.error("Unable to list {}: {}", root, e.getLocalizedMessage());
+            }
+        }
+
+        DirectorySizes result = new DirectorySizes();
+        for (Map<Path, Node> nodes : runner.invokeAll(tasks))
+            result.nodes.putAll(nodes);
+        for (Path directory : directories)
+            result.total += result.size(directory);
+        for (Path file : looseFiles) {
+            try {
+                result.total += Files.size(file);
+            } catch (IOException e) {
+                LOG.error("Failed to get size of {}: {}", file, e.getLocalizedMessage());
+            }
+        }
+        return result;
+    }
+
+    private static Map<Path, Node> walkDirectory(Path directory) {
+        Map<Path, Node> nodes = new HashMap<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    stack.push(new Node());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (!attrs.isRegularFile())
+                        return FileVisitResult.CONTINUE;
+                    String extension = extension(file.getFileName().toString());
+                    stack.peek().addFile(extension, attrs.size());
+                    if (COMPOUND_ENTRIES_EXTENSION.equals(extension)) {
+                        try {
+                            stack.peek().addCompoundEntries(compoundEntries(Files.readAllBytes(file)));
+                        } catch (IOException | RuntimeException e) {
+                            LOG.warn("Unable to read compound file entries {}: {}", file, e.getLocalizedMessage());
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException e) {
+                    LOG.error("Failed to get size of {}: {}", file, e.getLocalizedMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) {
+                    Node node = stack.pop();
+                    nodes.put(dir.toAbsolutePath().normalize(), node);
+                    if (!stack.isEmpty())
+                        stack.peek().addAll(node);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            LOG.error("{}", e.getLocalizedMessage(), e);
+        }
+        return nodes;
+    }
+
+    /**
+     * Number and size of the entries of a compound file by extension, from its compound entries (.cfe) file
+     */
+    static Map<String, FileStats> compoundEntries(byte[] entriesFile) throws IOException {
+        ByteArrayDataInput in = new ByteArrayDataInput(entriesFile);
+        // Index header: codec and version, then the segment ID and a suffix, neither of which is needed here
+        CodecUtil.checkHeader(in, COMPOUND_ENTRIES_CODEC, 0, Integer.MAX_VALUE);
+        in.skipBytes(StringHelper.ID_LENGTH);
+        in.skipBytes(in.readByte() & 0xFF);
+        Map<String, FileStats> entries = new TreeMap<>();
+        int count = in.readVInt();
+        for (int i = 0; i < count; i++) {
+            String extension = extension(in.readString());
+            in.readLong();
+            entries.computeIfAbsent(extension, k -> new FileStats()).add(1, in.readLong());
+        }
+        return entries;
+    }
+
+    /**
+     * Extension a file is counted under: the Lucene extension (e.g. fdt, tim), "segments" for commit points, or the
+     * text after the last dot for anything else (e.g. tlog, ckp, st)
+     */
+    static String extension(String fileName) {
+        if (fileName.startsWith(IndexFileNames.SEGMENTS + "_") || fileName.equals(IndexFileNames.PENDING_SEGMENTS))
+            return IndexFileNames.SEGMENTS;
+        String extension = IndexFileNames.getExtension(fileName);
+        return extension == null || extension.isEmpty() ? NO_EXTENSION : extension;
+    }
+
+    private Node node(Path directory) {
+        return nodes.getOrDefault(directory.toAbsolutePath().normalize(), EMPTY);
+    }
+
+    /**
+     * @return Size of all files under the directory, or 0 if it wasn't part of the walk
+     */
+    long size(Path directory) {
+        return node(directory).total.bytes;
+    }
+
+    /**
+     * @return Number of files under the directory, or 0 if it wasn't part of the walk
+     */
+    long files(Path directory) {
+        return node(directory).total.files;
+    }
+
+    /**
+     * @return Number and size of the files under the directory by extension, empty if it wasn't part of the walk
+     */
+    Map<String, FileStats> extensions(Path directory) {
+        return Collections.unmodifiableMap(node(directory).extensions);
+    }
+
+    /**
+     * Add the files of each extension in source to target
+     */
+    static void mergeInto(Map<String, FileStats> target, Map<String, FileStats> source) {
+        source.forEach((extension, stats) -> target.computeIfAbsent(extension, k -> new FileStats()).add(stats.files, stats.bytes));
+    }
+
+    /**
+     * @return Size of everything under the roots
+     */
+    long total() {
+        return total;
+    }
+}
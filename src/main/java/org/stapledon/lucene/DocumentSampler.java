@@ -0,0 +1,103 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.util.Bits;
+
+import java.util.Random;
+
+/**
+ * Chooses which documents of a segment to visit when sampling, and turns the sampled values back into estimates.
+ *
+ * The live documents are split, in doc-ID order, into strata of equal size and one is picked at random from each, so
+ * the sample covers old and new documents evenly rather than only the start of the segment. Every live document is
+ * equally likely to be picked however the deletes are spread, which keeps the mean of the sample an unbiased
+ * estimate. The picks are returned in random order; any prefix of the result is itself a random sample, which lets
+ * sampling stop early once an estimate has converged.
+ */
+final class DocumentSampler {
+
+    private DocumentSampler() {
+    }
+
+    /**
+     * @param maxDoc     - Number of doc IDs in the segment
+     * @param liveDocs   - Live documents, or null if the segment has no deletions
+     * @param sampleSize - Maximum number of documents to return
+     * @param random     - Source of randomness
+     * @return Doc IDs to visit, all live; every live doc (in order) if the segment is no larger than the sample
+     */
+    static int[] sample(int maxDoc, Bits liveDocs, int sampleSize, Random random) {
+        int numLive = liveDocs == null ? maxDoc : countLive(maxDoc, liveDocs);
+        if (sampleSize >= numLive) {
+            int[] all = new int[numLive];
+            int n = 0;
+            for (int doc = 0; doc < maxDoc; doc++) {
+                if (liveDocs == null || liveDocs.get(doc))
+                    all[n++] = doc;
+            }
+            return all;
+        }
+
+        // Live ordinals picked from each stratum, in increasing order
+        int[] docs = new int[sampleSize];
+        for (int stratum = 0; stratum < sampleSize; stratum++) {
+            int start = (int) ((long) stratum * numLive / sampleSize);
+            int end = (int) ((long) (stratum + 1) * numLive / sampleSize);
+            docs[stratum] = start + random.nextInt(end - start);
+        }
+        toDocIds(docs, maxDoc, liveDocs);
+
+        // Shuffle so that any prefix is a random sample of the strata
+        for (int i = docs.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = docs[i];
+            docs[i] = docs[j];
+            docs[j] = tmp;
+        }
+        return docs;
+    }
+
+    /**
+     * Replaces sorted live ordinals with the doc IDs of those live documents
+     */
+    private static void toDocIds(int[] ordinals, int maxDoc, Bits liveDocs) {
+        if (liveDocs == null)
+            return;
+        int ordinal = 0;
+        int i = 0;
+        for (int doc = 0; doc < maxDoc && i < ordinals.length; doc++) {
+            if (!liveDocs.get(doc))
+                continue;
+            if (ordinal++ == ordinals[i])
+                ordinals[i++] = doc;
+        }
+    }
+
+    private static int countLive(int maxDoc, Bits liveDocs) {
+        int count = 0;
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (liveDocs.get(doc))
+                count++;
+        }
+        return count;
+    }
+
+    /**
+     * Estimated population total from a sample of n out of N documents
+     */
+    static long estimateTotal(double sum, long n, long populationSize) {
+        if (n == 0)
+            return 0L;
+        return Math.round(sum / n * populationSize);
+    }
+
+    /**
+     * Variance of the estimated total, with the finite population correction. Zero when every document was visited.
+     */
+    static double estimateVariance(double sum, double sumOfSquares, long n, long populationSize) {
+        if (n < 2 || n >= populationSize)
+            return 0.0;
+        double mean = sum / n;
+        double sampleVariance = Math.max(0.0, (sumOfSquares - n * mean * mean) / (n - 1));
+        return (double) populationSize * populationSize * (1.0 - (double) n / populationSize) * sampleVariance / n;
+    }
+}
@@ -5,7 +5,8 @@
 import org.apache.lucene.codecs.blocktree.Stats;
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RateLimiter;
+import org.apache.lucene.util.Bits;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -13,14 +14,41 @@
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.stream.Stream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 public class ElasticLuceneStats {
     private static final Logger LOG = LoggerFactory.getLogger(ElasticLuceneStats.class);
     public static final String DISK_BYTES = "%,15d bytes";
     public static final String SECTION_SEPARATOR = "--------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------------";
 
+    // Number of documents visited between convergence checks when sampling adaptively
+    private static final int ADAPTIVE_SAMPLE_BATCH = 100;
+
     public final CommandLine options;
+    private SegmentCache segmentCache;
+    private IoStats ioStats = new IoStats(IoMode.AUTO);
+    // Read limit shared by every thread, or null for none, and the pacing of segment tasks
+    private RateLimiter rateLimiter;
+    private LoadGovernor governor = LoadGovernor.NONE;
+    // Fields whose terms dictionary is profiled, or null for none
+    private Pattern termsProfileFields;
+    // When either is set, only the fields matching the pattern or with an estimated terms dictionary of at least
+    // that many bytes in a segment have their blocktree statistics walked; the rest keep the estimate
+    private Pattern termsStatsFields;
+    private long termsStatsMinBytes;
+    // Operations per second replayed from a translog, when translogs are read
+    private double replayRate;
 
     public ElasticLuceneStats(CommandLine options) {
         this.options = options;
@@ -34,158 +62,578 @@ public static void main(String[] args)
     }
 
 
-    private void loadIndexStats(IndexGroup group, IndexShard index) {
+    /**
+     * Analyse every segment of a shard and return the merged statistics for the shard.
+     *
+     * Segments are analysed as independent tasks and merged in segment order, so the result is the same whether the
+     * tasks ran sequentially or in parallel.
+     */
+    private PartialStats loadIndexStats(TaskRunner runner, DirectorySizes sizes, IndexShard index, int compressionSamples, long compressionSampleBytes) {
+        PartialStats shardStats = new PartialStats();
         try {
-            // Get the size of this index and add it to the Index Group
-            long indexGroupSize = getDirectorySize(Paths.get(index.getIndexDirectoryName()));
-            long indexTranslogSize = getDirectorySize(Paths.get(index.getTransLogDirectoryName()));
+            // Get the size of this index
+            long indexGroupSize = sizes.size(Paths.get(index.getIndexDirectoryName()));
+            long indexTranslogSize = sizes.size(Paths.get(index.getTransLogDirectoryName()));
             index.updateDiskUsage(indexGroupSize, indexTranslogSize);
-            group.updateDiskUsage(indexGroupSize, indexTranslogSize);
 
-            Directory indexDirectory = FSDirectory.open(Paths.get(index.getIndexDirectoryName()));
-            if (indexDirectory.listAll().length == 0) {
+            // The walk already listed the directory
+            if (sizes.files(Paths.get(index.getIndexDirectoryName())) == 0) {
                 LOG.error("No Lucene segments located in {}", index.getIndexDirectoryName());
-                return;
+                return shardStats;
             }
-            try (IndexReader indexReader = DirectoryReader.open(indexDirectory)) {
+            RunProfile.Stopwatch stopwatch = ioStats.profile.stopwatch();
+            try (Directory indexDirectory = openShardDirectory(Paths.get(index.getIndexDirectoryName()));
+                 DirectoryReader indexReader = DirectoryReader.open(indexDirectory)) {
+                stopwatch.lap(RunProfile.Phase.OPEN);
                 LOG.debug("{} has {} segments to process", index.getIndexShortName(), indexReader.leaves().size());
-                for (LeafReaderContext context : indexReader.leaves()) {
-
-                    // Visit all of the documents and calculate the size of the stored fields
-                    boolean estimate = this.options.hasOption(StartupUtils.OPTION_SAMPLE);
-                    StatsStoredFieldVisitor statsStoredFieldVisitor = new StatsStoredFieldVisitor();
-                    LeafReader reader = FilterLeafReader.unwrap(context.reader());
-                    int i = 0;
-                    LOG.debug("  -> Processing segment {} with {} documents", context.ord, reader.numDocs());
-                    long segmentLimit = this.options.hasOption(StartupUtils.OPTION_SAMPLE) ? Long.parseLong(this.options.getOptionValue(StartupUtils.OPTION_NUMBER_OF_SAMPLES, StartupUtils.DEFAULT_SAMPLE_SIZE)) : Long.MAX_VALUE;
-                    segmentLimit = Math.min(segmentLimit, reader.maxDoc());
-                    while (i < segmentLimit) {
-                        reader.document(i, statsStoredFieldVisitor);
-                        i++;
-                    }
-                    // Visit all of the Fields and get the statistics for them
-                    LOG.debug("  -> Processing {} fields", reader.getFieldInfos().size());
-                    for (FieldInfo field : reader.getFieldInfos()) {
-                        group.fields.putIfAbsent(field.name, new FieldStatsHolder(field.name, field.getIndexOptions()));
-                        Terms terms = reader.terms(field.name);
-                        if (terms instanceof FieldReader) {
-                            Stats fieldStats = ((FieldReader) terms).getStats();
-                            group.fields.get(field.name).accumulateStats(fieldStats);
-                        }
-                        // Adjust docValues if it's an estimated value
-                        long docValues = statsStoredFieldVisitor.STATS.getOrDefault(field.name, 0L);
-                        if (estimate) {
-                            docValues = new Double((docValues / segmentLimit) * reader.maxDoc()).longValue();
-                        }
-                        group.fields.get(field.name).accumulateStoredFieldBytes(docValues);
-                        group.fields.get(field.name).accumulateSample(statsStoredFieldVisitor.SAMPLE.getOrDefault(field.name, null));
-                    }
+                if (options.hasOption(StartupUtils.OPTION_SEGMENTS))
+                    profileSegments(index, indexReader);
+                List<Callable<PartialStats>> tasks = new ArrayList<>();
+                for (LeafReaderContext context : indexReader.leaves())
+                    tasks.add(governor.govern(() -> loadSegmentStats(index, context)));
+
+                for (PartialStats segmentStats : runner.invokeAll(tasks)) {
                     // Accumulate the number of docs and deleted docs for this segment
-                    index.updateDocs(reader.numDocs(), reader.numDeletedDocs());
-                    group.updateDocs(reader.numDocs(), reader.numDeletedDocs());
+                    index.updateDocs(segmentStats.docs, segmentStats.deletedDocs);
+                    index.updateReclaimable(segmentStats.reclaimableBytes);
+                    shardStats.merge(segmentStats);
+                }
+                if (compressionSamples > 0) {
+                    stopwatch.reset();
+                    shardStats.compression = sampleCompression(indexReader, compressionSamples, compressionSampleBytes);
+                    stopwatch.lap(RunProfile.Phase.COMPRESSION);
+                }
+                if (options.hasOption(StartupUtils.OPTION_TRANSLOG) && sizes.files(Paths.get(index.getTransLogDirectoryName())) > 0) {
+                    stopwatch.reset();
+                    loadTranslogStats(index, TranslogReader.localCheckpoint(indexReader.getIndexCommit().getUserData()));
+                    stopwatch.lap(RunProfile.Phase.TRANSLOG);
                 }
             }
         } catch (IOException e) {
             LOG.error(e.getLocalizedMessage());
         }
+        return shardStats;
+    }
+
+    /**
+     * Re-compress samples from the shard's largest segments, one sample per segment. If the shard has fewer segments
+     * with live documents than samples, those it has share the whole budget.
+     */
+    private CompressionStats sampleCompression(DirectoryReader indexReader, int samples, long sampleBytes) throws IOException {
+        List<LeafReader> segments = indexReader.leaves().stream()
+                .map(context -> FilterLeafReader.unwrap(context.reader()))
+                .filter(reader -> reader.numDocs() > 0)
+                .sorted(Comparator.comparingLong((LeafReader reader) -> SegmentFiles.size(SegmentFiles.commitInfo(reader))).reversed())
+                .limit(samples)
+                .collect(Collectors.toList());
+        CompressionStats compression = null;
+        for (LeafReader reader : segments)
+            compression = CompressionStats.merge(compression, CompressionWhatIf.measure(reader, sampleBytes * samples / segments.size(), segmentRandom(reader)));
+        return compression;
     }
 
-    private long getDirectorySize(Path path) {
-        if (!path.toFile().exists())
-            return 0L;
+    /**
+     * Share a group's compression samples between its largest shards, by the size of their index directories
+     */
+    private static Map<IndexShard, Integer> compressionSamples(IndexGroup indexGroup, DirectorySizes sizes, long budgetBytes) {
+        Map<IndexShard, Integer> samples = new HashMap<>();
+        if (budgetBytes <= 0 || indexGroup.indices.isEmpty())
+            return samples;
+        List<IndexShard> shards = new ArrayList<>(indexGroup.indices);
+        shards.sort(Comparator.comparingLong((IndexShard i) -> sizes.size(Paths.get(i.getIndexDirectoryName()))).reversed());
+        for (int s = 0; s < CompressionWhatIf.samples(budgetBytes); s++)
+            samples.merge(shards.get(s % shards.size()), 1, Integer::sum);
+        return samples;
+    }
 
-        long size = 0;
-        try (Stream<Path> walk = Files.walk(path)) {
-            size = walk
-                    .filter(Files::isRegularFile)
-                    .mapToLong(ElasticLuceneStats::fileSize)
-                    .sum();
+    /**
+     * Read the shard's translog, counting the operations above the local checkpoint of its Lucene commit as uncommitted
+     */
+    private void loadTranslogStats(IndexShard index, long localCheckpoint) {
+        try (Directory translogDirectory = openShardDirectory(Paths.get(index.getTransLogDirectoryName()))) {
+            index.translog = TranslogReader.read(translogDirectory, localCheckpoint);
+            if (index.translog == null)
+                LOG.debug("No translog checkpoint in {}", index.getTransLogDirectoryName());
+            else
+                TranslogReader.checkSettings(index.translog, index.metadata, replayRate);
         } catch (IOException e) {
-            LOG.error("{}", e.getLocalizedMessage(), e);
+            LOG.error("Unable to read translog {}: {}", index.getTransLogDirectoryName(), e.getLocalizedMessage());
         }
-        return size;
     }
 
-    private static long fileSize(Path targetPath) {
+    /**
+     * Open a shard's index or translog directory in the selected I/O mode, under the read limit if there is one
+     */
+    private Directory openShardDirectory(Path path) throws IOException {
+        Directory directory = ioStats.mode.open(path, ioStats);
+        return rateLimiter != null ? new ThrottledDirectory(directory, rateLimiter, ioStats) : directory;
+    }
+
+    /**
+     * Profile each segment of the commit the shard's reader has open, and find the merges the merge policy would select
+     * next. Reading the latest commit again could see a different commit than the one being analysed.
+     */
+    private void profileSegments(IndexShard index, DirectoryReader indexReader) throws IOException {
+        SegmentInfos infos = SegmentInfos.readCommit(indexReader.directory(), indexReader.getIndexCommit().getSegmentsFileName());
+        for (SegmentCommitInfo si : infos)
+            index.segments.add(new SegmentProfile(si));
+        index.merges.addAll(MergeSimulator.findMerges(infos));
+    }
+
+    private PartialStats loadSegmentStats(IndexShard index, LeafReaderContext context) {
+        // Segments are immutable, so reuse the statistics from a previous run if this segment hasn't changed
+        SegmentCommitInfo commitInfo = SegmentFiles.commitInfo(context.reader());
+        if (segmentCache != null && commitInfo != null) {
+            PartialStats cached = segmentCache.load(commitInfo);
+            if (cached != null) {
+                LOG.debug("  -> Using cached statistics for segment {}", commitInfo.info.name);
+                ioStats.profile.addCachedSegment(SegmentFiles.size(commitInfo));
+                return cached;
+            }
+        }
+        PartialStats segmentStats = new PartialStats();
+        RunProfile.Stopwatch stopwatch = ioStats.profile.stopwatch();
         try {
-            return Files.size(targetPath);
+            LeafReader reader = FilterLeafReader.unwrap(context.reader());
+            LOG.debug("  -> Processing segment {} with {} documents", context.ord, reader.numDocs());
+
+            // The on-disk size of the stored fields comes straight from the segment's files
+            Map<String, Long> fileSizes = SegmentFiles.sizesByExtension(reader);
+            long storedFieldsDiskBytes = SegmentFiles.sum(fileSizes, SegmentFiles.STORED_FIELDS_EXTENSIONS);
+            segmentStats.storedFieldsDiskBytes = storedFieldsDiskBytes;
+
+            // Visit all of the documents and calculate the size of the stored fields, unless only the on-disk size is
+            // needed. Deleted documents are counted separately. When sampling, a random stratified sample of the live
+            // documents is visited instead.
+            boolean estimate = this.options.hasOption(StartupUtils.OPTION_SAMPLE);
+            StatsStoredFieldVisitor statsStoredFieldVisitor = new StatsStoredFieldVisitor(reader.getFieldInfos(), estimate, this.options.hasOption(StartupUtils.OPTION_DOC));
+            if (!this.options.hasOption(StartupUtils.OPTION_SKIP_STORED)) {
+                if (estimate)
+                    visitSample(reader, statsStoredFieldVisitor);
+                else {
+                    Bits liveDocs = reader.getLiveDocs();
+                    for (int i = 0; i < reader.maxDoc(); i++) {
+                        statsStoredFieldVisitor.setDeleted(liveDocs != null && !liveDocs.get(i));
+                        reader.document(i, statsStoredFieldVisitor);
+                    }
+                }
+                stopwatch.lap(RunProfile.Phase.STORED_FIELDS);
+            }
+            long visitedStoredBytes = statsStoredFieldVisitor.totalBytes();
+            if (this.options.hasOption(StartupUtils.OPTION_SOURCE_PROFILE)) {
+                segmentStats.source = SourceProfiler.profile(reader,
+                        StartupUtils.getIntOption(options, StartupUtils.OPTION_SOURCE_SAMPLE, StartupUtils.DEFAULT_SOURCE_SAMPLE), segmentRandom(reader));
+                stopwatch.lap(RunProfile.Phase.SOURCE_PROFILE);
+            }
+            // Structures other than stored fields can't be split by document, so deleted documents are given their
+            // share of them by count
+            double deletedRatio = reader.maxDoc() > 0 ? (double) reader.numDeletedDocs() / reader.maxDoc() : 0.0;
+
+            // Share out the terms dictionary, doc values, points, norms, term vectors and postings files between their
+            // fields first, so the terms dictionary share can select the fields whose blocktree is walked
+            for (FieldInfo field : reader.getFieldInfos())
+                segmentStats.field(field.name, field.getIndexOptions());
+            FieldDiskAttribution.attribute(reader, fileSizes, segmentStats);
+            stopwatch.lap(RunProfile.Phase.ATTRIBUTION);
+
+            // Visit all of the Fields and get the statistics for them
+            LOG.debug("  -> Processing {} fields", reader.getFieldInfos().size());
+            for (FieldInfo field : reader.getFieldInfos()) {
+                FieldStatsHolder fieldStatsHolder = segmentStats.field(field.name, field.getIndexOptions());
+                long termsStarted = System.nanoTime();
+                Terms terms = reader.terms(field.name);
+                // Walking the blocktree statistics reads every block of the field's terms dictionary, so large fields
+                // may be left with only their share of the terms files, as are postings formats other than blocktree
+                if (terms instanceof FieldReader && walkTermsStats(field.name, fieldStatsHolder.termsBytes)) {
+                    Stats fieldStats = ((FieldReader) terms).getStats();
+                    fieldStatsHolder.accumulateStats(fieldStats);
+                    if (MemoryEstimator.isText(field))
+                        fieldStatsHolder.accumulateFielddataBytes(MemoryEstimator.fielddataBytes(terms, fieldStats.totalTermBytes, reader.maxDoc()));
+                } else if (terms != null) {
+                    if (MemoryEstimator.isText(field))
+                        fieldStatsHolder.accumulateFielddataBytes(MemoryEstimator.fielddataBytes(terms,
+                                Math.round(Math.max(terms.size(), 0) * FieldDiskAttribution.averageTermLength(terms)), reader.maxDoc()));
+                }
+                if (terms instanceof FieldReader)
+                    fieldStatsHolder.accumulateTermsIndexHeapBytes(((FieldReader) terms).ramBytesUsed());
+                if (terms != null && termsProfileFields != null && termsProfileFields.matcher(field.name).matches())
+                    fieldStatsHolder.accumulateTermsProfile(TermsProfile.profile(terms));
+                if (terms != null)
+                    ioStats.profile.addField(field.name, System.nanoTime() - termsStarted);
+                // Attribute the on-disk stored bytes by each field's share of the visited (uncompressed) bytes
+                long docValues = statsStoredFieldVisitor.bytes(field);
+                long deletedValues = statsStoredFieldVisitor.deletedBytes(field);
+                if (visitedStoredBytes > 0)
+                    fieldStatsHolder.accumulateStoredFieldDiskBytes(Math.round((double) docValues / visitedStoredBytes * storedFieldsDiskBytes));
+                // Scale up sampled values to the number of live documents in the segment
+                if (estimate) {
+                    double squares = statsStoredFieldVisitor.squares(field);
+                    fieldStatsHolder.accumulateStoredFieldVariance(DocumentSampler.estimateVariance(docValues, squares, statsStoredFieldVisitor.documents, reader.numDocs()));
+                    docValues = DocumentSampler.estimateTotal(docValues, statsStoredFieldVisitor.documents, reader.numDocs());
+                    deletedValues = reader.numDocs() > 0 ? Math.round((double) docValues * reader.numDeletedDocs() / reader.numDocs()) : 0;
+                } else
+                    docValues -= deletedValues;
+                fieldStatsHolder.accumulateStoredFieldBytes(docValues);
+                fieldStatsHolder.accumulateStoredFieldDeletedBytes(deletedValues);
+                fieldStatsHolder.accumulateSample(statsStoredFieldVisitor.sample(field));
+            }
+            stopwatch.lap(RunProfile.Phase.FIELDS);
+            // The holders only hold this segment so far. The stored fields on disk split by the deleted documents' share
+            // of the visited bytes, everything else by deletedRatio.
+            for (FieldStatsHolder fieldStatsHolder : segmentStats.fields.values()) {
+                long otherBytes = fieldStatsHolder.getTotal() - fieldStatsHolder.storedFieldDiskBytes;
+                fieldStatsHolder.accumulateDeletedBytes(Math.round(fieldStatsHolder.storedFieldDiskBytes * fieldStatsHolder.getStoredDeletedShare())
+                        + Math.round(otherBytes * deletedRatio));
+            }
+            stopwatch.lap(RunProfile.Phase.ATTRIBUTION);
+            if (reader instanceof CodecReader) {
+                segmentStats.memory = MemoryEstimator.measure((CodecReader) reader, segmentStats.fields.values(), fileSizes);
+                stopwatch.lap(RunProfile.Phase.MEMORY);
+            }
+            long visitedDeletedBytes = statsStoredFieldVisitor.totalDeletedBytes();
+            double storedDeletedShare = !estimate && visitedStoredBytes > 0 ? (double) visitedDeletedBytes / visitedStoredBytes : deletedRatio;
+            segmentStats.reclaimableBytes = SegmentFiles.reclaimableBytes(fileSizes, storedDeletedShare, deletedRatio);
+            segmentStats.docs = reader.numDocs();
+            segmentStats.deletedDocs = reader.numDeletedDocs();
+            if (segmentCache != null && commitInfo != null)
+                segmentCache.store(commitInfo, segmentStats);
+            ioStats.profile.addSegment(index.getIndexName(), index.getShardId(), SegmentFiles.segmentName(reader), reader.maxDoc(), SegmentFiles.size(commitInfo), stopwatch.elapsedNanos());
         } catch (IOException e) {
-            LOG.error("Failed to get size of {}: {}", targetPath, e.getLocalizedMessage(), e);
-            return 0L;
+            LOG.error(e.getLocalizedMessage());
         }
+        return segmentStats;
     }
 
+    /**
+     * Whether to walk a field's blocktree statistics: every field's by default, or only those selected by name or by
+     * their share of the segment's terms dictionary files when --termsStats or --termsStatsMinMB is given
+     */
+    private boolean walkTermsStats(String field, long termsBytes) {
+        if (termsStatsFields == null && termsStatsMinBytes <= 0)
+            return true;
+        return termsStatsFields != null && termsStatsFields.matcher(field).matches()
+                || termsStatsMinBytes > 0 && termsBytes >= termsStatsMinBytes;
+    }
+
+    /**
+     * Visit a random sample of the live documents in the segment. In adaptive mode, stop as soon as the estimate of
+     * the segment's stored bytes is within the target relative error.
+     */
+    private void visitSample(LeafReader reader, StatsStoredFieldVisitor visitor) throws IOException {
+        int sampleSize = StartupUtils.getIntOption(options, StartupUtils.OPTION_NUMBER_OF_SAMPLES, StartupUtils.DEFAULT_SAMPLE_SIZE);
+        double targetError = StartupUtils.getDoubleOption(options, StartupUtils.OPTION_TARGET_ERROR, "0");
+        int[] docs = DocumentSampler.sample(reader.maxDoc(), reader.getLiveDocs(), sampleSize, segmentRandom(reader));
+        for (int i = 0; i < docs.length; i++) {
+            reader.document(docs[i], visitor);
+            visitor.finishDocument();
+            if (targetError > 0 && (i + 1) % ADAPTIVE_SAMPLE_BATCH == 0 && visitor.relativeError(reader.numDocs()) <= targetError) {
+                LOG.debug("  -> Estimate converged after {} of {} sampled documents", i + 1, docs.length);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Random source for sampling a segment; the same seed always picks the same documents from the same segment
+     */
+    private Random segmentRandom(LeafReader reader) {
+        long seed = StartupUtils.getIntOption(options, StartupUtils.OPTION_SEED, StartupUtils.DEFAULT_SEED);
+        return new Random(seed * 31 + SegmentFiles.segmentName(reader).hashCode());
+    }
+
+    /**
+     * The options that change the statistics gathered for a segment; cached statistics are only reused if they match
+     */
+    private String analysisFingerprint() {
+        return String.join(";",
+                "sample=" + options.hasOption(StartupUtils.OPTION_SAMPLE),
+                "sampleSize=" + options.getOptionValue(StartupUtils.OPTION_NUMBER_OF_SAMPLES, StartupUtils.DEFAULT_SAMPLE_SIZE),
+                "targetError=" + options.getOptionValue(StartupUtils.OPTION_TARGET_ERROR),
+                "seed=" + options.getOptionValue(StartupUtils.OPTION_SEED, StartupUtils.DEFAULT_SEED),
+                "skipStored=" + options.hasOption(StartupUtils.OPTION_SKIP_STORED),
+                "doc=" + options.hasOption(StartupUtils.OPTION_DOC),
+                "termsProfile=" + options.getOptionValue(StartupUtils.OPTION_TERMS_PROFILE),
+                "termsStats=" + options.getOptionValue(StartupUtils.OPTION_TERMS_STATS),
+                "termsStatsMinMB=" + options.getOptionValue(StartupUtils.OPTION_TERMS_STATS_MIN_MB),
+                "sourceProfile=" + options.hasOption(StartupUtils.OPTION_SOURCE_PROFILE),
+                "sourceSample=" + options.getOptionValue(StartupUtils.OPTION_SOURCE_SAMPLE, StartupUtils.DEFAULT_SOURCE_SAMPLE));
+    }
+
+    /**
+     * Opens the writer a node's report goes to, once the node's options have been checked
+     */
+    interface ReportTarget {
+        ReportWriter open() throws IOException;
+    }
 
     public void process() {
-        String esStateDirectory = this.options.getOptionValue(StartupUtils.OPTION_INDEX_DIRECTORY);
+        boolean analysed;
+        if (options.hasOption(StartupUtils.OPTION_COMPARE))
+            analysed = compare(options.getOptionValue(StartupUtils.OPTION_COMPARE).split(","));
+        else if (options.getOptionValue(StartupUtils.OPTION_INDEX_DIRECTORY) == null) {
+            LOG.error("Either --{} or --{} is required", StartupUtils.OPTION_INDEX_DIRECTORY, StartupUtils.OPTION_COMPARE);
+            return;
+        } else if (options.hasOption(StartupUtils.OPTION_DAEMON)) {
+            serve();
+            return;
+        } else {
+            String format = options.getOptionValue(StartupUtils.OPTION_FORMAT);
+            String output = options.getOptionValue(StartupUtils.OPTION_OUTPUT);
+            analysed = analyse(options.getOptionValue(StartupUtils.OPTION_INDEX_DIRECTORY), dataPaths(),
+                    () -> ReportWriter.create(format, output, options.hasOption(StartupUtils.OPTION_DOC)));
+        }
+        // Only prune after complete runs, which have used every segment still current
+        if (analysed && segmentCache != null)
+            segmentCache.prune();
+    }
+
+    private List<String> dataPaths() {
+        List<String> dataPaths = new ArrayList<>();
+        if (options.hasOption(StartupUtils.OPTION_DATA_PATHS)) {
+            for (String dataPath : options.getOptionValue(StartupUtils.OPTION_DATA_PATHS).split(","))
+                dataPaths.add(dataPath.trim());
+        }
+        return dataPaths;
+    }
+
+    /**
+     * Scan the node repeatedly and serve its statistics as metrics, until the process is stopped. Without a cache
+     * directory, segment statistics are cached in memory so that rescans only analyse new or changed segments.
+     */
+    private void serve() {
+        int port = StartupUtils.getIntOption(options, StartupUtils.OPTION_DAEMON, "0");
+        double interval = StartupUtils.getDoubleOption(options, StartupUtils.OPTION_SCAN_INTERVAL, StartupUtils.DEFAULT_SCAN_INTERVAL);
+        if (port <= 0 || interval <= 0) {
+            LOG.error("Invalid daemon port or scan interval: {}, {}", options.getOptionValue(StartupUtils.OPTION_DAEMON),
+                    options.getOptionValue(StartupUtils.OPTION_SCAN_INTERVAL));
+            return;
+        }
+        if (!options.hasOption(StartupUtils.OPTION_CACHE_DIRECTORY))
+            segmentCache = new SegmentCache(analysisFingerprint());
+        String esStateDirectory = options.getOptionValue(StartupUtils.OPTION_INDEX_DIRECTORY);
+        List<String> dataPaths = dataPaths();
+        StatsDaemon.Scan scan = writer -> {
+            boolean analysed = analyse(esStateDirectory, dataPaths, () -> writer);
+            if (analysed && segmentCache != null)
+                segmentCache.prune();
+            return analysed;
+        };
+        try (StatsDaemon daemon = new StatsDaemon(port, Math.round(interval * 60), StatsDaemon.COMMIT_DELAY_SECONDS, scan)) {
+            // Stopping returns from run, and the daemon is closed as the try block ends
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    daemon.stop();
+                } catch (IOException e) {
+                    LOG.warn("Unable to stop the daemon: {}", e.getLocalizedMessage());
+                }
+            }));
+            daemon.run();
+        } catch (IOException e) {
+            LOG.error("Unable to start the daemon: {}", e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Compare saved JSON Lines reports, analysing any node "_state" directories among the inputs first, and write the
+     * differences between them in the selected format
+     *
+     * @return Whether every input could be read
+     */
+    private boolean compare(String[] inputs) {
+        List<Path> reports = new ArrayList<>();
+        List<Path> analysed = new ArrayList<>();
+        try {
+            for (String input : inputs) {
+                Path path = Paths.get(input.trim());
+                if (Files.isDirectory(path)) {
+                    Path report = Files.createTempFile("lucene-stats-", "." + ReportWriter.FORMAT_JSON_LINES);
+                    analysed.add(report);
+                    if (!analyse(path.toString(), Collections.emptyList(), () -> ReportWriter.create(ReportWriter.FORMAT_JSON_LINES, report.toString(), false)))
+                        return false;
+                    reports.add(report);
+                } else
+                    reports.add(path);
+            }
+            if (reports.size() < 2) {
+                LOG.error("At least two reports are needed to compare");
+                return false;
+            }
+            try (ReportComparison comparison = ReportComparison.open(reports);
+                 ComparisonWriter report = ComparisonWriter.create(options.getOptionValue(StartupUtils.OPTION_FORMAT), options.getOptionValue(StartupUtils.OPTION_OUTPUT))) {
+                comparison.compare(report);
+            }
+            return true;
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Unable to compare reports: {}", e.getLocalizedMessage());
+            return false;
+        } finally {
+            for (Path report : analysed) {
+                try {
+                    Files.deleteIfExists(report);
+                } catch (IOException e) {
+                    LOG.warn("Unable to delete {}: {}", report, e.getLocalizedMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Analyse the shards of one node and write its report
+     *
+     * @return Whether the node was analysed and its report written
+     */
+    private boolean analyse(String esStateDirectory, List<String> dataPaths, ReportTarget target) {
         if (!esStateDirectory.toLowerCase().endsWith("_state")) {
             LOG.error("This doesn't look like a Elasticsearch node state directory.");
             LOG.error("Expected something like: D:\\elasticsearch\\ag16-cdf-single.ad.interset.com\\nodes\\0\\_state");
-            return;
+            return false;
         }
         ElasticsearchStateDecoder dm = new ElasticsearchStateDecoder();
-        dm.decode(esStateDirectory);
+        for (String dataPath : dataPaths)
+            dm.addDataPath(dataPath);
+        try {
+            // Bytes read are counted when a mode is chosen or reads are limited, which count them anyway
+            ioStats = new IoStats(IoMode.parse(options.getOptionValue(StartupUtils.OPTION_IO_MODE)),
+                    options.hasOption(StartupUtils.OPTION_IO_MODE) || options.hasOption(StartupUtils.OPTION_MAX_READ_MBPS));
+        } catch (IllegalArgumentException e) {
+            LOG.error("Unknown I/O mode: {}", options.getOptionValue(StartupUtils.OPTION_IO_MODE));
+            return false;
+        }
+
+        try {
+            double maxReadMBps = StartupUtils.getDoubleOption(options, StartupUtils.OPTION_MAX_READ_MBPS, StartupUtils.DEFAULT_MAX_READ_MBPS);
+            if (maxReadMBps > 0)
+                rateLimiter = new RateLimiter.SimpleRateLimiter(maxReadMBps);
+            governor = new LoadGovernor(StartupUtils.getDoubleOption(options, StartupUtils.OPTION_MAX_LOAD, StartupUtils.DEFAULT_MAX_LOAD),
+                    StartupUtils.getDoubleOption(options, StartupUtils.OPTION_CPU_BUDGET, StartupUtils.DEFAULT_CPU_BUDGET), ioStats);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid throttling option: {}", e.getLocalizedMessage());
+            return false;
+        }
+        dm.throttle(rateLimiter, governor, ioStats);
+        replayRate = StartupUtils.getDoubleOption(options, StartupUtils.OPTION_REPLAY_RATE, StartupUtils.DEFAULT_REPLAY_RATE);
+        if (replayRate <= 0) {
+            LOG.error("Invalid translog replay rate: {}", options.getOptionValue(StartupUtils.OPTION_REPLAY_RATE));
+            return false;
+        }
+        if (options.hasOption(StartupUtils.OPTION_TERMS_PROFILE)) {
+            try {
+                termsProfileFields = Pattern.compile(options.getOptionValue(StartupUtils.OPTION_TERMS_PROFILE));
+            } catch (PatternSyntaxException e) {
+                LOG.error("Invalid terms profile pattern: {}", e.getLocalizedMessage());
+                return false;
+            }
+        }
+        if (options.hasOption(StartupUtils.OPTION_TERMS_STATS)) {
+            try {
+                termsStatsFields = Pattern.compile(options.getOptionValue(StartupUtils.OPTION_TERMS_STATS));
+            } catch (PatternSyntaxException e) {
+                LOG.error("Invalid terms statistics pattern: {}", e.getLocalizedMessage());
+                return false;
+            }
+        }
+        try {
+            double termsStatsMinMB = StartupUtils.getDoubleOption(options, StartupUtils.OPTION_TERMS_STATS_MIN_MB, "0");
+            if (termsStatsMinMB < 0)
+                throw new IllegalArgumentException();
+            termsStatsMinBytes = Math.round(termsStatsMinMB * 1024 * 1024);
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid terms statistics threshold: {}", options.getOptionValue(StartupUtils.OPTION_TERMS_STATS_MIN_MB));
+            return false;
+        }
+        try {
+            if (StartupUtils.getIntOption(options, StartupUtils.OPTION_NUMBER_OF_SAMPLES, StartupUtils.DEFAULT_SAMPLE_SIZE) <= 0)
+                throw new IllegalArgumentException();
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid sample size: {}", options.getOptionValue(StartupUtils.OPTION_NUMBER_OF_SAMPLES));
+            return false;
+        }
+        try {
+            if (!(StartupUtils.getDoubleOption(options, StartupUtils.OPTION_TARGET_ERROR, "0") >= 0))
+                throw new IllegalArgumentException();
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid target error: {}", options.getOptionValue(StartupUtils.OPTION_TARGET_ERROR));
+            return false;
+        }
+        try {
+            if (StartupUtils.getIntOption(options, StartupUtils.OPTION_SOURCE_SAMPLE, StartupUtils.DEFAULT_SOURCE_SAMPLE) <= 0)
+                throw new IllegalArgumentException();
+        } catch (IllegalArgumentException e) {
+            LOG.error("Invalid source sample size: {}", options.getOptionValue(StartupUtils.OPTION_SOURCE_SAMPLE));
+            return false;
+        }
+
+        int threads = StartupUtils.getIntOption(options, StartupUtils.OPTION_THREADS, StartupUtils.DEFAULT_THREADS);
+        RunProfile.Stopwatch stopwatch = ioStats.profile.stopwatch();
+        try (TaskRunner runner = new TaskRunner(threads)) {
+            dm.decode(esStateDirectory, runner);
+        }
+        stopwatch.lap(RunProfile.Phase.STATE);
         dm.generateGroupings();
         if (dm.INDEX_GROUPS.size() == 0) {
             LOG.error("No index groups loaded.");
-            return;
+            return false;
+        }
+        if (segmentCache == null && options.hasOption(StartupUtils.OPTION_CACHE_DIRECTORY)) {
+            try {
+                segmentCache = new SegmentCache(Paths.get(options.getOptionValue(StartupUtils.OPTION_CACHE_DIRECTORY)), analysisFingerprint());
+            } catch (IOException e) {
+                LOG.error("Unable to use segment cache: {}", e.getLocalizedMessage());
+            }
         }
-        String esIndexDirectory = esStateDirectory.replace("_state", "indices");
-        long esIndexSize = getDirectorySize(Paths.get(esIndexDirectory));
-        dm.INDEX_GROUPS.forEach((indexGroupName, indexGroup) -> {
-
-            // Load the Statistics for each segment
-            LOG.debug("Index Group: {}", indexGroupName);
-            indexGroup.indices.forEach(i -> loadIndexStats(indexGroup, i));
-            indexGroup.calculate();
-
-            indexGroup.fields.forEach((key, fieldStats) -> fieldStats.calculate(indexGroup.totalCalculatedSize));
-        });
-        LOG.info("{}\n\n", SECTION_SEPARATOR);
-        LOG.info("Index Groups");
-        LOG.info(SECTION_SEPARATOR);
-        dm.INDEX_GROUPS.forEach((indexGroupName, indexGroup) -> {
-            LOG.info(String.format("Index Group: %-33s  Percentage: %6.2f%%,  Documents: %,18d,  Size: %,20d",
-                    indexGroupName,
-                    ((double) indexGroup.totalDiskSize / esIndexSize)*100,
-                    indexGroup.docs,
-                    indexGroup.totalDiskSize));
-
-        });
-        LOG.info("{}\n\n", SECTION_SEPARATOR);
-        dm.INDEX_GROUPS.forEach((indexGroupName, indexGroup) -> {
-
-            // Display Segment Details
-            LOG.info("Index Group: {}", indexGroupName);
-            LOG.info(SECTION_SEPARATOR);
-            for (IndexShard index : indexGroup.indices) {
-                LOG.info("  -> {}", index);
-            }
-            LOG.info(SECTION_SEPARATOR);
-
-
-            LOG.info("Index Statistics: {}", indexGroupName);
-            LOG.info(" - # of Documents    : {}", String.format("%,15d", indexGroup.docs));
-            LOG.info(" - # of Deleted Docs : {}", String.format("%,15d", indexGroup.deletedDocs));
-            LOG.info(" - Overall Percentage: {}", String.format("%15.2f %%", ((double) indexGroup.totalDiskSize / esIndexSize)*100));
-            LOG.info(" - Lucene Index      : {}", String.format(DISK_BYTES, indexGroup.totalDiskSize));
-            LOG.info(" - Lucene TransLog   : {}", String.format(DISK_BYTES, indexGroup.totalTransLogSize));
-            LOG.info(" - Total Uncompressed: {}", String.format(DISK_BYTES, indexGroup.totalDiskSize));
-            LOG.info(SECTION_SEPARATOR);
-            if (indexGroup.fields.size() == 0)
-                LOG.info("No Records");
-            else {
-                indexGroup.fields.forEach((key, fieldStats) -> LOG.info("  -> {}", fieldStats));
-                if (options.hasOption(StartupUtils.OPTION_DOC)) {
-                    LOG.info(SECTION_SEPARATOR);
-                    LOG.info("Sample Docs:");
-                    indexGroup.fields.forEach((key, fieldStats) -> {
-                            if (fieldStats.sampleDocs.size() > 0)
-                                LOG.info("  {} -> {}", fieldStats.name, fieldStats.sampleDocs.get(0));
-                    });
+
+        // Load the Statistics for each shard. Shards (and their segments) may be analysed in parallel, but the
+        // results are merged into their groups in a fixed order. Each group is reported as soon as all of its shards
+        // are done, and its field statistics are released once written.
+        try (TaskRunner runner = new TaskRunner(threads);
+             ReportWriter report = target.open()) {
+            // Size every index directory on the node in one pass
+            List<Path> indicesDirectories = dm.getIndicesDirectories().stream().map(Paths::get).collect(Collectors.toList());
+            stopwatch.reset();
+            DirectorySizes sizes = DirectorySizes.walk(runner, indicesDirectories);
+            stopwatch.lap(RunProfile.Phase.WALK);
+            report.start(esStateDirectory, sizes.total());
+            ioStats.profile.setTotalBytes(dm.INDEX_GROUPS.values().stream().flatMap(g -> g.indices.stream())
+                    .mapToLong(i -> sizes.size(Paths.get(i.getIndexDirectoryName()))).sum());
+
+            // The compression sample of each group is split into a few samples of whole chunks, taken from its
+            // largest shards
+            long compressionBudget = options.hasOption(StartupUtils.OPTION_COMPRESSION)
+                    ? StartupUtils.getIntOption(options, StartupUtils.OPTION_COMPRESSION_SAMPLE, StartupUtils.DEFAULT_COMPRESSION_SAMPLE) * 1024L * 1024L : 0;
+            long compressionSampleBytes = CompressionWhatIf.sampleBytes(compressionBudget);
+            List<Callable<PartialStats>> tasks = new ArrayList<>();
+            dm.INDEX_GROUPS.forEach((indexGroupName, indexGroup) -> {
+                Map<IndexShard, Integer> compressionSamples = compressionSamples(indexGroup, sizes, compressionBudget);
+                indexGroup.indices.forEach(i -> tasks.add(() -> loadIndexStats(runner, sizes, i, compressionSamples.getOrDefault(i, 0), compressionSampleBytes)));
+            });
+            LOG.debug("Analysing {} shards using {} thread(s)", tasks.size(), runner.getParallelism());
+            ioStats.start();
+            // Shards are taken in group order, so only a few are started ahead of the one being merged; otherwise the
+            // results of fast shards would be held in memory until every shard before them had finished
+            Iterator<PartialStats> shardResults = runner.submit(tasks, 2 * runner.getParallelism());
+
+            for (IndexGroup indexGroup : dm.INDEX_GROUPS.values()) {
+                LOG.debug("Index Group: {}", indexGroup.indexGroupName);
+                for (IndexShard index : indexGroup.indices) {
+                    PartialStats shardStats = shardResults.next();
+                    indexGroup.updateDiskUsage(index.indexByteSize, index.transLogByteSize);
+                    indexGroup.addFileTypes(sizes.extensions(Paths.get(index.getIndexDirectoryName())));
+                    indexGroup.addFileTypes(sizes.extensions(Paths.get(index.getTransLogDirectoryName())));
+                    indexGroup.merge(shardStats);
+                    indexGroup.addSegments(index);
                 }
+                indexGroup.calculate();
+                indexGroup.fields.forEach((key, fieldStats) -> fieldStats.calculate(indexGroup.totalCalculatedSize));
+
+                report.writeGroup(indexGroup);
+                indexGroup.fields.clear();
             }
-            LOG.info("{}\n\n", SECTION_SEPARATOR);
-        });
+            ioStats.stop();
+            report.finish(dm.INDEX_GROUPS.values(), ioStats);
+        } catch (IOException | IllegalArgumentException e) {
+            LOG.error("Unable to write report: {}", e.getLocalizedMessage());
+            return false;
+        }
+        return true;
     }
 }
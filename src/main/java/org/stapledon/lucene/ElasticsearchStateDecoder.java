@@ -3,14 +3,16 @@
 import org.apache.lucene.index.*;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.RateLimiter;
 import org.apache.lucene.util.Bits;
-import org.elasticsearch.xcontent.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -18,7 +20,8 @@
  * Read and parse the "_state" index from an Elasticsearch node.
  *
  * This index tracks all of the settings for all elasticsearch indexes in a Lucene index with a single stored field
- * called "data". This data field contains a SMILE-encoded map. Example:
+ * called "data". This data field contains a SMILE-encoded map, of which only a few settings are read (see
+ * IndexMetadata). Example:
  *
  * {reporting_tags_adm=
  *        {settings=
@@ -58,7 +61,15 @@ public class ElasticsearchStateDecoder {
     private static final Logger LOG = LoggerFactory.getLogger(ElasticsearchStateDecoder.class);
 
     protected final Map<String, String> indexMappings = new TreeMap<>();
+    protected final Map<String, Integer> indexShards = new TreeMap<>();
+    // Everything read from each index's metadata, by index name
+    protected final Map<String, IndexMetadata> indexMetadata = new TreeMap<>();
+    protected final List<String> dataPaths = new ArrayList<>();
     protected String indexHome;
+    // Read limit and task pacing while decoding, if any
+    private RateLimiter rateLimiter;
+    private LoadGovernor governor = LoadGovernor.NONE;
+    private IoStats ioStats;
 
     public final Map<String, IndexGroup> INDEX_GROUPS = new TreeMap<>();
 
@@ -67,6 +78,24 @@ public class ElasticsearchStateDecoder {
     private final Pattern pattern = Pattern.compile(INDEX_NAME_PATTERN);
 
 
+    /**
+     * Add another data path (path.data) of the same node, e.g. /data2/nodes/0. Shards found under its "indices"
+     * directory are analysed alongside those of the path holding the _state directory.
+     */
+    public void addDataPath(String nodeDirectory) {
+        dataPaths.add(Paths.get(nodeDirectory, "indices").toString());
+    }
+
+    /**
+     * @return The "indices" directory of every data path of the node
+     */
+    public List<String> getIndicesDirectories() {
+        List<String> directories = new ArrayList<>();
+        directories.add(indexHome.replace("_state", "indices"));
+        directories.addAll(dataPaths);
+        return directories;
+    }
+
     public void generateGroupings() {
         indexMappings.forEach((indexName, directoryName) -> {
             Matcher m = pattern.matcher(indexName);
@@ -74,24 +103,60 @@ public void generateGroupings() {
             if (m.matches())
                 indexNameShort = m.group(1) + "_" + m.group(2);
             INDEX_GROUPS.putIfAbsent(indexNameShort, new IndexGroup(indexNameShort));
-            INDEX_GROUPS.get(indexNameShort).addIndex(new IndexShard(indexHome, indexName, directoryName));
+            IndexGroup group = INDEX_GROUPS.get(indexNameShort);
+
+            // One IndexShard per shard directory present on this node, whichever data path it lives in
+            int shards = indexShards.getOrDefault(indexName, 1);
+            List<IndexShard> found = new ArrayList<>();
+            for (int shardId = 0; shardId < shards; shardId++) {
+                for (String indicesDirectory : getIndicesDirectories()) {
+                    if (Files.isDirectory(Paths.get(indicesDirectory, directoryName, Integer.toString(shardId))))
+                        found.add(new IndexShard(indicesDirectory, indexName, directoryName, shardId));
+                }
+            }
+            if (found.isEmpty())
+                found.add(new IndexShard(indexHome, indexName, directoryName));
+            for (IndexShard shard : found) {
+                shard.metadata = indexMetadata.get(indexName);
+                group.addIndex(shard);
+            }
         });
     }
 
+    /**
+     * Limit the reads and pace the tasks of later calls to decode, as for the shards
+     */
+    void throttle(RateLimiter rateLimiter, LoadGovernor governor, IoStats stats) {
+        this.rateLimiter = rateLimiter;
+        this.governor = governor;
+        this.ioStats = stats;
+    }
+
     public void decode(String directory) {
+        try (TaskRunner runner = new TaskRunner(1)) {
+            decode(directory, runner);
+        }
+    }
+
+    /**
+     * Read the metadata of every index from the "_state" index. Its segments are decoded as separate tasks and
+     * merged in segment order.
+     */
+    public void decode(String directory, TaskRunner runner) {
         try {
             this.indexHome = directory;
             LOG.warn("Reading {}", directory);
 
-            Directory indexDirectory = FSDirectory.open(Paths.get(directory));
-            try (IndexReader indexReader = DirectoryReader.open(indexDirectory)) {
-                for (LeafReaderContext context : indexReader.leaves()) {
-                    LeafReader reader = context.reader();
-                    Bits liveDocs = reader.getLiveDocs();
-                    for (int i = 0; i < reader.maxDoc(); i++) {
-                        if (liveDocs != null && !liveDocs.get(i))
-                            continue;
-                        processIndexEntry(reader, i);
+            try (Directory indexDirectory = openDirectory(directory);
+                 IndexReader indexReader = DirectoryReader.open(indexDirectory)) {
+                List<Callable<List<IndexMetadata>>> tasks = new ArrayList<>();
+                for (LeafReaderContext context : indexReader.leaves())
+                    tasks.add(governor.govern(() -> decodeSegment(context.reader())));
+                for (List<IndexMetadata> entries : runner.invokeAll(tasks)) {
+                    for (IndexMetadata entry : entries) {
+                        indexMappings.put(entry.name, entry.uuid);
+                        indexShards.put(entry.name, entry.numberOfShards);
+                        indexMetadata.put(entry.name, entry);
                     }
                 }
             }
@@ -100,37 +165,50 @@ public void decode(String directory) {
         }
     }
 
-    @SuppressWarnings("unchecked")
-    private void processIndexEntry(LeafReader reader, int i) throws IOException {
-        IndexableField data = reader.document(i).getField("data");
-        Map<String, Object> index = decodeXContent(data.binaryValue().bytes);
-        LOG.trace("{}", index);
-
-        Map<String, Object> indexMetadata = (Map<String, Object>) index.get(index.keySet().toArray()[0]);
-        Map<String, Object> settings = (Map<String, Object>) indexMetadata.get("settings");
-        if (settings == null)
-            return;
-        String indexDirectoryName = settings.get("index.uuid").toString();
-        String indexName = settings.get("index.provided_name").toString();
+    private Directory openDirectory(String directory) throws IOException {
+        Directory indexDirectory = FSDirectory.open(Paths.get(directory));
+        return rateLimiter != null ? new ThrottledDirectory(indexDirectory, rateLimiter, ioStats) : indexDirectory;
+    }
 
-        indexMappings.put(indexName, indexDirectoryName);
+    private List<IndexMetadata> decodeSegment(LeafReader reader) {
+        List<IndexMetadata> entries = new ArrayList<>();
+        Bits liveDocs = reader.getLiveDocs();
+        DataFieldVisitor visitor = new DataFieldVisitor();
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs != null && !liveDocs.get(i))
+                continue;
+            try {
+                visitor.data = null;
+                reader.document(i, visitor);
+                if (visitor.data == null)
+                    continue;
+                IndexMetadata entry = IndexMetadata.parse(visitor.data);
+                if (entry != null)
+                    entries.add(entry);
+            } catch (IOException | RuntimeException e) {
+                LOG.error("Unable to decode index metadata: {}", e.getLocalizedMessage());
+            }
+        }
+        return entries;
     }
 
     /**
-     * Decode the SMILE-encoded map
-     *
-     * @param content - Byte content from a stored field
-     * @return Java Map
+     * Loads only the "data" field of a "_state" entry, and stops as soon as it has been read
      */
-    private Map<String, Object> decodeXContent(byte[] content) {
-        try {
-            XContent xContent = XContentFactory.xContent(XContentType.SMILE);
-            try (XContentParser parser = xContent.createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
-                return parser.map();
-            }
-        } catch (IOException e) {
-            LOG.error(e.getLocalizedMessage(), e);
+    private static class DataFieldVisitor extends StoredFieldVisitor {
+        private static final String DATA_FIELD = "data";
+        byte[] data;
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            data = value;
+        }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (data != null)
+                return Status.STOP;
+            return DATA_FIELD.equals(fieldInfo.name) ? Status.YES : Status.NO;
         }
-        return new HashMap<>();
     }
 }
@@ -0,0 +1,269 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.BinaryDocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PointValues;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.SortedSetDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Attributes the on-disk bytes of a segment's per-field data structures to the fields that own them.
+ *
+ * The total for each structure is exact, taken from the segment's files by extension. Lucene doesn't record how
+ * much of each file belongs to each field, so the total is shared out in proportion to a weight that approximates
+ * each field's encoded size: terms and their lengths for the terms dictionary, value counts and bits per value for
+ * doc values (from each field's cost and a sample of its values), points x dimensions x bytes for points, and
+ * document/term frequencies for postings and term vectors.
+ */
+final class FieldDiskAttribution {
+    static final String[] DOC_VALUES_EXTENSIONS = {"dvd", "dvm"};
+    static final String[] POINTS_EXTENSIONS = {"kdd", "kdi", "kdm", "dim", "dii"};
+    static final String[] NORMS_EXTENSIONS = {"nvd", "nvm"};
+    static final String[] TERM_VECTORS_EXTENSIONS = {"tvd", "tvx", "tvm"};
+    static final String[] DOCS_EXTENSIONS = {"doc"};
+    static final String[] POSITIONS_EXTENSIONS = {"pos"};
+    static final String[] PAYLOADS_EXTENSIONS = {"pay"};
+    static final String[] TERMS_DICTIONARY_EXTENSIONS = {"tim", "tip", "tmd"};
+
+    // Number of terms of a sorted doc values dictionary read to estimate its average term length
+    private static final int TERM_LENGTH_SAMPLES = 256;
+    // Documents of a doc values field read to estimate its range of values, values per document and value lengths
+    private static final int DOC_VALUES_SAMPLES = 1024;
+    // Bytes a term of the terms dictionary holds besides its suffix: its frequencies and postings file pointers
+    private static final int TERM_METADATA_BYTES = 4;
+
+    private FieldDiskAttribution() {
+    }
+
+    static void attribute(LeafReader reader, Map<String, Long> fileSizes, PartialStats segmentStats) throws IOException {
+        termsDictionaryBytes(reader, fileSizes).forEach((name, bytes) -> segmentStats.fields.get(name).accumulateTermsBytes(bytes));
+
+        Map<String, Double> docValues = new TreeMap<>();
+        Map<String, Double> points = new TreeMap<>();
+        Map<String, Double> norms = new TreeMap<>();
+        Map<String, Double> termVectors = new TreeMap<>();
+        Map<String, Double> docs = new TreeMap<>();
+        Map<String, Double> positions = new TreeMap<>();
+        Map<String, Double> payloads = new TreeMap<>();
+
+        for (FieldInfo field : reader.getFieldInfos()) {
+            if (field.getDocValuesType() != DocValuesType.NONE)
+                docValues.put(field.name, docValuesWeight(reader, field, reader.maxDoc()));
+
+            if (field.getPointDimensionCount() > 0) {
+                PointValues values = reader.getPointValues(field.name);
+                if (values != null)
+                    points.put(field.name, (double) values.size() * values.getNumDimensions() * values.getBytesPerDimension());
+            }
+
+            if (field.hasNorms()) {
+                NumericDocValues values = reader.getNormValues(field.name);
+                if (values != null)
+                    norms.put(field.name, (double) values.cost());
+            }
+
+            Terms terms = reader.terms(field.name);
+            if (terms != null) {
+                docs.put(field.name, (double) Math.max(terms.getSumDocFreq(), 0));
+                double totalTermFreq = Math.max(terms.getSumTotalTermFreq(), 0);
+                if (field.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0)
+                    positions.put(field.name, totalTermFreq);
+                if (field.hasPayloads() || field.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS) >= 0)
+                    payloads.put(field.name, totalTermFreq);
+                if (field.hasVectors())
+                    termVectors.put(field.name, totalTermFreq);
+            }
+        }
+
+        share(SegmentFiles.sum(fileSizes, DOC_VALUES_EXTENSIONS), docValues, (name, bytes) -> segmentStats.fields.get(name).accumulateDocValuesBytes(bytes));
+        share(SegmentFiles.sum(fileSizes, POINTS_EXTENSIONS), points, (name, bytes) -> segmentStats.fields.get(name).accumulatePointsBytes(bytes));
+        share(SegmentFiles.sum(fileSizes, NORMS_EXTENSIONS), norms, (name, bytes) -> segmentStats.fields.get(name).accumulateNormsBytes(bytes));
+        share(SegmentFiles.sum(fileSizes, TERM_VECTORS_EXTENSIONS), termVectors, (name, bytes) -> segmentStats.fields.get(name).accumulateTermVectorsBytes(bytes));
+        share(SegmentFiles.sum(fileSizes, DOCS_EXTENSIONS), docs, (name, bytes) -> segmentStats.fields.get(name).accumulatePostingsBytes(bytes));
+        share(SegmentFiles.sum(fileSizes, POSITIONS_EXTENSIONS), positions, (name, bytes) -> segmentStats.fields.get(name).accumulatePostingsBytes(bytes));
+        share(SegmentFiles.sum(fileSizes, PAYLOADS_EXTENSIONS), payloads, (name, bytes) -> segmentStats.fields.get(name).accumulatePostingsBytes(bytes));
+    }
+
+    /**
+     * Estimate each field's share of the segment's terms dictionary files from the terms metadata alone, reading no
+     * blocks: the field's terms (or, if a postings format doesn't count them, its document frequencies) times their
+     * average length plus their metadata. Works with any postings format, though only blocktree files are shared out.
+     */
+    static Map<String, Long> termsDictionaryBytes(LeafReader reader, Map<String, Long> fileSizes) throws IOException {
+        Map<String, Double> weights = new TreeMap<>();
+        for (FieldInfo field : reader.getFieldInfos()) {
+            Terms terms = reader.terms(field.name);
+            if (terms != null)
+                weights.put(field.name, termCount(terms) * (averageTermLength(terms) + TERM_METADATA_BYTES));
+        }
+        Map<String, Long> bytes = new TreeMap<>();
+        share(SegmentFiles.sum(fileSizes, TERMS_DICTIONARY_EXTENSIONS), weights, bytes::put);
+        return bytes;
+    }
+
+    /**
+     * Distinct terms of the field, or its document frequencies when the postings format doesn't record them
+     */
+    static long termCount(Terms terms) throws IOException {
+        if (terms.size() >= 0)
+            return terms.size();
+        return Math.max(terms.getSumDocFreq() >= 0 ? terms.getSumDocFreq() : terms.getSumTotalTermFreq(), 0);
+    }
+
+    /**
+     * Average term length in bytes, taken from the smallest and largest terms
+     */
+    static double averageTermLength(Terms terms) throws IOException {
+        BytesRef min = terms.getMin();
+        BytesRef max = terms.getMax();
+        return min == null || max == null ? 0 : (min.length + max.length) / 2.0;
+    }
+
+    /**
+     * Split total bytes between the fields in proportion to their weights. If no field has a weight, the bytes are
+     * split evenly.
+     */
+    static void share(long total, Map<String, Double> weights, BiConsumer<String, Long> consumer) {
+        if (total <= 0 || weights.isEmpty())
+            return;
+        double sum = weights.values().stream().mapToDouble(Double::doubleValue).sum();
+        weights.forEach((name, weight) -> consumer.accept(name, Math.round(sum > 0 ? total * weight / sum : (double) total / weights.size())));
+    }
+
+    /**
+     * Approximate encoded size of a field's doc values: bits per value (or ordinal) for every value, plus the terms
+     * dictionary of sorted fields, plus a docs-with-field bitset for sparse fields. The documents with values come from
+     * the iterator's cost; the range of values, values per document and value lengths from a bounded sample, so the
+     * doc values data is never read in full.
+     */
+    private static double docValuesWeight(LeafReader reader, FieldInfo field, int maxDoc) throws IOException {
+        long docs;
+        double values;
+        double dictionaryBytes = 0;
+        int bitsPerValue;
+        switch (field.getDocValuesType()) {
+            case NUMERIC: {
+                NumericDocValues dv = reader.getNumericDocValues(field.name);
+                long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+                docs = dv.cost();
+                int samples = sample(dv, maxDoc, () -> {
+                    long value = dv.longValue();
+                    range[0] = Math.min(range[0], value);
+                    range[1] = Math.max(range[1], value);
+                });
+                values = docs;
+                bitsPerValue = samples == 0 ? 0 : unsignedBitsRequired(range[1] - range[0]);
+                break;
+            }
+            case SORTED_NUMERIC: {
+                SortedNumericDocValues dv = reader.getSortedNumericDocValues(field.name);
+                long[] range = {Long.MAX_VALUE, Long.MIN_VALUE};
+                long[] sampledValues = {0};
+                docs = dv.cost();
+                int samples = sample(dv, maxDoc, () -> {
+                    for (int i = 0; i < dv.docValueCount(); i++) {
+                        long value = dv.nextValue();
+                        range[0] = Math.min(range[0], value);
+                        range[1] = Math.max(range[1], value);
+                        sampledValues[0]++;
+                    }
+                });
+                values = samples == 0 ? 0 : (double) docs * sampledValues[0] / samples;
+                bitsPerValue = sampledValues[0] == 0 ? 0 : unsignedBitsRequired(range[1] - range[0]);
+                break;
+            }
+            case SORTED: {
+                SortedDocValues dv = reader.getSortedDocValues(field.name);
+                docs = dv.cost();
+                values = docs;
+                bitsPerValue = unsignedBitsRequired(dv.getValueCount());
+                dictionaryBytes = dv.getValueCount() * averageTermLength(dv.getValueCount(), ord -> dv.lookupOrd((int) ord).length);
+                break;
+            }
+            case SORTED_SET: {
+                SortedSetDocValues dv = reader.getSortedSetDocValues(field.name);
+                long[] sampledOrds = {0};
+                docs = dv.cost();
+                int samples = sample(dv, maxDoc, () -> {
+                    while (dv.nextOrd() != SortedSetDocValues.NO_MORE_ORDS)
+                        sampledOrds[0]++;
+                });
+                values = samples == 0 ? 0 : (double) docs * sampledOrds[0] / samples;
+                bitsPerValue = unsignedBitsRequired(dv.getValueCount());
+                dictionaryBytes = dv.getValueCount() * averageTermLength(dv.getValueCount(), ord -> dv.lookupOrd(ord).length);
+                break;
+            }
+            case BINARY: {
+                BinaryDocValues dv = reader.getBinaryDocValues(field.name);
+                long[] sampledBytes = {0};
+                docs = dv.cost();
+                int samples = sample(dv, maxDoc, () -> sampledBytes[0] += dv.binaryValue().length);
+                values = docs;
+                dictionaryBytes = samples == 0 ? 0 : (double) docs * sampledBytes[0] / samples;
+                bitsPerValue = unsignedBitsRequired(docs);
+                break;
+            }
+            default:
+                return 0;
+        }
+        double docsWithField = docs < maxDoc ? maxDoc / 8.0 : 0;
+        return values * bitsPerValue / 8.0 + dictionaryBytes + docsWithField;
+    }
+
+    private interface SampledDoc {
+        void visit() throws IOException;
+    }
+
+    /**
+     * Visit up to DOC_VALUES_SAMPLES documents with values, spread evenly over the segment
+     *
+     * @return The number of documents visited
+     */
+    private static int sample(DocIdSetIterator values, int maxDoc, SampledDoc sampledDoc) throws IOException {
+        int samples = 0;
+        int doc = -1;
+        for (int i = 0; i < DOC_VALUES_SAMPLES; i++) {
+            int target = (int) ((long) i * maxDoc / DOC_VALUES_SAMPLES);
+            // A sparse field may already be past the target
+            if (target <= doc)
+                continue;
+            doc = values.advance(target);
+            if (doc == DocIdSetIterator.NO_MORE_DOCS)
+                break;
+            sampledDoc.visit();
+            samples++;
+        }
+        return samples;
+    }
+
+    private interface TermLength {
+        int length(long ord) throws IOException;
+    }
+
+    private static double averageTermLength(long valueCount, TermLength termLength) throws IOException {
+        if (valueCount == 0)
+            return 0;
+        int samples = (int) Math.min(valueCount, TERM_LENGTH_SAMPLES);
+        long total = 0;
+        for (int i = 0; i < samples; i++)
+            total += termLength.length(i * valueCount / samples);
+        return (double) total / samples;
+    }
+
+    private static int unsignedBitsRequired(long value) {
+        return 64 - Long.numberOfLeadingZeros(value);
+    }
+}
@@ -3,17 +3,21 @@
 import org.apache.lucene.codecs.blocktree.Stats;
 import org.apache.lucene.index.IndexOptions;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Map;
 
 public class FieldStatsHolder {
     private final IndexOptions indexOptions;
     String name;
 
-    // Stored Documents
+    // Stored Documents, uncompressed and the share of the compressed stored fields files on disk. Uncompressed bytes
+    // are split between live and deleted documents.
     long storedFieldBytes;
+    long storedFieldDeletedBytes;
+    long storedFieldDiskBytes;
+    // Variance of the stored bytes estimate when sampling; zero when every document was visited
+    double storedFieldVariance;
 
-    // Term Stats
+    // Term Stats, from walking the blocktree; detail of the terms dictionary share below, not part of the total
     long indexNumBytes;
     long totalTermBytes;
     long totalBlockSuffixBytes;
@@ -26,14 +30,47 @@ public class FieldStatsHolder {
     // Sum of Terms (Not unique)
     long totalTermCount;
 
-    final List<String> sampleDocs = new ArrayList<>();
+    // Share of the segment's terms dictionary, doc values, points, norms, term vectors and postings files
+    long termsBytes;
+    long docValuesBytes;
+    long pointsBytes;
+    long normsBytes;
+    long termVectorsBytes;
+    long postingsBytes;
+
+    // Part of the total held by deleted documents: their share of the field's stored fields bytes on disk, plus their
+    // share by count of each other structure
+    long deletedBytes;
+
+    // Heap used by the field's terms index while open, and that fielddata would use if loaded (text fields only)
+    long termsIndexHeapBytes;
+    long fielddataBytes;
+
+    // Profile of the terms dictionary, when the field matched --termsProfile
+    TermsProfile termsProfile;
+
+    // First sample value seen for this field; only captured when sample documents are requested
+    String sampleDoc;
 
 
 
     // Total
     double percentage;
+
+    /**
+     * Bytes of the field on disk: its share of each of the segment's files. The uncompressed stored bytes and the
+     * block tree statistics are reported alongside, but measure other things and are left out.
+     */
     Long getTotal() {
-        return storedFieldBytes + indexNumBytes + totalTermBytes + totalBlockSuffixBytes + totalUncompressedBlockSuffixBytes + totalBlockStatsBytes + totalBlockOtherBytes;
+        return storedFieldDiskBytes + termsBytes + docValuesBytes + pointsBytes + normsBytes + termVectorsBytes + postingsBytes;
+    }
+
+    /**
+     * Fraction of the field's uncompressed stored bytes held by deleted documents
+     */
+    double getStoredDeletedShare() {
+        long stored = storedFieldBytes + storedFieldDeletedBytes;
+        return stored > 0 ? (double) storedFieldDeletedBytes / stored : 0.0;
     }
 
     public void calculate(long indexTotalBytes)
@@ -47,9 +84,13 @@ public FieldStatsHolder(String name, IndexOptions indexOptions) {
         this.indexOptions = indexOptions;
     }
 
+    public IndexOptions getIndexOptions() {
+        return indexOptions;
+    }
+
     public void accumulateSample(String sampleDoc) {
-        if (sampleDoc != null) {
-            this.sampleDocs.add(sampleDoc);
+        if (this.sampleDoc == null) {
+            this.sampleDoc = sampleDoc;
         }
     }
 
@@ -64,16 +105,103 @@ public void accumulateStats(Stats stats) {
         totalTermCount += stats.totalTermCount;
     }
 
+    public void accumulateTermsIndexHeapBytes(long termsIndexHeapBytes) {
+        this.termsIndexHeapBytes += termsIndexHeapBytes;
+    }
+
+    public void accumulateFielddataBytes(long fielddataBytes) {
+        this.fielddataBytes += fielddataBytes;
+    }
+
+    public void accumulateTermsProfile(TermsProfile termsProfile) {
+        this.termsProfile = TermsProfile.merge(this.termsProfile, termsProfile);
+    }
+
     public void accumulateStoredFieldBytes(Long storedFieldBytes) {
         this.storedFieldBytes += storedFieldBytes;
     }
 
+    public void accumulateStoredFieldDeletedBytes(long storedFieldDeletedBytes) {
+        this.storedFieldDeletedBytes += storedFieldDeletedBytes;
+    }
+
+    public void accumulateDeletedBytes(long deletedBytes) {
+        this.deletedBytes += deletedBytes;
+    }
+
+    public void accumulateTermsBytes(long termsBytes) {
+        this.termsBytes += termsBytes;
+    }
+
+    public void accumulateDocValuesBytes(long docValuesBytes) {
+        this.docValuesBytes += docValuesBytes;
+    }
+
+    public void accumulatePointsBytes(long pointsBytes) {
+        this.pointsBytes += pointsBytes;
+    }
+
+    public void accumulateNormsBytes(long normsBytes) {
+        this.normsBytes += normsBytes;
+    }
+
+    public void accumulateTermVectorsBytes(long termVectorsBytes) {
+        this.termVectorsBytes += termVectorsBytes;
+    }
+
+    public void accumulatePostingsBytes(long postingsBytes) {
+        this.postingsBytes += postingsBytes;
+    }
+
+    public void accumulateStoredFieldVariance(double storedFieldVariance) {
+        this.storedFieldVariance += storedFieldVariance;
+    }
+
+    public void accumulateStoredFieldDiskBytes(long storedFieldDiskBytes) {
+        this.storedFieldDiskBytes += storedFieldDiskBytes;
+    }
+
+    /**
+     * Add the values accumulated by another holder for the same field (e.g. from another segment)
+     */
+    public void merge(FieldStatsHolder other) {
+        storedFieldBytes += other.storedFieldBytes;
+        storedFieldDeletedBytes += other.storedFieldDeletedBytes;
+        deletedBytes += other.deletedBytes;
+        storedFieldDiskBytes += other.storedFieldDiskBytes;
+        storedFieldVariance += other.storedFieldVariance;
+        indexNumBytes += other.indexNumBytes;
+        totalTermBytes += other.totalTermBytes;
+        totalBlockSuffixBytes += other.totalBlockSuffixBytes;
+        totalUncompressedBlockSuffixBytes += other.totalUncompressedBlockSuffixBytes;
+        totalBlockStatsBytes += other.totalBlockStatsBytes;
+        totalBlockOtherBytes += other.totalBlockOtherBytes;
+        totalTermCount += other.totalTermCount;
+        termsBytes += other.termsBytes;
+        docValuesBytes += other.docValuesBytes;
+        pointsBytes += other.pointsBytes;
+        normsBytes += other.normsBytes;
+        termVectorsBytes += other.termVectorsBytes;
+        postingsBytes += other.postingsBytes;
+        termsIndexHeapBytes += other.termsIndexHeapBytes;
+        fielddataBytes += other.fielddataBytes;
+        termsProfile = TermsProfile.merge(termsProfile, other.termsProfile);
+        accumulateSample(other.sampleDoc);
+    }
+
+    /**
+     * Merge each holder of source into the holder of the same name in target, creating it if needed
+     */
+    static void mergeInto(Map<String, FieldStatsHolder> target, Map<String, FieldStatsHolder> source) {
+        source.forEach((name, stats) -> target.computeIfAbsent(name, k -> new FieldStatsHolder(name, stats.indexOptions)).merge(stats));
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
         sb.append(String.format("%-35s (%5.2f%%), %-30s ",  name, percentage, indexOptions));
         if (getTotal() > 0 || storedFieldBytes> 0 || indexNumBytes > 0)
-            sb.append(String.format("Field %,d bytes; Stored=%,d; IndexBytes=%,d; ", getTotal(), storedFieldBytes, indexNumBytes));
+            sb.append(String.format("Field %,d bytes; Stored=%s; StoredOnDisk=%,d; IndexBytes=%,d; ", getTotal(), formatStoredFieldBytes(), storedFieldDiskBytes, indexNumBytes));
         if (totalTermCount > 0)
             sb.append(String.format("Terms=%d; %2.2f bytes/term", totalTermCount, (double) (totalTermBytes)/totalTermCount));
         if (totalTermBytes > 0 || totalBlockSuffixBytes > 0 || totalUncompressedBlockSuffixBytes > 0 || totalBlockStatsBytes > 0 || totalBlockOtherBytes > 0) {
@@ -82,7 +210,34 @@ public String toString() {
                                   totalTermBytes, totalBlockSuffixBytes, totalUncompressedBlockSuffixBytes, totalBlockStatsBytes, totalBlockOtherBytes)
             );
         }
+        appendBytes(sb, "TermsDictionary", termsBytes);
+        appendBytes(sb, "Postings", postingsBytes);
+        appendBytes(sb, "DocValues", docValuesBytes);
+        appendBytes(sb, "Points", pointsBytes);
+        appendBytes(sb, "Norms", normsBytes);
+        appendBytes(sb, "TermVectors", termVectorsBytes);
+        appendBytes(sb, "StoredDeleted", storedFieldDeletedBytes);
+        appendBytes(sb, "Deleted", deletedBytes);
+        appendBytes(sb, "TermsIndexHeap", termsIndexHeapBytes);
+        appendBytes(sb, "Fielddata", fielddataBytes);
 
         return sb.toString();
     }
+
+    private static void appendBytes(StringBuilder sb, String label, long bytes) {
+        if (bytes <= 0)
+            return;
+        if (sb.length() < 2 || sb.charAt(sb.length() - 2) != ';')
+            sb.append("; ");
+        sb.append(String.format("%s=%,d", label, bytes));
+    }
+
+    /**
+     * Stored bytes, followed by the standard error if they were estimated from a sample
+     */
+    private String formatStoredFieldBytes() {
+        if (storedFieldVariance > 0)
+            return String.format("%,d +/-%,d", storedFieldBytes, Math.round(Math.sqrt(storedFieldVariance)));
+        return String.format("%,d", storedFieldBytes);
+    }
 }
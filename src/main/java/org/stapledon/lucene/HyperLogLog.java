@@ -0,0 +1,49 @@
+package org.stapledon.lucene;
+
+/**
+ * HyperLogLog estimate of the number of distinct values offered to it, in a fixed 4KB. Sketches of the same values
+ * merge exactly by taking the larger register, so the distinct terms of a field can be counted segment by segment and
+ * combined across segments and shards.
+ */
+class HyperLogLog {
+    static final int PRECISION = 12;
+    static final int REGISTERS = 1 << PRECISION;
+    // Relative standard error of the estimate
+    static final double STANDARD_ERROR = 1.04 / Math.sqrt(REGISTERS);
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /**
+     * Add a value, given as a well-mixed 64-bit hash
+     */
+    void offer(long hash) {
+        int index = (int) (hash >>> (Long.SIZE - PRECISION));
+        // Guard bit keeps the rank finite when the remaining bits are all zero
+        byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+        if (rank > registers[index])
+            registers[index] = rank;
+    }
+
+    void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        // Small cardinalities are counted more accurately from the number of empty registers (linear counting)
+        if (estimate <= 2.5 * REGISTERS && zeros > 0)
+            estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+        return Math.round(estimate);
+    }
+}
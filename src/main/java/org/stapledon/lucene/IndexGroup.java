@@ -16,6 +16,23 @@ public class IndexGroup {
     public long totalTransLogSize = 0L;
     public long docs = 0L;
     public long deletedDocs = 0L;
+    public long storedFieldsDiskBytes = 0L;
+    public long reclaimableBytes = 0L;
+
+    // Number and size of the segments in each size tier (see SegmentProfile), when segments are profiled
+    public final long[] segmentTierCounts = new long[SegmentProfile.TIER_LABELS.length];
+    public final long[] segmentTierBytes = new long[SegmentProfile.TIER_LABELS.length];
+    public long pendingMerges = 0L;
+
+    // Results of re-compressing sampled documents, or null if not requested
+    public CompressionStats compression;
+    // Number and size of the files of the group's index and translog directories, by file extension
+    public final Map<String, DirectorySizes.FileStats> fileTypes = new TreeMap<>();
+
+    // Memory needed to keep the group's shards open on this node
+    public MemoryStats memory;
+    // Bytes of the group's _source by JSON path, or null if not requested
+    public SourceProfile source;
 
     IndexGroup(String indexGroupName)
     {
@@ -34,14 +51,54 @@ public void calculate()
     }
 
 
+    public void addFileTypes(Map<String, DirectorySizes.FileStats> extensions) {
+        DirectorySizes.mergeInto(fileTypes, extensions);
+    }
+
     public void updateDiskUsage(long indexGroupSize, long indexTranslogSize) {
         this.totalDiskSize +=indexGroupSize;
         this.totalTransLogSize += indexTranslogSize;
     }
 
+    /**
+     * @return Projected size of the group's indices once force-merged, without their deleted documents
+     */
+    public long getForceMergedSize() {
+        return totalDiskSize - reclaimableBytes;
+    }
+
+    /**
+     * @return Uncompressed bytes of the stored fields of all documents, live and deleted. Estimated from the documents
+     * sampled for compression if stored fields weren't visited.
+     */
+    public long getStoredUncompressedBytes() {
+        long total = fields.values().stream().mapToLong(f -> f.storedFieldBytes + f.storedFieldDeletedBytes).sum();
+        if (total == 0 && compression != null && compression.docs > 0)
+            total = Math.round((double) compression.uncompressedBytes / compression.docs * (docs + deletedDocs));
+        return total;
+    }
+
     public void updateDocs(long docs, long deletedDocs) {
         this.docs +=docs;
         this.deletedDocs += deletedDocs;
     }
 
+    public void addSegments(IndexShard index) {
+        for (SegmentProfile segment : index.segments) {
+            segmentTierCounts[segment.getTier()]++;
+            segmentTierBytes[segment.getTier()] += segment.sizeBytes;
+        }
+        pendingMerges += index.merges.size();
+    }
+
+    public void merge(PartialStats partial) {
+        updateDocs(partial.docs, partial.deletedDocs);
+        this.storedFieldsDiskBytes += partial.storedFieldsDiskBytes;
+        this.reclaimableBytes += partial.reclaimableBytes;
+        this.compression = CompressionStats.merge(this.compression, partial.compression);
+        this.memory = MemoryStats.merge(this.memory, partial.memory);
+        this.source = SourceProfile.merge(this.source, partial.source);
+        FieldStatsHolder.mergeInto(this.fields, partial.fields);
+    }
+
 }
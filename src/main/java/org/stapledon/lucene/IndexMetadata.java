@@ -0,0 +1,131 @@
+package org.stapledon.lucene;
+
+import org.elasticsearch.xcontent.DeprecationHandler;
+import org.elasticsearch.xcontent.NamedXContentRegistry;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.xcontent.XContentParser;
+import org.elasticsearch.xcontent.XContentType;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The settings of an Elasticsearch index that are read from its entry in the "_state" index.
+ */
+class IndexMetadata {
+    static final String SETTING_UUID = "index.uuid";
+    static final String SETTING_PROVIDED_NAME = "index.provided_name";
+    static final String SETTING_NUMBER_OF_SHARDS = "index.number_of_shards";
+    static final String SETTING_CREATION_DATE = "index.creation_date";
+    static final String SETTING_TRANSLOG_FLUSH_THRESHOLD_SIZE = "index.translog.flush_threshold_size";
+    static final String SETTING_TRANSLOG_GENERATION_THRESHOLD_SIZE = "index.translog.generation_threshold_size";
+    static final String SETTING_TRANSLOG_RETENTION_SIZE = "index.translog.retention.size";
+    // Elasticsearch's defaults for the translog size settings
+    static final long DEFAULT_TRANSLOG_FLUSH_THRESHOLD_BYTES = 512L * 1024 * 1024;
+    static final long DEFAULT_TRANSLOG_GENERATION_THRESHOLD_BYTES = 64L * 1024 * 1024;
+    private static final String FIELD_SETTINGS = "settings";
+    private static final String FIELD_STATE = "state";
+
+    String name;
+    String uuid;
+    int numberOfShards = 1;
+    // Milliseconds since the epoch, or -1 if not known
+    long creationDate = -1;
+    // "open" or "close"
+    String state;
+    // Translog size settings, or -1 where the index uses Elasticsearch's default
+    long translogFlushThresholdBytes = -1;
+    long translogGenerationThresholdBytes = -1;
+    long translogRetentionBytes = -1;
+
+    /**
+     * Pull the needed values out of a SMILE-encoded index metadata entry without building a map of it. Everything
+     * else, including the mappings and analysis settings, is skipped over.
+     *
+     * @return The index's metadata, or null if the entry has no uuid and name
+     */
+    static IndexMetadata parse(byte[] content) throws IOException {
+        IndexMetadata metadata = new IndexMetadata();
+        try (XContentParser parser = XContentFactory.xContent(XContentType.SMILE).createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, content)) {
+            // { <index name>: { ... } }
+            if (parser.nextToken() != XContentParser.Token.START_OBJECT || parser.nextToken() != XContentParser.Token.FIELD_NAME
+                    || parser.nextToken() != XContentParser.Token.START_OBJECT)
+                return null;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) == XContentParser.Token.FIELD_NAME) {
+                String field = parser.currentName();
+                token = parser.nextToken();
+                if (FIELD_SETTINGS.equals(field) && token == XContentParser.Token.START_OBJECT)
+                    metadata.parseSettings(parser, "");
+                else if (FIELD_STATE.equals(field) && token.isValue())
+                    metadata.state = parser.text();
+                else
+                    parser.skipChildren();
+            }
+        }
+        return metadata.uuid == null || metadata.name == null ? null : metadata;
+    }
+
+    /**
+     * Settings are normally flat ("index.uuid"), but accept them nested ({"index": {"uuid": ...}}) as well
+     */
+    private void parseSettings(XContentParser parser, String prefix) throws IOException {
+        while (parser.nextToken() == XContentParser.Token.FIELD_NAME) {
+            String key = prefix + parser.currentName();
+            XContentParser.Token token = parser.nextToken();
+            if (token == XContentParser.Token.START_OBJECT)
+                parseSettings(parser, key + ".");
+            else if (!token.isValue())
+                parser.skipChildren();
+            else if (SETTING_UUID.equals(key))
+                uuid = parser.text();
+            else if (SETTING_PROVIDED_NAME.equals(key))
+                name = parser.text();
+            else if (SETTING_NUMBER_OF_SHARDS.equals(key))
+                numberOfShards = Integer.parseInt(parser.text());
+            else if (SETTING_CREATION_DATE.equals(key))
+                creationDate = Long.parseLong(parser.text());
+            else if (SETTING_TRANSLOG_FLUSH_THRESHOLD_SIZE.equals(key))
+                translogFlushThresholdBytes = parseBytes(parser.text());
+            else if (SETTING_TRANSLOG_GENERATION_THRESHOLD_SIZE.equals(key))
+                translogGenerationThresholdBytes = parseBytes(parser.text());
+            else if (SETTING_TRANSLOG_RETENTION_SIZE.equals(key))
+                translogRetentionBytes = parseBytes(parser.text());
+        }
+    }
+
+    /**
+     * @return The flush threshold in bytes, whether set on the index or Elasticsearch's default
+     */
+    long getTranslogFlushThresholdBytes() {
+        return translogFlushThresholdBytes >= 0 ? translogFlushThresholdBytes : DEFAULT_TRANSLOG_FLUSH_THRESHOLD_BYTES;
+    }
+
+    long getTranslogGenerationThresholdBytes() {
+        return translogGenerationThresholdBytes >= 0 ? translogGenerationThresholdBytes : DEFAULT_TRANSLOG_GENERATION_THRESHOLD_BYTES;
+    }
+
+    /**
+     * Parse an Elasticsearch byte size such as "512mb", "1.5gb" or "100b"; a plain number is bytes
+     *
+     * @return The size in bytes, or -1 if the value isn't a size
+     */
+    static long parseBytes(String value) {
+        String size = value.trim().toLowerCase(Locale.ROOT);
+        String[] units = {"pb", "tb", "gb", "mb", "kb", "p", "t", "g", "m", "k", "b"};
+        int[] shifts = {50, 40, 30, 20, 10, 50, 40, 30, 20, 10, 0};
+        int shift = 0;
+        for (int i = 0; i < units.length; i++) {
+            if (size.endsWith(units[i])) {
+                size = size.substring(0, size.length() - units[i].length()).trim();
+                shift = shifts[i];
+                break;
+            }
+        }
+        try {
+            return Math.round(Double.parseDouble(size) * (1L << shift));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
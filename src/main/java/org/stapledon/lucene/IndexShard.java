@@ -1,34 +1,66 @@
 package org.stapledon.lucene;
 
+import java.util.ArrayList;
+import java.util.List;
+
 class IndexShard {
     private final String indexHome;
     private final String indexName;
     private final String directoryName;
+    private final int shardId;
 
     // Disk Sizes
     public long indexByteSize;
     public long transLogByteSize;
+    // Bytes that merging away the deleted documents would free
+    public long reclaimableBytes;
 
     // Number of Documents in the Index
     long numDocs;
     long numDeleted;
     long numSegments;
+
+    // Per-segment profile and the merges that would run next; only gathered when segments are profiled
+    final List<SegmentProfile> segments = new ArrayList<>();
+    final List<MergeSimulator.Merge> merges = new ArrayList<>();
+
+    // The index's settings, if its metadata was found, and its translog, if read
+    IndexMetadata metadata;
+    TranslogStats translog;
     public String getIndexShortName() {
         return directoryName;
     }
 
+    public String getIndexName() {
+        return indexName;
+    }
+
+    public int getShardId() {
+        return shardId;
+    }
+
+    public String getShardDirectoryName() {
+        return String.format("%s/%s/%d", indexHome, directoryName, shardId);
+    }
     public String getIndexDirectoryName() {
-        return String.format("%s/%s/0/index", indexHome, directoryName);
+        return String.format("%s/%s/%d/index", indexHome, directoryName, shardId);
     }
     public String getTransLogDirectoryName() {
-        return String.format("%s/%s/0/translog", indexHome, directoryName);
+        return String.format("%s/%s/%d/translog", indexHome, directoryName, shardId);
     }
 
     public IndexShard(String indexHome, String indexName, String directoryName) {
-        this.indexHome = indexHome.replace("_state", "indices");
+        this(indexHome.replace("_state", "indices"), indexName, directoryName, 0);
+    }
+
+    /**
+     * @param indicesDirectory - The "indices" directory of the data path holding this shard
+     */
+    IndexShard(String indicesDirectory, String indexName, String directoryName, int shardId) {
+        this.indexHome = indicesDirectory;
         this.indexName = indexName;
         this.directoryName = directoryName;
-
+        this.shardId = shardId;
     }
     public void updateDocs(long numDocs, long numDeleted) {
         this.numSegments += 1;
@@ -36,6 +68,10 @@ public void updateDocs(long numDocs, long numDeleted) {
         this.numDeleted += numDeleted;
     }
 
+    public void updateReclaimable(long reclaimableBytes) {
+        this.reclaimableBytes += reclaimableBytes;
+    }
+
     public void updateDiskUsage(long indexByteSize, long transLogByteSize) {
         this.indexByteSize +=indexByteSize;
         this.transLogByteSize += transLogByteSize;
@@ -43,6 +79,6 @@ public void updateDiskUsage(long indexByteSize, long transLogByteSize) {
 
     @Override
     public String toString() {
-        return String.format("%s; %,d segments, %,d docs;  %,d deleted docs;  %,d bytes;  %,2.2f bytes/doc  dir: %s", indexName, numSegments, numDocs, numDeleted, indexByteSize, (float)indexByteSize /numDocs, directoryName);
+        return String.format("%s[%d]; %,d segments, %,d docs;  %,d deleted docs;  %,d bytes;  %,d reclaimable bytes;  %,2.2f bytes/doc  dir: %s", indexName, shardId, numSegments, numDocs, numDeleted, indexByteSize, reclaimableBytes, (float)indexByteSize /numDocs, directoryName);
     }
 }
\ No newline at end of file
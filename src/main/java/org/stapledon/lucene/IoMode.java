@@ -0,0 +1,45 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * How the shards' Lucene files are read.
+ */
+enum IoMode {
+    // Whatever FSDirectory.open picks for the platform (mmap on 64-bit Linux)
+    AUTO,
+    // Memory-mapped files, paged in by the kernel with its normal read-ahead
+    MMAP,
+    // Positional channel reads through a large buffer, so sequential scans issue few, large reads
+    NIO,
+    // As NIO, but opened with O_DIRECT so reads bypass (and don't evict) the page cache
+    DIRECT;
+
+    // Read size for the NIO and DIRECT modes
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    static IoMode parse(String value) {
+        return value == null ? AUTO : IoMode.valueOf(value.trim().toUpperCase());
+    }
+
+    /**
+     * Open a shard's index directory, counting the bytes read into stats if they are counted. The channel modes count
+     * as they fill their buffers; the mapped modes are wrapped to count.
+     */
+    Directory open(Path path, IoStats stats) throws IOException {
+        switch (this) {
+            case NIO:
+                return new ChannelDirectory(path, false, stats);
+            case DIRECT:
+                return new ChannelDirectory(path, true, stats);
+            default:
+                Directory directory = this == MMAP ? new MMapDirectory(path) : FSDirectory.open(path);
+                return stats.countBytes ? new CountingDirectory(directory, stats) : directory;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.stapledon.lucene;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bytes read from the shards' files while they were analysed, and how long the analysis took, in all and by phase.
+ */
+class IoStats {
+    final IoMode mode;
+    // Whether the shards' inputs count the bytes read; counting costs a little on every read, so the default mode
+    // only counts when asked to
+    final boolean countBytes;
+    final LongAdder bytesRead = new LongAdder();
+    // Time threads spent paused by the read rate limit, and waiting for the system load or CPU budget
+    final LongAdder throttledNanos = new LongAdder();
+    final LongAdder backoffNanos = new LongAdder();
+    final RunProfile profile = new RunProfile();
+    private long started;
+    long elapsedNanos;
+
+    IoStats(IoMode mode) {
+        this(mode, true);
+    }
+
+    IoStats(IoMode mode, boolean countBytes) {
+        this.mode = mode;
+        this.countBytes = countBytes;
+    }
+
+    void start() {
+        started = System.nanoTime();
+    }
+
+    void stop() {
+        elapsedNanos = System.nanoTime() - started;
+    }
+
+    double getSeconds() {
+        return elapsedNanos / 1e9;
+    }
+
+    double getMegabytesPerSecond() {
+        return elapsedNanos > 0 ? bytesRead.sum() / (1024.0 * 1024.0) / getSeconds() : 0.0;
+    }
+
+    @Override
+    public String toString() {
+        String summary = countBytes
+                ? String.format("%s: %,d bytes read in %,.1f s (%,.1f MB/s)", mode, bytesRead.sum(), getSeconds(), getMegabytesPerSecond())
+                : String.format("%s: %,.1f s (bytes read not counted without --ioMode)", mode, getSeconds());
+        if (throttledNanos.sum() > 0 || backoffNanos.sum() > 0)
+            summary += String.format(", threads paused %,.1f s by the read limit and %,.1f s by the load governor", throttledNanos.sum() / 1e9, backoffNanos.sum() / 1e9);
+        return summary;
+    }
+}
@@ -0,0 +1,26 @@
+package org.stapledon.lucene;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+/**
+ * Writes the report as JSON Lines: one JSON object per record, each on its own line. Sample documents are included
+ * when --doc is given.
+ */
+class JsonLinesReportWriter extends StructuredReportWriter {
+    private final Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+    JsonLinesReportWriter(Writer out) {
+        super(out);
+    }
+
+    @Override
+    protected void writeRecord(Map<String, Object> record) throws IOException {
+        gson.toJson(record, out);
+        out.write('\n');
+    }
+}
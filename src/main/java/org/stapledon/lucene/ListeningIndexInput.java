@@ -0,0 +1,154 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RandomAccessInput;
+
+import java.io.IOException;
+
+/**
+ * IndexInput that tells a listener how many bytes each read returns, for wrapping directories that count or limit
+ * reads. Clones and slices are wrapped too, and share the input's listener, since Lucene reads most data through
+ * short-lived clones rather than through the input it opened. Listeners may therefore be called from several threads.
+ *
+ * Multi-byte reads are forwarded whole, so the wrapped input's fast paths (e.g. MMapDirectory's) are kept and the
+ * listener hears once per value rather than once per byte.
+ */
+class ListeningIndexInput extends IndexInput {
+
+    interface Listener {
+        void onRead(long bytes) throws IOException;
+    }
+
+    private final IndexInput in;
+    private final Listener listener;
+
+    ListeningIndexInput(IndexInput in, Listener listener) {
+        super(in.toString());
+        this.in = in;
+        this.listener = listener;
+    }
+
+    @Override
+    public byte readByte() throws IOException {
+        listener.onRead(Byte.BYTES);
+        return in.readByte();
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len) throws IOException {
+        listener.onRead(len);
+        in.readBytes(b, offset, len);
+    }
+
+    @Override
+    public void readBytes(byte[] b, int offset, int len, boolean useBuffer) throws IOException {
+        listener.onRead(len);
+        in.readBytes(b, offset, len, useBuffer);
+    }
+
+    @Override
+    public short readShort() throws IOException {
+        listener.onRead(Short.BYTES);
+        return in.readShort();
+    }
+
+    @Override
+    public int readInt() throws IOException {
+        listener.onRead(Integer.BYTES);
+        return in.readInt();
+    }
+
+    @Override
+    public long readLong() throws IOException {
+        listener.onRead(Long.BYTES);
+        return in.readLong();
+    }
+
+    @Override
+    public void readLELongs(long[] dst, int offset, int length) throws IOException {
+        listener.onRead((long) length * Long.BYTES);
+        in.readLELongs(dst, offset, length);
+    }
+
+    @Override
+    public int readVInt() throws IOException {
+        long start = in.getFilePointer();
+        int value = in.readVInt();
+        listener.onRead(in.getFilePointer() - start);
+        return value;
+    }
+
+    @Override
+    public long readVLong() throws IOException {
+        long start = in.getFilePointer();
+        long value = in.readVLong();
+        listener.onRead(in.getFilePointer() - start);
+        return value;
+    }
+
+    @Override
+    public void skipBytes(long numBytes) throws IOException {
+        listener.onRead(numBytes);
+        in.skipBytes(numBytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    @Override
+    public long getFilePointer() {
+        return in.getFilePointer();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        in.seek(pos);
+    }
+
+    @Override
+    public long length() {
+        return in.length();
+    }
+
+    @Override
+    public IndexInput slice(String sliceDescription, long offset, long length) throws IOException {
+        return new ListeningIndexInput(in.slice(sliceDescription, offset, length), listener);
+    }
+
+    @Override
+    public RandomAccessInput randomAccessSlice(long offset, long length) throws IOException {
+        RandomAccessInput slice = in.randomAccessSlice(offset, length);
+        return new RandomAccessInput() {
+            @Override
+            public byte readByte(long pos) throws IOException {
+                listener.onRead(Byte.BYTES);
+                return slice.readByte(pos);
+            }
+
+            @Override
+            public short readShort(long pos) throws IOException {
+                listener.onRead(Short.BYTES);
+                return slice.readShort(pos);
+            }
+
+            @Override
+            public int readInt(long pos) throws IOException {
+                listener.onRead(Integer.BYTES);
+                return slice.readInt(pos);
+            }
+
+            @Override
+            public long readLong(long pos) throws IOException {
+                listener.onRead(Long.BYTES);
+                return slice.readLong(pos);
+            }
+        };
+    }
+
+    @Override
+    public IndexInput clone() {
+        return new ListeningIndexInput(in.clone(), listener);
+    }
+}
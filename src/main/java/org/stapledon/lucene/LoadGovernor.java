@@ -0,0 +1,90 @@
+package org.stapledon.lucene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Keeps the analysis from competing with a loaded node, one task (segment) at a time.
+ *
+ * Before a task starts, it waits while the system load average is at or above maxLoad, checking again with a growing
+ * back-off. After a task, the thread sleeps long enough that its CPU time is no more than cpuBudget of its wall time,
+ * so each analysis thread uses at most that fraction of a core.
+ */
+class LoadGovernor {
+    private static final Logger LOG = LoggerFactory.getLogger(LoadGovernor.class);
+    private static final long MIN_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    static final LoadGovernor NONE = new LoadGovernor(0, 1.0, null, () -> -1.0);
+
+    private final double maxLoad;
+    private final double cpuBudget;
+    private final IoStats stats;
+    private final DoubleSupplier loadAverage;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /**
+     * @param maxLoad   - System load average at which new tasks wait, or 0 for no limit
+     * @param cpuBudget - Fraction of a core each analysis thread may use, from 0 (exclusive) to 1
+     * @param stats     - Collects the time spent waiting, if not null
+     */
+    LoadGovernor(double maxLoad, double cpuBudget, IoStats stats) {
+        this(maxLoad, cpuBudget, stats, ManagementFactory.getOperatingSystemMXBean()::getSystemLoadAverage);
+    }
+
+    LoadGovernor(double maxLoad, double cpuBudget, IoStats stats, DoubleSupplier loadAverage) {
+        if (cpuBudget <= 0 || cpuBudget > 1)
+            throw new IllegalArgumentException("CPU budget must be greater than 0 and at most 1: " + cpuBudget);
+        this.maxLoad = maxLoad;
+        this.cpuBudget = cpuBudget;
+        this.stats = stats;
+        this.loadAverage = loadAverage;
+    }
+
+    <T> Callable<T> govern(Callable<T> task) {
+        if (maxLoad <= 0 && cpuBudget >= 1)
+            return task;
+        return () -> {
+            awaitLoad();
+            long cpuStart = threads.getCurrentThreadCpuTime();
+            try {
+                return task.call();
+            } finally {
+                pace(threads.getCurrentThreadCpuTime() - cpuStart);
+            }
+        };
+    }
+
+    private void awaitLoad() throws InterruptedException {
+        if (maxLoad <= 0)
+            return;
+        long backoff = MIN_BACKOFF_MILLIS;
+        double load;
+        while ((load = loadAverage.getAsDouble()) >= maxLoad) {
+            LOG.debug("System load {} is at or above {}; waiting {} ms", String.format("%.2f", load), maxLoad, backoff);
+            sleep(backoff);
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MILLIS);
+        }
+    }
+
+    private void pace(long cpuNanos) throws InterruptedException {
+        if (cpuBudget >= 1 || cpuNanos <= 0)
+            return;
+        sleep(TimeUnit.NANOSECONDS.toMillis(Math.round(cpuNanos * (1 / cpuBudget - 1))));
+    }
+
+    private void sleep(long millis) throws InterruptedException {
+        if (millis <= 0)
+            return;
+        Thread.sleep(millis);
+        if (stats != null)
+            stats.backoffNanos.add(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+}
@@ -0,0 +1,81 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.packed.PackedInts;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Estimates the memory a segment costs while it is open on a node.
+ *
+ * On-heap bytes are what the segment's codec readers report (Accountable.ramBytesUsed) as this tool opened them, which
+ * is how Elasticsearch opens them too. Since Lucene 8.6 the terms indices (FSTs) are read from the .tip file rather
+ * than loaded on heap, so that file, like the points index, is counted as off-heap memory the page cache should hold
+ * for fast lookups. The blocktree indexNumBytes statistic is only the FST's small on-heap part. Fielddata is a
+ * projection for analysed text fields, which only use heap when fielddata is enabled to sort or aggregate them.
+ */
+final class MemoryEstimator {
+    // Lucene 8.6+ terms index and points index
+    static final String TERMS_INDEX_EXTENSION = "tip";
+    static final String POINTS_INDEX_EXTENSION = "kdi";
+    // Fielddata keeps an offset per term besides the term's bytes, and ordinals per document
+    private static final int FIELDDATA_BYTES_PER_TERM = Long.BYTES;
+
+    private MemoryEstimator() {
+    }
+
+    /**
+     * @return Whether the field is analysed text without doc values, which would need fielddata to sort or aggregate
+     */
+    static boolean isText(FieldInfo field) {
+        return field.getIndexOptions().compareTo(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS) >= 0 && field.getDocValuesType() == DocValuesType.NONE;
+    }
+
+    /**
+     * Fielddata for a text field of a segment: its terms, an offset per term, and the packed ordinals of every
+     * document's terms.
+     *
+     * @param termBytes - Bytes of the segment's terms, from the blocktree statistics or estimated
+     */
+    static long fielddataBytes(Terms terms, long termBytes, int maxDoc) throws IOException {
+        long termCount = Math.max(terms.size(), 0);
+        long ordinals = Math.max(terms.getSumDocFreq(), 0);
+        long ordinalBits = ordinals * PackedInts.bitsRequired(termCount + 1);
+        long docOffsetBits = (long) maxDoc * PackedInts.bitsRequired(ordinals + 1);
+        return termBytes + termCount * FIELDDATA_BYTES_PER_TERM + (ordinalBits + docOffsetBits + 7) / 8;
+    }
+
+    /**
+     * Measure a segment. The fields must hold this segment's statistics only, with their terms index heap and
+     * fielddata already accumulated. fileSizes are the segment's file sizes by extension.
+     */
+    static MemoryStats measure(CodecReader reader, Collection<FieldStatsHolder> fields, Map<String, Long> fileSizes) {
+        MemoryStats memory = new MemoryStats();
+        memory.segments = 1;
+        memory.docs = reader.numDocs();
+        memory.postingsHeapBytes = ramBytesUsed(reader.getPostingsReader());
+        memory.docValuesHeapBytes = ramBytesUsed(reader.getDocValuesReader());
+        memory.pointsHeapBytes = ramBytesUsed(reader.getPointsReader());
+        memory.normsHeapBytes = ramBytesUsed(reader.getNormsReader());
+        memory.storedFieldsHeapBytes = ramBytesUsed(reader.getFieldsReader());
+        memory.termVectorsHeapBytes = ramBytesUsed(reader.getTermVectorsReader());
+        for (FieldStatsHolder field : fields) {
+            memory.termsIndexHeapBytes += field.termsIndexHeapBytes;
+            memory.fielddataBytes += field.fielddataBytes;
+        }
+        memory.termsIndexOffHeapBytes = fileSizes.getOrDefault(TERMS_INDEX_EXTENSION, 0L);
+        memory.pointsIndexOffHeapBytes = fileSizes.getOrDefault(POINTS_INDEX_EXTENSION, 0L);
+        return memory;
+    }
+
+    private static long ramBytesUsed(Accountable accountable) {
+        return accountable != null ? accountable.ramBytesUsed() : 0;
+    }
+}
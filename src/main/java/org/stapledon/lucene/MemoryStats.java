@@ -0,0 +1,72 @@
+package org.stapledon.lucene;
+
+/**
+ * Estimated memory needed to keep a set of segments open, summed over segments. See MemoryEstimator.
+ */
+class MemoryStats {
+    long segments;
+    long docs;
+
+    // On-heap bytes held by the open segment readers, by format
+    long postingsHeapBytes;
+    long docValuesHeapBytes;
+    long pointsHeapBytes;
+    long normsHeapBytes;
+    long storedFieldsHeapBytes;
+    long termVectorsHeapBytes;
+    // Part of postingsHeapBytes used by the fields' terms readers, including the on-heap part of their FSTs
+    long termsIndexHeapBytes;
+
+    // Terms indices (.tip) and points indices (.kdi) read off-heap, which should stay in the page cache for fast lookups
+    long termsIndexOffHeapBytes;
+    long pointsIndexOffHeapBytes;
+
+    // Heap that text fields would need if fielddata were loaded for them
+    long fielddataBytes;
+
+    long getHeapBytes() {
+        return postingsHeapBytes + docValuesHeapBytes + pointsHeapBytes + normsHeapBytes + storedFieldsHeapBytes + termVectorsHeapBytes;
+    }
+
+    long getOffHeapBytes() {
+        return termsIndexOffHeapBytes + pointsIndexOffHeapBytes;
+    }
+
+    /**
+     * Add another set of estimates; either may be null
+     */
+    static MemoryStats merge(MemoryStats target, MemoryStats source) {
+        if (source == null)
+            return target;
+        if (target == null)
+            target = new MemoryStats();
+        target.segments += source.segments;
+        target.docs += source.docs;
+        target.postingsHeapBytes += source.postingsHeapBytes;
+        target.docValuesHeapBytes += source.docValuesHeapBytes;
+        target.pointsHeapBytes += source.pointsHeapBytes;
+        target.normsHeapBytes += source.normsHeapBytes;
+        target.storedFieldsHeapBytes += source.storedFieldsHeapBytes;
+        target.termVectorsHeapBytes += source.termVectorsHeapBytes;
+        target.termsIndexHeapBytes += source.termsIndexHeapBytes;
+        target.termsIndexOffHeapBytes += source.termsIndexOffHeapBytes;
+        target.pointsIndexOffHeapBytes += source.pointsIndexOffHeapBytes;
+        target.fielddataBytes += source.fielddataBytes;
+        return target;
+    }
+
+    /**
+     * @return Heap per million documents, for projecting the heap of a new index from its expected size
+     */
+    long getHeapBytesPerMillionDocs() {
+        return docs > 0 ? Math.round((double) getHeapBytes() / docs * 1_000_000) : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("heap %,d bytes (postings %,d of which terms index %,d; doc values %,d; points %,d; norms %,d; stored fields %,d; term vectors %,d); "
+                        + "off-heap %,d bytes (terms index %,d; points index %,d); potential fielddata %,d bytes",
+                getHeapBytes(), postingsHeapBytes, termsIndexHeapBytes, docValuesHeapBytes, pointsHeapBytes, normsHeapBytes, storedFieldsHeapBytes,
+                termVectorsHeapBytes, getOffHeapBytes(), termsIndexOffHeapBytes, pointsIndexOffHeapBytes, fielddataBytes);
+    }
+}
@@ -0,0 +1,86 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.MergeTrigger;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.util.InfoStream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Asks a TieredMergePolicy, with the settings Elasticsearch uses by default, which merges it would select next for a
+ * shard's current segments. Nothing is merged; the policy only sees the commit.
+ */
+final class MergeSimulator {
+
+    /**
+     * A merge the policy would run next
+     */
+    static class Merge {
+        final List<String> segments = new ArrayList<>();
+        long sizeBytes;
+        // Size of the merged segment, without the deleted documents
+        long projectedBytes;
+        long docs;
+
+        @Override
+        public String toString() {
+            return String.format("merge %,d segments (%,d bytes, %,d docs) into ~%,d bytes: %s",
+                    segments.size(), sizeBytes, docs, projectedBytes, String.join(", ", segments));
+        }
+    }
+
+    private MergeSimulator() {
+    }
+
+    static List<Merge> findMerges(SegmentInfos infos) throws IOException {
+        MergePolicy.MergeSpecification specification = new TieredMergePolicy().findMerges(MergeTrigger.FULL_FLUSH, infos, new CommitMergeContext());
+        List<Merge> merges = new ArrayList<>();
+        if (specification == null)
+            return merges;
+        for (MergePolicy.OneMerge oneMerge : specification.merges) {
+            Merge merge = new Merge();
+            for (SegmentCommitInfo si : oneMerge.segments) {
+                int deletedDocs = si.getDelCount() + si.getSoftDelCount();
+                long size = si.sizeInBytes();
+                merge.segments.add(si.info.name);
+                merge.sizeBytes += size;
+                merge.docs += si.info.maxDoc() - deletedDocs;
+                merge.projectedBytes += si.info.maxDoc() > 0 ? Math.round(size * (1.0 - (double) deletedDocs / si.info.maxDoc())) : 0;
+            }
+            merges.add(merge);
+        }
+        return merges;
+    }
+
+    /**
+     * A merge context for a commit that no writer has open: nothing is merging, and deletes are those of the commit
+     */
+    private static class CommitMergeContext implements MergePolicy.MergeContext {
+        @Override
+        public int numDeletesToMerge(SegmentCommitInfo info) {
+            return numDeletedDocs(info);
+        }
+
+        @Override
+        public int numDeletedDocs(SegmentCommitInfo info) {
+            return info.getDelCount() + info.getSoftDelCount();
+        }
+
+        @Override
+        public InfoStream getInfoStream() {
+            return InfoStream.NO_OUTPUT;
+        }
+
+        @Override
+        public Set<SegmentCommitInfo> getMergingSegments() {
+            return Collections.emptySet();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.IndexOptions;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Statistics gathered by a single analysis task - one segment, or one shard once its segments have been merged.
+ *
+ * Each task owns its partial exclusively, so no synchronization is needed while accumulating. Partials are merged
+ * into the shared IndexGroup on a single thread, in segment/shard order, which keeps the report identical to a
+ * sequential run.
+ */
+class PartialStats {
+    final Map<String, FieldStatsHolder> fields = new TreeMap<>();
+    long docs;
+    long deletedDocs;
+    long storedFieldsDiskBytes;
+    // Bytes that merging away the deleted documents would free
+    long reclaimableBytes;
+    // Results of re-compressing sampled documents, or null if not requested
+    CompressionStats compression;
+    // Memory needed to keep the segments open
+    MemoryStats memory;
+    // Bytes of _source by JSON path, or null if not requested
+    SourceProfile source;
+
+    FieldStatsHolder field(String name, IndexOptions indexOptions) {
+        return fields.computeIfAbsent(name, k -> new FieldStatsHolder(name, indexOptions));
+    }
+
+    void merge(PartialStats other) {
+        this.docs += other.docs;
+        this.deletedDocs += other.deletedDocs;
+        this.storedFieldsDiskBytes += other.storedFieldsDiskBytes;
+        this.reclaimableBytes += other.reclaimableBytes;
+        this.compression = CompressionStats.merge(this.compression, other.compression);
+        this.memory = MemoryStats.merge(this.memory, other.memory);
+        this.source = SourceProfile.merge(this.source, other.source);
+        FieldStatsHolder.mergeInto(this.fields, other.fields);
+    }
+}
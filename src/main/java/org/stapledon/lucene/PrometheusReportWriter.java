@@ -0,0 +1,143 @@
+package org.stapledon.lucene;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes the report in the Prometheus text exposition format: a gauge per group and per field, and the node's size and
+ * the scan's throughput. The daemon serves it over HTTP; as a file it suits node_exporter's textfile collector.
+ *
+ * Every sample of a metric has to be written together, so samples are kept by metric and written out in finish.
+ */
+class PrometheusReportWriter implements ReportWriter {
+    static final String PREFIX = "lucene_stats_";
+
+    /**
+     * One metric: its help text, type and samples so far
+     */
+    private static class Family {
+        final String help;
+        final String type;
+        final StringBuilder samples = new StringBuilder();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final Writer out;
+    private final Map<String, Family> families = new LinkedHashMap<>();
+    private long nodeDiskBytes;
+
+    PrometheusReportWriter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void start(String stateDirectory, long nodeDiskBytes) {
+        this.nodeDiskBytes = nodeDiskBytes;
+    }
+
+    @Override
+    public void writeGroup(IndexGroup group) {
+        String[] labels = {"group", group.indexGroupName};
+        gauge("group_disk_bytes", "Size of the group's Lucene files on disk", labels, group.totalDiskSize);
+        gauge("group_translog_bytes", "Size of the group's translogs on disk", labels, group.totalTransLogSize);
+        gauge("group_docs", "Live documents in the group", labels, group.docs);
+        gauge("group_deleted_docs", "Deleted documents in the group not yet merged away", labels, group.deletedDocs);
+        gauge("group_reclaimable_bytes", "Bytes a force merge would reclaim from the group", labels, group.reclaimableBytes);
+        gauge("group_shards", "Shards of the group on the node", labels, group.indices.size());
+        if (group.memory != null)
+            gauge("group_heap_bytes", "Heap the group's open segments need", labels, group.memory.getHeapBytes());
+
+        for (FieldStatsHolder field : group.fields.values()) {
+            labels = new String[]{"group", group.indexGroupName, "field", field.name};
+            gauge("field_bytes", "Bytes of the field on disk, across every structure", labels, field.getTotal());
+            gauge("field_stored_bytes", "Uncompressed stored bytes of the field in live documents", labels, field.storedFieldBytes);
+            gauge("field_stored_disk_bytes", "The field's share of the stored fields files on disk", labels, field.storedFieldDiskBytes);
+            gauge("field_terms_bytes", "The field's share of the terms dictionary files", labels, field.termsBytes);
+            gauge("field_postings_bytes", "The field's share of the postings files", labels, field.postingsBytes);
+            gauge("field_doc_values_bytes", "The field's share of the doc values files", labels, field.docValuesBytes);
+            gauge("field_points_bytes", "The field's share of the points files", labels, field.pointsBytes);
+        }
+    }
+
+    @Override
+    public void finish(Collection<IndexGroup> groups, IoStats io) throws IOException {
+        String[] none = {};
+        gauge("node_disk_bytes", "Size of the indices on the node", none, nodeDiskBytes);
+        gauge("node_groups", "Index groups on the node", none, groups.size());
+        gauge("scan_seconds", "Time taken to analyse the shards", none, io.getSeconds());
+        if (io.countBytes) {
+            gauge("scan_read_bytes", "Bytes read from the shards by the scan", none, io.bytesRead.sum());
+            gauge("scan_read_bytes_per_second", "Read throughput of the scan", none, io.getSeconds() > 0 ? io.bytesRead.sum() / io.getSeconds() : 0.0);
+        }
+        gauge("scan_paused_seconds", "Time threads were paused by the read limit and the load governor", none,
+                (io.throttledNanos.sum() + io.backoffNanos.sum()) / 1e9);
+        for (RunProfile.Phase phase : RunProfile.Phase.values()) {
+            if (io.profile.getCalls(phase) == 0)
+                continue;
+            String[] labels = {"phase", phase.label};
+            gauge("scan_phase_seconds", "Time spent in each phase of the scan, summed over threads", labels, io.profile.getSeconds(phase));
+            if (io.profile.getCpuSeconds(phase) >= 0)
+                gauge("scan_phase_cpu_seconds", "CPU time spent in each phase of the scan", labels, io.profile.getCpuSeconds(phase));
+        }
+
+        for (Map.Entry<String, Family> entry : families.entrySet())
+            write(out, entry.getKey(), entry.getValue().help, entry.getValue().type, entry.getValue().samples.toString());
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private void gauge(String name, String help, String[] labels, double value) {
+        Family family = families.computeIfAbsent(PREFIX + name, n -> new Family(help, "gauge"));
+        family.samples.append(sample(PREFIX + name, labels, value));
+    }
+
+    /**
+     * Write a metric's help and type lines followed by its samples
+     */
+    static void write(Writer out, String name, String help, String type, String samples) throws IOException {
+        out.write("# HELP " + name + " " + help + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+        out.write(samples);
+    }
+
+    /**
+     * Write a metric with a single unlabelled sample
+     */
+    static void write(Writer out, String name, String help, String type, double value) throws IOException {
+        write(out, PREFIX + name, help, type, sample(PREFIX + name, new String[0], value));
+    }
+
+    /**
+     * @param labels - Label names and values, alternately
+     * @return One sample line
+     */
+    static String sample(String name, String[] labels, double value) {
+        StringBuilder line = new StringBuilder(name);
+        for (int i = 0; i < labels.length; i += 2) {
+            line.append(i == 0 ? '{' : ',').append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+            if (i + 2 == labels.length)
+                line.append('}');
+        }
+        line.append(' ');
+        if (value == Math.rint(value) && Math.abs(value) < 1e15)
+            line.append((long) value);
+        else
+            line.append(value);
+        return line.append('\n').toString();
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
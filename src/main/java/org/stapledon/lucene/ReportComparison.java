@@ -0,0 +1,345 @@
+package org.stapledon.lucene;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Compares saved JSON Lines reports, of the same node over time or of several nodes, group by group and field by
+ * field.
+ *
+ * A report lists its groups in name order, each group's record before its fields, and the fields in name order. The
+ * reports are merged on that order, a record at a time, like the merge step of a merge sort: memory holds one record
+ * per report and the few fields driving the current group's growth, however many groups and fields there are.
+ */
+class ReportComparison implements Closeable {
+    // Fields listed as driving each group's growth
+    static final int TOP_DRIVERS = 5;
+    private static final double SECONDS_PER_DAY = 24 * 60 * 60;
+    // Reports closer together than this, like those of several nodes taken at once, have no growth rate
+    static final double MIN_DAYS = 1.0 / 24;
+
+    private static final Comparator<String> FIELD_ORDER = Comparator.nullsFirst(Comparator.naturalOrder());
+
+    /**
+     * One saved report, read a group or field record at a time
+     */
+    static class Snapshot {
+        final Path file;
+        // The node the report was taken of, when, and the size of its indices
+        final String path;
+        final Instant time;
+        final long diskBytes;
+        int index;
+        private final BufferedReader reader;
+        private long line = 1;
+        // The next group or field record, or null at the end of the report
+        private JsonObject next;
+        private String nextGroup;
+        private String nextField;
+        // Documents of the group whose fields are being read
+        private long groupDocs;
+        private long totalDocs;
+
+        private Snapshot(Path file, BufferedReader reader, JsonObject header) throws IOException {
+            this.file = file;
+            this.reader = reader;
+            this.path = string(header, "path");
+            this.diskBytes = number(header, "diskBytes");
+            try {
+                this.time = Instant.parse(string(header, "time"));
+            } catch (DateTimeParseException | NullPointerException e) {
+                throw new IOException(file + " has no report time");
+            }
+        }
+
+        /**
+         * Read ahead to the next group or field record
+         */
+        private void advance() throws IOException {
+            String group = nextGroup;
+            String field = nextField;
+            next = null;
+            String text;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                JsonObject record = parse(file, line, text);
+                String type = string(record, "type");
+                if (!StructuredReportWriter.TYPE_GROUP.equals(type) && !StructuredReportWriter.TYPE_FIELD.equals(type))
+                    continue;
+                next = record;
+                nextGroup = string(record, "group");
+                nextField = StructuredReportWriter.TYPE_FIELD.equals(type) ? string(record, "field") : null;
+                if (nextGroup == null)
+                    throw new IOException(file + " has a " + type + " record without a group at line " + line);
+                if (group != null && compare(nextGroup, nextField, group, field) < 0)
+                    throw new IOException(file + " is not in report order at line " + line);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The change in a group or field, or in the whole node, across the reports. A report without it counts as zero,
+     * so groups and fields that appear or disappear count in full.
+     */
+    static class Delta {
+        final String group;
+        final String field;
+        // Days from the first report to each report, and the bytes and documents in each
+        private final double[] days;
+        final long[] bytes;
+        final long[] docs;
+        final boolean[] present;
+        // The fields with the largest change in bytes, largest first; only for groups
+        final List<Delta> drivers = new ArrayList<>();
+
+        Delta(String group, String field, double[] days) {
+            this.group = group;
+            this.field = field;
+            this.days = days;
+            this.bytes = new long[days.length];
+            this.docs = new long[days.length];
+            this.present = new boolean[days.length];
+        }
+
+        /**
+         * @return "added" if not in the first report, "removed" if not in the last, and "changed" otherwise
+         */
+        String getStatus() {
+            if (!present[0])
+                return "added";
+            return present[present.length - 1] ? "changed" : "removed";
+        }
+
+        int getReports() {
+            int reports = 0;
+            for (boolean p : present)
+                reports += p ? 1 : 0;
+            return reports;
+        }
+
+        double getDays() {
+            return days[days.length - 1];
+        }
+
+        long getFirstBytes() {
+            return bytes[0];
+        }
+
+        long getLastBytes() {
+            return bytes[bytes.length - 1];
+        }
+
+        long getDeltaBytes() {
+            return getLastBytes() - getFirstBytes();
+        }
+
+        long getDeltaDocs() {
+            return docs[docs.length - 1] - docs[0];
+        }
+
+        /**
+         * @return Whether the reports span long enough to give a growth rate
+         */
+        boolean isOverTime() {
+            return getDays() >= MIN_DAYS;
+        }
+
+        /**
+         * @return Growth per day, fitted by least squares over every report; 0 unless isOverTime
+         */
+        double getBytesPerDay() {
+            return slope(bytes);
+        }
+
+        double getDocsPerDay() {
+            return slope(docs);
+        }
+
+        double getFirstBytesPerDoc() {
+            return docs[0] > 0 ? (double) bytes[0] / docs[0] : 0.0;
+        }
+
+        double getLastBytesPerDoc() {
+            int last = docs.length - 1;
+            return docs[last] > 0 ? (double) bytes[last] / docs[last] : 0.0;
+        }
+
+        private double slope(long[] values) {
+            double meanDays = 0;
+            double meanValue = 0;
+            for (int i = 0; i < values.length; i++) {
+                meanDays += days[i] / values.length;
+                meanValue += (double) values[i] / values.length;
+            }
+            double covariance = 0;
+            double variance = 0;
+            for (int i = 0; i < values.length; i++) {
+                covariance += (days[i] - meanDays) * (values[i] - meanValue);
+                variance += (days[i] - meanDays) * (days[i] - meanDays);
+            }
+            return variance > 0 && isOverTime() ? covariance / variance : 0.0;
+        }
+    }
+
+    final List<Snapshot> snapshots;
+    private final double[] days;
+
+    private ReportComparison(List<Snapshot> snapshots) {
+        this.snapshots = snapshots;
+        this.days = new double[snapshots.size()];
+        for (int i = 0; i < snapshots.size(); i++)
+            days[i] = Duration.between(snapshots.get(0).time, snapshots.get(i).time).getSeconds() / SECONDS_PER_DAY;
+    }
+
+    /**
+     * Open the reports, ordered by the time they were taken
+     */
+    static ReportComparison open(List<Path> files) throws IOException {
+        List<Snapshot> snapshots = new ArrayList<>();
+        try {
+            for (Path file : files) {
+                BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+                String first = reader.readLine();
+                JsonObject header = first != null ? parse(file, 1, first) : null;
+                if (header == null || !StructuredReportWriter.TYPE_REPORT.equals(string(header, "type"))) {
+                    reader.close();
+                    throw new IOException(file + " is not a jsonl report");
+                }
+                try {
+                    snapshots.add(new Snapshot(file, reader, header));
+                } catch (IOException e) {
+                    reader.close();
+                    throw e;
+                }
+            }
+        } catch (IOException e) {
+            for (Snapshot snapshot : snapshots)
+                snapshot.reader.close();
+            throw e;
+        }
+        snapshots.sort(Comparator.comparing(s -> s.time));
+        for (int i = 0; i < snapshots.size(); i++)
+            snapshots.get(i).index = i;
+        return new ReportComparison(snapshots);
+    }
+
+    /**
+     * Merge the reports and write a delta for every field and group, each group after its fields, then the node's
+     */
+    void compare(ComparisonWriter out) throws IOException {
+        out.startComparison(snapshots);
+        PriorityQueue<Snapshot> queue = new PriorityQueue<>((a, b) -> {
+            int order = ReportComparison.compare(a.nextGroup, a.nextField, b.nextGroup, b.nextField);
+            return order != 0 ? order : Integer.compare(a.index, b.index);
+        });
+        for (Snapshot snapshot : snapshots) {
+            snapshot.advance();
+            if (snapshot.next != null)
+                queue.add(snapshot);
+        }
+
+        Delta group = null;
+        PriorityQueue<Delta> drivers = new PriorityQueue<>(Comparator.comparingLong(d -> Math.abs(d.getDeltaBytes())));
+        while (!queue.isEmpty()) {
+            Snapshot head = queue.peek();
+            Delta delta = new Delta(head.nextGroup, head.nextField, days);
+            // Take the record of this group or field from every report that has it
+            while (!queue.isEmpty() && compare(queue.peek().nextGroup, queue.peek().nextField, delta.group, delta.field) == 0) {
+                Snapshot snapshot = queue.poll();
+                int i = snapshot.index;
+                delta.present[i] = true;
+                if (delta.field == null) {
+                    snapshot.groupDocs = number(snapshot.next, "docs");
+                    snapshot.totalDocs += snapshot.groupDocs;
+                    delta.bytes[i] = number(snapshot.next, "diskBytes");
+                } else
+                    delta.bytes[i] = number(snapshot.next, "totalBytes");
+                delta.docs[i] = snapshot.groupDocs;
+                snapshot.advance();
+                if (snapshot.next != null)
+                    queue.add(snapshot);
+            }
+
+            if (delta.field == null) {
+                finishGroup(out, group, drivers);
+                group = delta;
+            } else {
+                out.writeDelta(delta);
+                if (delta.getDeltaBytes() != 0)
+                    drivers.add(delta);
+                if (drivers.size() > TOP_DRIVERS)
+                    drivers.poll();
+            }
+        }
+        finishGroup(out, group, drivers);
+
+        Delta node = new Delta(null, null, days);
+        for (Snapshot snapshot : snapshots) {
+            node.present[snapshot.index] = true;
+            node.bytes[snapshot.index] = snapshot.diskBytes;
+            node.docs[snapshot.index] = snapshot.totalDocs;
+        }
+        out.writeDelta(node);
+    }
+
+    private static void finishGroup(ComparisonWriter out, Delta group, PriorityQueue<Delta> drivers) throws IOException {
+        if (group != null) {
+            while (!drivers.isEmpty())
+                group.drivers.add(0, drivers.poll());
+            out.writeDelta(group);
+        }
+        drivers.clear();
+    }
+
+    /**
+     * Report order: by group, then the group's own record before its fields, by name
+     */
+    static int compare(String group, String field, String otherGroup, String otherField) {
+        int order = group.compareTo(otherGroup);
+        return order != 0 ? order : FIELD_ORDER.compare(field, otherField);
+    }
+
+    private static JsonObject parse(Path file, long line, String text) throws IOException {
+        try {
+            JsonElement element = JsonParser.parseString(text);
+            if (element.isJsonObject())
+                return element.getAsJsonObject();
+        } catch (JsonParseException e) {
+            // Reported below
+        }
+        throw new IOException(file + " has an invalid record at line " + line);
+    }
+
+    private static String string(JsonObject record, String name) {
+        JsonElement value = record.get(name);
+        return value != null && !value.isJsonNull() ? value.getAsString() : null;
+    }
+
+    private static long number(JsonObject record, String name) {
+        JsonElement value = record.get(name);
+        return value != null && value.isJsonPrimitive() && value.getAsJsonPrimitive().isNumber() ? value.getAsLong() : 0L;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Snapshot snapshot : snapshots)
+            snapshot.reader.close();
+    }
+}
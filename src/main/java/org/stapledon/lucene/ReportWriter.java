@@ -0,0 +1,48 @@
+package org.stapledon.lucene;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Receives the report as the analysis runs. Each index group is written as soon as it has been analysed, so long
+ * scans produce partial results, and the overview of the whole node is written once every group is done.
+ */
+interface ReportWriter extends Closeable {
+    String FORMAT_CONSOLE = "console";
+    String FORMAT_JSON_LINES = "jsonl";
+    String FORMAT_CSV = "csv";
+    String FORMAT_PROMETHEUS = "prom";
+
+    /**
+     * @param stateDirectory - The node's "_state" directory being analysed
+     * @param nodeDiskBytes  - Total size of the indices on the node, used for percentages
+     */
+    void start(String stateDirectory, long nodeDiskBytes) throws IOException;
+
+    void writeGroup(IndexGroup group) throws IOException;
+
+    /**
+     * @param io - Bytes read from the shards and how long their analysis took
+     */
+    void finish(Collection<IndexGroup> groups, IoStats io) throws IOException;
+
+    /**
+     * Create a writer for the given format; the output file defaults to report.<format>
+     *
+     * @param format - console, jsonl, csv or prom; null for console
+     */
+    static ReportWriter create(String format, String output, boolean includeSampleDocs) throws IOException {
+        if (format == null || FORMAT_CONSOLE.equalsIgnoreCase(format))
+            return new ConsoleReportWriter(includeSampleDocs);
+        if (output == null)
+            output = "report." + format.toLowerCase();
+        if (FORMAT_JSON_LINES.equalsIgnoreCase(format))
+            return new JsonLinesReportWriter(StructuredReportWriter.open(output));
+        if (FORMAT_CSV.equalsIgnoreCase(format))
+            return new CsvReportWriter(StructuredReportWriter.open(output));
+        if (FORMAT_PROMETHEUS.equalsIgnoreCase(format))
+            return new PrometheusReportWriter(StructuredReportWriter.open(output));
+        throw new IllegalArgumentException("Unknown report format: " + format);
+    }
+}
@@ -0,0 +1,263 @@
+package org.stapledon.lucene;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Where the time of a run went: wall and CPU time by phase, the slowest segments and the fields whose terms took
+ * longest, with progress through the node's bytes logged as segments finish.
+ *
+ * Phases inside a segment are timed on the thread analysing it, so with several threads their times add up to more
+ * than the run's elapsed time. Loading the state and walking the directories are timed by their elapsed time only,
+ * as they fan out over the task pool. Timing costs two clock reads per phase per segment, and one per field.
+ */
+class RunProfile {
+    private static final Logger LOG = LoggerFactory.getLogger(RunProfile.class);
+
+    // Segments and fields listed as the slowest
+    static final int SLOWEST = 10;
+    private static final long PROGRESS_INTERVAL_NANOS = 5_000_000_000L;
+
+    enum Phase {
+        STATE("load state", false),
+        WALK("directory walk", false),
+        OPEN("open readers", true),
+        STORED_FIELDS("stored fields", true),
+        COMPRESSION("compression", true),
+        SOURCE_PROFILE("source profile", true),
+        FIELDS("terms and fields", true),
+        ATTRIBUTION("file attribution", true),
+        MEMORY("memory", true),
+        TRANSLOG("translog", true);
+
+        final String label;
+        // Whether the phase runs on a single thread, so its CPU time can be measured
+        final boolean threaded;
+
+        Phase(String label, boolean threaded) {
+            this.label = label;
+            this.threaded = threaded;
+        }
+    }
+
+    /**
+     * Times consecutive phases on one thread: each lap is charged to the phase that just ended
+     */
+    class Stopwatch {
+        private long wall = System.nanoTime();
+        private long cpu = cpuTime();
+        private final long started = wall;
+
+        void lap(Phase phase) {
+            long now = System.nanoTime();
+            long cpuNow = cpuTime();
+            calls[phase.ordinal()].increment();
+            wallNanos[phase.ordinal()].add(now - wall);
+            cpuNanos[phase.ordinal()].add(cpuNow - cpu);
+            wall = now;
+            cpu = cpuNow;
+        }
+
+        /**
+         * Skip the time since the last lap
+         */
+        void reset() {
+            wall = System.nanoTime();
+            cpu = cpuTime();
+        }
+
+        long elapsedNanos() {
+            return System.nanoTime() - started;
+        }
+    }
+
+    /**
+     * A segment that was analysed, with how long it took
+     */
+    static class Segment {
+        final String index;
+        final int shard;
+        final String segment;
+        final long docs;
+        final long bytes;
+        final long nanos;
+
+        Segment(String index, int shard, String segment, long docs, long bytes, long nanos) {
+            this.index = index;
+            this.shard = shard;
+            this.segment = segment;
+            this.docs = docs;
+            this.bytes = bytes;
+            this.nanos = nanos;
+        }
+
+        double getSeconds() {
+            return nanos / 1e9;
+        }
+
+        double getDocsPerSecond() {
+            return nanos > 0 ? docs / getSeconds() : 0.0;
+        }
+
+        double getBytesPerSecond() {
+            return nanos > 0 ? bytes / getSeconds() : 0.0;
+        }
+    }
+
+    /**
+     * Time spent reading a field's terms (statistics and profile) across every segment
+     */
+    static class Field {
+        final String name;
+        final long segments;
+        final long nanos;
+
+        Field(String name, long segments, long nanos) {
+            this.name = name;
+            this.segments = segments;
+            this.nanos = nanos;
+        }
+
+        double getSeconds() {
+            return nanos / 1e9;
+        }
+    }
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuSupported = threads.isCurrentThreadCpuTimeSupported();
+    private final LongAdder[] calls = adders();
+    private final LongAdder[] wallNanos = adders();
+    private final LongAdder[] cpuNanos = adders();
+
+    // Segments analysed and taken from the cache, with their documents and bytes
+    final LongAdder analysedSegments = new LongAdder();
+    final LongAdder cachedSegments = new LongAdder();
+    final LongAdder analysedDocs = new LongAdder();
+    final LongAdder analysedBytes = new LongAdder();
+    final LongAdder analysedNanos = new LongAdder();
+    private final PriorityQueue<Segment> slowestSegments = new PriorityQueue<>(Comparator.comparingLong(s -> s.nanos));
+    private final Map<String, long[]> fieldNanos = new ConcurrentHashMap<>();
+
+    // Progress through the bytes of the shards' segments
+    private volatile long totalBytes;
+    private final LongAdder doneBytes = new LongAdder();
+    private final long started = System.nanoTime();
+    private final AtomicLong lastProgress = new AtomicLong(started);
+
+    private static LongAdder[] adders() {
+        LongAdder[] adders = new LongAdder[Phase.values().length];
+        for (int i = 0; i < adders.length; i++)
+            adders[i] = new LongAdder();
+        return adders;
+    }
+
+    private long cpuTime() {
+        return cpuSupported ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    Stopwatch stopwatch() {
+        return new Stopwatch();
+    }
+
+    long getCalls(Phase phase) {
+        return calls[phase.ordinal()].sum();
+    }
+
+    double getSeconds(Phase phase) {
+        return wallNanos[phase.ordinal()].sum() / 1e9;
+    }
+
+    /**
+     * @return CPU seconds of the phase, or -1 if they weren't measured
+     */
+    double getCpuSeconds(Phase phase) {
+        return phase.threaded && cpuSupported ? cpuNanos[phase.ordinal()].sum() / 1e9 : -1;
+    }
+
+    /**
+     * Set the bytes the run will work through, for progress
+     */
+    void setTotalBytes(long totalBytes) {
+        this.totalBytes = totalBytes;
+    }
+
+    void addSegment(String index, int shard, String segment, long docs, long bytes, long nanos) {
+        analysedSegments.increment();
+        analysedDocs.add(docs);
+        analysedBytes.add(bytes);
+        analysedNanos.add(nanos);
+        synchronized (slowestSegments) {
+            slowestSegments.add(new Segment(index, shard, segment, docs, bytes, nanos));
+            if (slowestSegments.size() > SLOWEST)
+                slowestSegments.poll();
+        }
+        progress(bytes);
+    }
+
+    void addCachedSegment(long bytes) {
+        cachedSegments.increment();
+        progress(bytes);
+    }
+
+    void addField(String field, long nanos) {
+        long[] totals = fieldNanos.computeIfAbsent(field, f -> new long[2]);
+        synchronized (totals) {
+            totals[0]++;
+            totals[1] += nanos;
+        }
+    }
+
+    /**
+     * Log progress and the time left, at most every few seconds
+     */
+    private void progress(long bytes) {
+        doneBytes.add(bytes);
+        long now = System.nanoTime();
+        long last = lastProgress.get();
+        if (now - last < PROGRESS_INTERVAL_NANOS || !lastProgress.compareAndSet(last, now))
+            return;
+        long done = doneBytes.sum();
+        double fraction = totalBytes > 0 ? Math.min(1.0, (double) done / totalBytes) : 0.0;
+        double elapsed = (now - started) / 1e9;
+        String eta = fraction > 0 ? String.format("%,.0f s", elapsed * (1 - fraction) / fraction) : "unknown";
+        LOG.debug(String.format("Progress: %5.1f%% of %,d bytes; %,d segments analysed, %,d cached; %,.1f MB/s; about %s left",
+                fraction * 100, totalBytes, analysedSegments.sum(), cachedSegments.sum(), done / (1024.0 * 1024.0) / elapsed, eta));
+    }
+
+    /**
+     * @return The slowest segments, slowest first
+     */
+    List<Segment> getSlowestSegments() {
+        List<Segment> segments;
+        synchronized (slowestSegments) {
+            segments = new ArrayList<>(slowestSegments);
+        }
+        segments.sort(Comparator.comparingLong((Segment s) -> s.nanos).reversed());
+        return segments;
+    }
+
+    /**
+     * @return The fields whose terms took longest to read, slowest first
+     */
+    List<Field> getSlowestFields() {
+        List<Field> fields = new ArrayList<>();
+        for (Map.Entry<String, long[]> entry : fieldNanos.entrySet()) {
+            synchronized (entry.getValue()) {
+                fields.add(new Field(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+            }
+        }
+        fields.sort(Comparator.comparingLong((Field f) -> f.nanos).reversed().thenComparing(f -> f.name));
+        return fields.subList(0, Math.min(SLOWEST, fields.size()));
+    }
+}
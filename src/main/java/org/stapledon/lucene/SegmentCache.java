@@ -0,0 +1,150 @@
+package org.stapledon.lucene;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.util.StringHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * On-disk cache of the statistics gathered for each segment.
+ *
+ * Lucene segments are immutable, so a segment is identified by its name plus the unique ID written when it was
+ * created. Deletes are the only thing that can change afterwards; the live-docs generation is stored in the entry
+ * rather than the key, so a segment that picked up deletes replaces its old entry instead of adding a new one.
+ * Entries also record the options the statistics were gathered with, and are ignored if those don't match.
+ *
+ * Without a directory, entries are kept in memory instead, as JSON so that each load returns a fresh copy. The daemon
+ * uses this to rescan only new or changed segments.
+ */
+class SegmentCache {
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentCache.class);
+
+    // Increment whenever the contents of PartialStats change
+    static final int FORMAT_VERSION = 12;
+    private static final String EXTENSION = ".json";
+
+    private final Path directory;
+    private final String fingerprint;
+    private final Gson gson = new Gson();
+    private final Set<String> used = ConcurrentHashMap.newKeySet();
+    // Entries by key when there is no directory
+    private final Map<String, String> memory = new ConcurrentHashMap<>();
+
+    private static class Entry {
+        int formatVersion;
+        String fingerprint;
+        long delGen;
+        long fieldInfosGen;
+        long docValuesGen;
+        PartialStats stats;
+    }
+
+    SegmentCache(Path directory, String fingerprint) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * A cache held in memory, for the life of the process
+     */
+    SegmentCache(String fingerprint) {
+        this.directory = null;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * @return The cached statistics of the segment, or null if it hasn't been seen or has changed since
+     */
+    PartialStats load(SegmentCommitInfo si) {
+        String key = key(si);
+        used.add(key);
+        if (directory == null) {
+            String json = memory.get(key);
+            return json != null ? read(new StringReader(json), si) : null;
+        }
+        Path file = directory.resolve(key);
+        if (!Files.exists(file))
+            return null;
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return read(reader, si);
+        } catch (IOException | JsonParseException e) {
+            LOG.warn("Ignoring unreadable cache entry {}: {}", file, e.getLocalizedMessage());
+            return null;
+        }
+    }
+
+    private PartialStats read(Reader reader, SegmentCommitInfo si) {
+        Entry entry = gson.fromJson(reader, Entry.class);
+        if (entry == null || entry.formatVersion != FORMAT_VERSION || !fingerprint.equals(entry.fingerprint))
+            return null;
+        if (entry.delGen != si.getDelGen() || entry.fieldInfosGen != si.getFieldInfosGen() || entry.docValuesGen != si.getDocValuesGen())
+            return null;
+        return entry.stats;
+    }
+
+    void store(SegmentCommitInfo si, PartialStats stats) {
+        Entry entry = new Entry();
+        entry.formatVersion = FORMAT_VERSION;
+        entry.fingerprint = fingerprint;
+        entry.delGen = si.getDelGen();
+        entry.fieldInfosGen = si.getFieldInfosGen();
+        entry.docValuesGen = si.getDocValuesGen();
+        entry.stats = stats;
+
+        if (directory == null) {
+            memory.put(key(si), gson.toJson(entry));
+            return;
+        }
+        Path file = directory.resolve(key(si));
+        try {
+            // Write to a temporary file first so that an interrupted run never leaves a truncated entry behind
+            Path tmp = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                gson.toJson(entry, writer);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOG.warn("Unable to cache statistics for segment {}: {}", si.info.name, e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Remove the entries of segments that were not seen during this run, i.e. that have since been merged away, and
+     * start the next run
+     */
+    void prune() {
+        if (directory == null) {
+            memory.keySet().retainAll(used);
+            used.clear();
+            return;
+        }
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : entries) {
+                if (!used.contains(file.getFileName().toString()))
+                    Files.deleteIfExists(file);
+            }
+        } catch (IOException e) {
+            LOG.warn("Unable to prune {}: {}", directory, e.getLocalizedMessage());
+        }
+        used.clear();
+    }
+
+    private static String key(SegmentCommitInfo si) {
+        return si.info.name + "_" + StringHelper.idToString(si.info.getId()) + EXTENSION;
+    }
+}
@@ -0,0 +1,150 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexFileNames;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * On-disk size of the files that make up a segment, by Lucene file extension.
+ *
+ * Compound (.cfs) segments are opened and their entries sized individually, so the sizes are always broken down by
+ * format (e.g. fdt, tim, dvd) rather than reported as one opaque compound file.
+ */
+final class SegmentFiles {
+    // Lucene 8.7+ stored fields: data, index and metadata
+    static final String[] STORED_FIELDS_EXTENSIONS = {"fdt", "fdx", "fdm"};
+    private static final String COMPOUND_FILE_EXTENSION = "cfs";
+    private static final String COMPOUND_FILE_ENTRIES_EXTENSION = "cfe";
+    static final String LIVE_DOCS_EXTENSION = "liv";
+    // Per-segment metadata that doesn't grow with the number of documents
+    private static final String[] METADATA_EXTENSIONS = {"si", "fnm"};
+
+    // What each file extension found in a shard holds; Lucene 8 formats, older points files, and Elasticsearch's own
+    private static final Map<String, String> DESCRIPTIONS = new TreeMap<>();
+    static {
+        DESCRIPTIONS.put("si", "segment info");
+        DESCRIPTIONS.put("fnm", "field infos");
+        DESCRIPTIONS.put("fdt", "stored fields data");
+        DESCRIPTIONS.put("fdx", "stored fields index");
+        DESCRIPTIONS.put("fdm", "stored fields metadata");
+        DESCRIPTIONS.put("tim", "terms dictionary");
+        DESCRIPTIONS.put("tip", "terms index");
+        DESCRIPTIONS.put("tmd", "terms metadata");
+        DESCRIPTIONS.put("doc", "postings: documents and frequencies");
+        DESCRIPTIONS.put("pos", "postings: positions");
+        DESCRIPTIONS.put("pay", "postings: payloads and offsets");
+        DESCRIPTIONS.put("nvd", "norms data");
+        DESCRIPTIONS.put("nvm", "norms metadata");
+        DESCRIPTIONS.put("dvd", "doc values data");
+        DESCRIPTIONS.put("dvm", "doc values metadata");
+        DESCRIPTIONS.put("tvd", "term vectors data");
+        DESCRIPTIONS.put("tvx", "term vectors index");
+        DESCRIPTIONS.put("tvm", "term vectors metadata");
+        DESCRIPTIONS.put("kdd", "points data");
+        DESCRIPTIONS.put("kdi", "points index");
+        DESCRIPTIONS.put("kdm", "points metadata");
+        DESCRIPTIONS.put("dim", "points data (pre 8.6)");
+        DESCRIPTIONS.put("dii", "points index (pre 8.6)");
+        DESCRIPTIONS.put("liv", "live documents");
+        DESCRIPTIONS.put("cfs", "compound file headers");
+        DESCRIPTIONS.put("cfe", "compound file entries");
+        DESCRIPTIONS.put("segments", "commit points");
+        DESCRIPTIONS.put("lock", "write lock");
+        DESCRIPTIONS.put("tlog", "translog operations");
+        DESCRIPTIONS.put("ckp", "translog checkpoints");
+        DESCRIPTIONS.put("st", "Elasticsearch shard state");
+    }
+
+    private SegmentFiles() {
+    }
+
+    /**
+     * @return What files with the extension hold, or an empty string if it isn't known
+     */
+    static String describe(String extension) {
+        return DESCRIPTIONS.getOrDefault(extension, "");
+    }
+
+    /**
+     * Name of the segment (e.g. _4f), or an empty string if the reader isn't a segment reader
+     */
+    static String segmentName(LeafReader leafReader) {
+        LeafReader reader = FilterLeafReader.unwrap(leafReader);
+        return reader instanceof SegmentReader ? ((SegmentReader) reader).getSegmentName() : "";
+    }
+
+    /**
+     * Commit info of the segment, or null if the reader isn't a segment reader
+     */
+    static SegmentCommitInfo commitInfo(LeafReader leafReader) {
+        LeafReader reader = FilterLeafReader.unwrap(leafReader);
+        return reader instanceof SegmentReader ? ((SegmentReader) reader).getSegmentInfo() : null;
+    }
+
+    /**
+     * Bytes of the segment's files on disk, or 0 if there is no commit info or its files can't be sized
+     */
+    static long size(SegmentCommitInfo commitInfo) {
+        try {
+            return commitInfo != null ? commitInfo.sizeInBytes() : 0;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    static Map<String, Long> sizesByExtension(LeafReader leafReader) throws IOException {
+        Map<String, Long> sizes = new TreeMap<>();
+        LeafReader reader = FilterLeafReader.unwrap(leafReader);
+        if (!(reader instanceof SegmentReader))
+            return sizes;
+
+        SegmentCommitInfo si = ((SegmentReader) reader).getSegmentInfo();
+        Directory dir = si.info.dir;
+        for (String file : si.files()) {
+            String extension = IndexFileNames.getExtension(file);
+            if (COMPOUND_FILE_EXTENSION.equals(extension) || COMPOUND_FILE_ENTRIES_EXTENSION.equals(extension))
+                continue;
+            sizes.merge(extension, dir.fileLength(file), Long::sum);
+        }
+        if (si.info.getUseCompoundFile()) {
+            try (Directory cfs = si.info.getCodec().compoundFormat().getCompoundReader(dir, si.info, IOContext.READONCE)) {
+                for (String file : cfs.listAll())
+                    sizes.merge(IndexFileNames.getExtension(file), cfs.fileLength(file), Long::sum);
+            }
+        }
+        return sizes;
+    }
+
+    /**
+     * Bytes of a segment that a merge would free by dropping its deleted documents. The stored fields files shrink by
+     * the deleted documents' share of the stored bytes, every other per-document file by the share of deleted
+     * documents, and the live docs file goes away entirely.
+     *
+     * @param storedDeletedShare - Fraction of the stored fields bytes held by deleted documents
+     * @param deletedRatio       - Fraction of the segment's documents that are deleted
+     */
+    static long reclaimableBytes(Map<String, Long> sizes, double storedDeletedShare, double deletedRatio) {
+        long total = sizes.values().stream().mapToLong(Long::longValue).sum();
+        if (deletedRatio >= 1.0)
+            return total;
+        long stored = sum(sizes, STORED_FIELDS_EXTENSIONS);
+        long liveDocs = sum(sizes, LIVE_DOCS_EXTENSION);
+        long other = total - stored - liveDocs - sum(sizes, METADATA_EXTENSIONS);
+        return Math.round(stored * storedDeletedShare) + Math.round(other * deletedRatio) + liveDocs;
+    }
+
+    static long sum(Map<String, Long> sizes, String... extensions) {
+        long total = 0;
+        for (String extension : extensions)
+            total += sizes.getOrDefault(extension, 0L);
+        return total;
+    }
+}
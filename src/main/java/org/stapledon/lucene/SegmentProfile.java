@@ -0,0 +1,59 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.SegmentCommitInfo;
+
+import java.io.IOException;
+
+/**
+ * Profile of a single segment of a shard, taken from its commit info.
+ */
+class SegmentProfile {
+    private static final long MB = 1024L * 1024L;
+    // Upper bounds of each size tier; segments above the last bound fall in the last tier
+    static final long[] TIER_LIMITS = {MB, 10 * MB, 100 * MB, 1024 * MB, 5 * 1024 * MB};
+    static final String[] TIER_LABELS = {"<1MB", "1-10MB", "10-100MB", "100MB-1GB", "1-5GB", ">5GB"};
+    private static final String DIAGNOSTICS_SOURCE = "source";
+
+    final String name;
+    final long sizeBytes;
+    final int maxDoc;
+    final int deletedDocs;
+    final String codec;
+    final boolean compound;
+    final String version;
+    // How the segment was written: flush, merge, addIndexes(...)
+    final String source;
+
+    SegmentProfile(SegmentCommitInfo si) throws IOException {
+        this.name = si.info.name;
+        this.sizeBytes = si.sizeInBytes();
+        this.maxDoc = si.info.maxDoc();
+        this.deletedDocs = si.getDelCount() + si.getSoftDelCount();
+        this.codec = si.info.getCodec().getName();
+        this.compound = si.info.getUseCompoundFile();
+        this.version = String.valueOf(si.info.getVersion());
+        this.source = si.info.getDiagnostics().getOrDefault(DIAGNOSTICS_SOURCE, "unknown");
+    }
+
+    double getDeleteRatio() {
+        return maxDoc > 0 ? (double) deletedDocs / maxDoc : 0.0;
+    }
+
+    int getTier() {
+        return tier(sizeBytes);
+    }
+
+    static int tier(long bytes) {
+        for (int i = 0; i < TIER_LIMITS.length; i++) {
+            if (bytes < TIER_LIMITS[i])
+                return i;
+        }
+        return TIER_LIMITS.length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-8s %,15d bytes;  %,12d docs;  %6.2f%% deleted;  %-10s %-9s %-7s %s",
+                name, sizeBytes, maxDoc - deletedDocs, getDeleteRatio() * 100, codec, compound ? "compound" : "", version, source);
+    }
+}
@@ -0,0 +1,162 @@
+package org.stapledon.lucene;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bytes of the stored _source attributed to each JSON path, estimated from sampled documents. See SourceProfiler.
+ *
+ * Paths are kept in a trie capped at MAX_PATHS nodes. Once it is full, the bytes of new paths are kept by their
+ * nearest ancestor already in the trie, so sources with dynamic keys (IDs or dates as field names) can't use
+ * unbounded memory.
+ */
+class SourceProfile {
+    static final int MAX_PATHS = 2000;
+
+    /**
+     * A JSON path. Array elements share their array's path, so "tags" holds every element of the tags array.
+     */
+    static class Node {
+        // Bytes of the path's own tokens (name, value and punctuation), not counting the paths below it
+        double bytes;
+        // Documents the path appears in
+        double docs;
+        final Map<String, Node> children = new TreeMap<>();
+        // Bytes counted for the document being parsed
+        transient double documentBytes;
+    }
+
+    // Live documents the profile stands for, and the documents actually parsed
+    double documents;
+    long sampledDocuments;
+    // Bytes of _source in those documents, by their stored length
+    double sourceBytes;
+    // Documents whose _source couldn't be parsed
+    long unparsedDocuments;
+    int paths;
+    // Whether the trie was full and some paths were folded into their parents
+    boolean truncated;
+    final Node root = new Node();
+
+    /**
+     * @return The child path, or the parent itself if the trie is full
+     */
+    Node child(Node parent, String name) {
+        Node child = parent.children.get(name);
+        if (child != null)
+            return child;
+        if (paths >= MAX_PATHS) {
+            truncated = true;
+            return parent;
+        }
+        child = new Node();
+        parent.children.put(name, child);
+        paths++;
+        return child;
+    }
+
+    /**
+     * Multiply every figure by the given weight, to stand for all the documents the sample was taken from
+     */
+    void scale(double weight) {
+        documents *= weight;
+        sourceBytes *= weight;
+        scale(root, weight);
+    }
+
+    private static void scale(Node node, double weight) {
+        node.bytes *= weight;
+        node.docs *= weight;
+        for (Node child : node.children.values())
+            scale(child, weight);
+    }
+
+    /**
+     * Add another profile; either may be null
+     */
+    static SourceProfile merge(SourceProfile into, SourceProfile source) {
+        if (source == null)
+            return into;
+        SourceProfile target = into != null ? into : new SourceProfile();
+        target.documents += source.documents;
+        target.sampledDocuments += source.sampledDocuments;
+        target.sourceBytes += source.sourceBytes;
+        target.unparsedDocuments += source.unparsedDocuments;
+        target.truncated |= source.truncated;
+        target.mergeNode(target.root, source.root);
+        return target;
+    }
+
+    private void mergeNode(Node target, Node source) {
+        target.bytes += source.bytes;
+        target.docs += source.docs;
+        for (Map.Entry<String, Node> entry : source.children.entrySet()) {
+            Node child = child(target, entry.getKey());
+            if (child == target)
+                target.bytes += totalBytes(entry.getValue());
+            else
+                mergeNode(child, entry.getValue());
+        }
+    }
+
+    /**
+     * @return Bytes of the path and every path below it
+     */
+    static double totalBytes(Node node) {
+        double total = node.bytes;
+        for (Node child : node.children.values())
+            total += totalBytes(child);
+        return total;
+    }
+
+    /**
+     * A path with the bytes of everything below it
+     */
+    static class Path {
+        final String path;
+        final double bytes;
+        final double docs;
+
+        Path(String path, double bytes, double docs) {
+            this.path = path;
+            this.bytes = bytes;
+            this.docs = docs;
+        }
+
+        /**
+         * @return Average bytes of the path in the documents it appears in
+         */
+        double getAverageBytes() {
+            return docs > 0 ? bytes / docs : 0.0;
+        }
+    }
+
+    /**
+     * @return Every path, heaviest first
+     */
+    List<Path> getPaths() {
+        List<Path> paths = new ArrayList<>();
+        for (Map.Entry<String, Node> entry : root.children.entrySet())
+            collect(entry.getKey(), entry.getValue(), paths);
+        paths.sort(Comparator.comparingDouble((Path p) -> p.bytes).reversed().thenComparing(p -> p.path));
+        return paths;
+    }
+
+    private static double collect(String path, Node node, List<Path> paths) {
+        double total = node.bytes;
+        for (Map.Entry<String, Node> entry : node.children.entrySet())
+            total += collect(path + "." + entry.getKey(), entry.getValue(), paths);
+        paths.add(new Path(path, total, node.docs));
+        return total;
+    }
+
+    /**
+     * @return Share of the _source held by the path, from 0 to 1
+     */
+    double share(Path path) {
+        return sourceBytes > 0 ? path.bytes / sourceBytes : 0.0;
+    }
+}
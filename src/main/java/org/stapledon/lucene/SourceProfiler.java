@@ -0,0 +1,184 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.elasticsearch.xcontent.DeprecationHandler;
+import org.elasticsearch.xcontent.NamedXContentRegistry;
+import org.elasticsearch.xcontent.XContentParser;
+import org.elasticsearch.xcontent.XContentType;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Attributes the bytes of the stored _source to the JSON paths in it, from a random sample of a segment's live
+ * documents.
+ *
+ * Each _source is read with a pull parser in whatever format it was indexed in (JSON, SMILE, CBOR or YAML), without
+ * building a map of it. Every token is charged to its path as the length it takes in JSON: quoted names and strings,
+ * numbers as written, and the punctuation around them. The charges of each document are then scaled to its stored
+ * length, so the paths of a document add up to its _source whatever its format.
+ */
+class SourceProfiler {
+    static final String SOURCE_FIELD = "_source";
+
+    /**
+     * Loads only the _source of a document, and stops as soon as it has it
+     */
+    private static class SourceVisitor extends StoredFieldVisitor {
+        byte[] source;
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (source != null)
+                return Status.STOP;
+            return SOURCE_FIELD.equals(fieldInfo.name) ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            source = value;
+        }
+    }
+
+    /**
+     * Profile the _source of a random sample of the segment's live documents, scaled up to all of them
+     *
+     * @return The profile, or null if the segment has no _source
+     */
+    static SourceProfile profile(LeafReader reader, int sampleSize, Random random) throws IOException {
+        if (reader.getFieldInfos().fieldInfo(SOURCE_FIELD) == null)
+            return null;
+        SourceProfile profile = new SourceProfile();
+        for (int doc : DocumentSampler.sample(reader.maxDoc(), reader.getLiveDocs(), sampleSize, random)) {
+            SourceVisitor visitor = new SourceVisitor();
+            reader.document(doc, visitor);
+            if (visitor.source != null)
+                addDocument(profile, visitor.source, 0, visitor.source.length);
+        }
+        if (profile.sampledDocuments > 0)
+            profile.scale((double) reader.numDocs() / profile.sampledDocuments);
+        return profile;
+    }
+
+    /**
+     * The format a _source was indexed in, from the header each format starts with (the content type detection of
+     * the x-content library is deprecated)
+     *
+     * @return The format, or null if it isn't recognised
+     */
+    static XContentType sourceType(byte[] source, int offset, int length) {
+        if (length >= 3 && source[offset] == ':' && source[offset + 1] == ')' && source[offset + 2] == '\n')
+            return XContentType.SMILE;
+        if (length >= 3 && source[offset] == '-' && source[offset + 1] == '-' && source[offset + 2] == '-')
+            return XContentType.YAML;
+        // A CBOR map, of any length, or the self-describing CBOR tag
+        int first = length > 0 ? source[offset] & 0xff : 0;
+        if (first >= 0xa0 && first <= 0xbf || length >= 3 && first == 0xd9 && (source[offset + 1] & 0xff) == 0xd9 && (source[offset + 2] & 0xff) == 0xf7)
+            return XContentType.CBOR;
+        for (int i = offset; i < offset + length; i++) {
+            if (source[i] == '{')
+                return XContentType.JSON;
+            if (!Character.isWhitespace(source[i]))
+                return null;
+        }
+        return null;
+    }
+
+    /**
+     * Parse one _source and add it to the profile
+     */
+    static void addDocument(SourceProfile profile, byte[] source, int offset, int length) {
+        XContentType type = sourceType(source, offset, length);
+        List<SourceProfile.Node> touched = new ArrayList<>();
+        double charged = 0;
+        try {
+            if (type == null)
+                throw new IOException("Unknown content type");
+            try (XContentParser parser = type.xContent().createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, source, offset, length)) {
+                // The path being read, and the path of the value after a field name; array elements take their array's
+                Deque<SourceProfile.Node> stack = new ArrayDeque<>();
+                SourceProfile.Node current = profile.root;
+                SourceProfile.Node field = null;
+                XContentParser.Token token;
+                while ((token = parser.nextToken()) != null) {
+                    SourceProfile.Node node = field != null ? field : current;
+                    long bytes;
+                    switch (token) {
+                        case FIELD_NAME:
+                            field = node = profile.child(current, parser.currentName());
+                            // "name": plus the separating comma
+                            charge(touched, node, parser.currentName().length() + 4);
+                            charged += parser.currentName().length() + 4;
+                            continue;
+                        case START_OBJECT:
+                        case START_ARRAY:
+                            stack.push(current);
+                            current = node;
+                            bytes = 1;
+                            break;
+                        case END_OBJECT:
+                        case END_ARRAY:
+                            node = current;
+                            current = stack.isEmpty() ? profile.root : stack.pop();
+                            bytes = 1;
+                            break;
+                        default:
+                            bytes = valueBytes(token, parser);
+                    }
+                    field = null;
+                    charge(touched, node, bytes);
+                    charged += bytes;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // The document's charges are dropped rather than left half counted
+            for (SourceProfile.Node node : touched)
+                node.documentBytes = 0;
+            profile.unparsedDocuments++;
+            return;
+        }
+        // Scale the document's charges to its stored length
+        double scale = charged > 0 ? length / charged : 0.0;
+        for (SourceProfile.Node node : touched) {
+            node.bytes += node.documentBytes * scale;
+            node.docs++;
+            node.documentBytes = 0;
+        }
+        profile.documents++;
+        profile.sampledDocuments++;
+        profile.sourceBytes += length;
+    }
+
+    private static void charge(List<SourceProfile.Node> touched, SourceProfile.Node node, long bytes) {
+        if (node.documentBytes == 0)
+            touched.add(node);
+        node.documentBytes += bytes;
+    }
+
+    /**
+     * @return Length of a value as JSON
+     */
+    private static long valueBytes(XContentParser.Token token, XContentParser parser) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return parser.textLength() + 2;
+            case VALUE_NUMBER:
+                return parser.textLength();
+            case VALUE_BOOLEAN:
+                return parser.booleanValue() ? 4 : 5;
+            case VALUE_NULL:
+                return 4;
+            case VALUE_EMBEDDED_OBJECT:
+                // Binary values are base64 in JSON
+                return (parser.binaryValue().length + 2) / 3 * 4 + 2;
+            default:
+                return 1;
+        }
+    }
+}
@@ -9,19 +9,60 @@ public class StartupUtils {
     private static final Integer ERROR_STATUS = 1;
 
     public static final String DEFAULT_SAMPLE_SIZE = "10000";
+    public static final String DEFAULT_THREADS = "1";
+    public static final String DEFAULT_SEED = "0";
+    public static final String DEFAULT_COMPRESSION_SAMPLE = "16";
+    public static final String DEFAULT_MAX_READ_MBPS = "0";
+    public static final String DEFAULT_MAX_LOAD = "0";
+    public static final String DEFAULT_CPU_BUDGET = "1";
+    public static final String DEFAULT_REPLAY_RATE = "10000";
+    public static final String DEFAULT_SOURCE_SAMPLE = "1000";
+    public static final String DEFAULT_SCAN_INTERVAL = "60";
 
     public static final String OPTION_INDEX_DIRECTORY = "indexDirectory";
     public static final String OPTION_SAMPLE = "sample";
     public static final String OPTION_DOC = "doc";
     public static final String OPTION_NUMBER_OF_SAMPLES = "sampleSize";
+    public static final String OPTION_THREADS = "threads";
+    public static final String OPTION_SKIP_STORED = "skipStored";
+    public static final String OPTION_TARGET_ERROR = "targetError";
+    public static final String OPTION_SEED = "seed";
+    public static final String OPTION_CACHE_DIRECTORY = "cacheDirectory";
+    public static final String OPTION_DATA_PATHS = "dataPaths";
+    public static final String OPTION_FORMAT = "format";
+    public static final String OPTION_OUTPUT = "output";
+    public static final String OPTION_SEGMENTS = "segments";
+    public static final String OPTION_COMPRESSION = "compression";
+    public static final String OPTION_COMPRESSION_SAMPLE = "compressionSample";
+    public static final String OPTION_IO_MODE = "ioMode";
+    public static final String OPTION_MAX_READ_MBPS = "maxReadMBps";
+    public static final String OPTION_MAX_LOAD = "maxLoad";
+    public static final String OPTION_CPU_BUDGET = "cpuBudget";
+    public static final String OPTION_TERMS_PROFILE = "termsProfile";
+    public static final String OPTION_TERMS_STATS = "termsStats";
+    public static final String OPTION_TERMS_STATS_MIN_MB = "termsStatsMinMB";
+    public static final String OPTION_TRANSLOG = "translog";
+    public static final String OPTION_REPLAY_RATE = "replayRate";
+    public static final String OPTION_SOURCE_PROFILE = "sourceProfile";
+    public static final String OPTION_SOURCE_SAMPLE = "sourceSample";
+    public static final String OPTION_COMPARE = "compare";
+    public static final String OPTION_DAEMON = "daemon";
+    public static final String OPTION_SCAN_INTERVAL = "scanInterval";
 
 
     public static CommandLine parseOptions(String[] args) {
         Options options = new Options();
 
-        // Required - directory to the ElasticSearch index
+        // Required - directory to the ElasticSearch index, or the reports to compare
+        OptionGroup input = new OptionGroup();
+        input.setRequired(true);
         Option option = new Option("d", OPTION_INDEX_DIRECTORY, true, "Directory containing elasticsearch index");
-        option.setRequired(true);
+        input.addOption(option);
+        option = new Option(null, OPTION_COMPARE, true, "Comma separated list of saved jsonl reports and/or node _state directories to compare, in order of report time. Reports the change in each group and field, its growth per day and the fields driving it.");
+        input.addOption(option);
+        options.addOptionGroup(input);
+
+        option = new Option("p", OPTION_DATA_PATHS, true, "Comma separated list of the node's other data path directories (e.g. /data2/nodes/0), for nodes with multiple path.data entries.");
         options.addOption(option);
 
         option = new Option("s", OPTION_SAMPLE, false, "Sample the lucene index and produce an estimated size for stored fields.");
@@ -31,15 +72,87 @@ public static CommandLine parseOptions(String[] args) {
         options.addOption(option);
 
 
+        option = new Option("e", OPTION_TARGET_ERROR, true, "When sampling, stop sampling a segment once the relative standard error of its estimate is below this value (e.g. 0.01).");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_SEED, true, "Random seed used to choose the sampled documents. Defaults to " + DEFAULT_SEED);
+        options.addOption(option);
+
         option = new Option("i", OPTION_DOC, false, "Include a random document for stored fields.");
         options.addOption(option);
 
+        option = new Option(null, OPTION_IO_MODE, true, "How shard files are read: auto, mmap, nio (large buffered reads) or direct (bypassing the page cache). Defaults to auto");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_MAX_READ_MBPS, true, "Limit the rate at which all threads together read index files, in MB/s. Defaults to no limit");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_MAX_LOAD, true, "Wait before analysing each segment while the system load average is at or above this value. Defaults to no limit");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_CPU_BUDGET, true, "Fraction of a core each analysis thread may use (e.g. 0.5); threads sleep between segments to stay within it. Defaults to " + DEFAULT_CPU_BUDGET);
+        options.addOption(option);
+
+        option = new Option("k", OPTION_SKIP_STORED, false, "Don't decompress stored fields; report only their on-disk size from the stored fields files.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_COMPRESSION, false, "Re-compress a sample of each group's stored documents with BEST_SPEED and BEST_COMPRESSION at several chunk sizes, and project their size and speed.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_COMPRESSION_SAMPLE, true, "Megabytes of stored documents to re-compress per index group with --compression. Defaults to " + DEFAULT_COMPRESSION_SAMPLE);
+        options.addOption(option);
+
+        option = new Option("c", OPTION_CACHE_DIRECTORY, true, "Directory used to cache the statistics of each segment between runs. Only new or changed segments are analysed.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_TERMS_PROFILE, true, "Profile the terms dictionary of fields whose name matches this regular expression: distinct terms, term length and document frequency histograms, and top prefixes.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_TERMS_STATS, true, "Walk the terms dictionary blocks for full statistics only for fields whose name matches this regular expression (and those over --termsStatsMinMB); the rest report only their share of the terms files. By default every field is walked.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_TERMS_STATS_MIN_MB, true, "Walk the terms dictionary blocks for full statistics only for fields whose share of a segment's terms dictionary files is at least this many MB (and those matching --termsStats).");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_SOURCE_PROFILE, false, "Parse the _source of sampled documents and attribute its bytes to each JSON path, with how often each path appears and its average size.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_SOURCE_SAMPLE, true, "Documents per segment whose _source is parsed with --sourceProfile. Defaults to " + DEFAULT_SOURCE_SAMPLE);
+        options.addOption(option);
+
+        option = new Option("f", OPTION_FORMAT, true, "Report format: console, jsonl (JSON Lines), csv or prom (Prometheus text). Defaults to console");
+        options.addOption(option);
+
+        option = new Option("o", OPTION_OUTPUT, true, "File the jsonl, csv or prom report is written to. Defaults to report.<format>");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_SEGMENTS, false, "Profile every segment of each shard and simulate the merges TieredMergePolicy would select next.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_TRANSLOG, false, "Read each shard's translog checkpoints and operations: generations, operations not yet committed to Lucene, their replay time, and misconfigured flush thresholds.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_REPLAY_RATE, true, "Operations per second a shard replays from its translog at startup, used to estimate replay times with --translog. Defaults to " + DEFAULT_REPLAY_RATE);
+        options.addOption(option);
+
+        option = new Option(null, OPTION_DAEMON, true, "Keep running and serve the node's statistics as Prometheus metrics on this local port at /metrics, rescanning new or changed segments every --scanInterval minutes and shortly after each new commit.");
+        options.addOption(option);
+
+        option = new Option(null, OPTION_SCAN_INTERVAL, true, "Minutes between scans with --daemon. Defaults to " + DEFAULT_SCAN_INTERVAL);
+        options.addOption(option);
+
+        option = new Option("t", OPTION_THREADS, true, "Number of threads used to analyse shards and segments in parallel. Defaults to " + DEFAULT_THREADS);
+        options.addOption(option);
+
 
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
 
         try {
-            return parser.parse(options, args);
+            CommandLine commandLine = parser.parse(options, args);
+            if (commandLine.hasOption(OPTION_COMPARE) && ReportWriter.FORMAT_PROMETHEUS.equalsIgnoreCase(commandLine.getOptionValue(OPTION_FORMAT, "").trim()))
+                throw new ParseException("Comparisons can't be written as Prometheus metrics: use console, jsonl or csv");
+            return commandLine;
         } catch (ParseException e) {
             LOG.error(e.getLocalizedMessage());
             formatter.printHelp("LuceneStats", options);
@@ -47,4 +160,20 @@ public static CommandLine parseOptions(String[] args) {
         }
         return null;
     }
+
+    /**
+     * Integer value of an option, or the default if the option was not supplied
+     */
+    public static int getIntOption(CommandLine options, String option, String defaultValue) {
+        String value = options.getOptionValue(option, defaultValue);
+        return Integer.parseInt(value != null ? value : defaultValue);
+    }
+
+    /**
+     * Decimal value of an option, or the default if the option was not supplied
+     */
+    public static double getDoubleOption(CommandLine options, String option, String defaultValue) {
+        String value = options.getOptionValue(option, defaultValue);
+        return Double.parseDouble(value != null ? value : defaultValue);
+    }
 }
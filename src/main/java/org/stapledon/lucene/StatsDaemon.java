@@ -0,0 +1,249 @@
+package org.stapledon.lucene;
+
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the tool running: scans the node on a schedule, and again shortly after a shard commits new segments, and
+ * serves the latest statistics as Prometheus metrics over HTTP on the loopback interface.
+ *
+ * Scans run one at a time on a single thread. Between scans the process stays warm, and the statistics of unchanged
+ * segments come from the segment cache, so a rescan only analyses what is new. Commits are noticed by watching each
+ * shard's index directory for new segments_N files; the watches follow the shards found by the latest scan.
+ */
+class StatsDaemon implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(StatsDaemon.class);
+
+    static final String METRICS_PATH = "/metrics";
+    // A commit starts a scan after this delay, so a burst of commits across shards is scanned once
+    static final long COMMIT_DELAY_SECONDS = 60;
+    private static final String SEGMENTS_PREFIX = "segments_";
+
+    /**
+     * One scan of the node, written to the given writer
+     */
+    interface Scan {
+        /**
+         * @return Whether the node was analysed and its report written
+         */
+        boolean run(ReportWriter writer);
+    }
+
+    private final Scan scan;
+    private final long intervalSeconds;
+    private final long commitDelaySeconds;
+    private final HttpServer server;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "scan");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final WatchService watcher;
+    private final Map<Path, WatchKey> watched = new ConcurrentHashMap<>();
+    private final AtomicBoolean scanPending = new AtomicBoolean();
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    // Totals since the daemon started; only touched by the scan thread
+    private long scans;
+    private long failedScans;
+    private double scanSeconds;
+    private long bytesRead;
+    private double lastSuccess;
+    // Metrics of the last successful scan
+    private String groupMetrics = "";
+    // The page served, replaced whole after each scan
+    private volatile String metrics;
+
+    StatsDaemon(int port, long intervalSeconds, long commitDelaySeconds, Scan scan) throws IOException {
+        this.scan = scan;
+        this.intervalSeconds = intervalSeconds;
+        this.commitDelaySeconds = commitDelaySeconds;
+        this.metrics = totals();
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(METRICS_PATH, exchange -> {
+            byte[] body = metrics.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+    }
+
+    /**
+     * @return The port metrics are served on
+     */
+    int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Serve metrics and scan until closed. The first scan starts at once.
+     */
+    void run() {
+        server.start();
+        LOG.info("Serving metrics on http://{}:{}{}", server.getAddress().getHostString(), getPort(), METRICS_PATH);
+        scheduler.scheduleWithFixedDelay(this::scan, 0, intervalSeconds, TimeUnit.SECONDS);
+        try {
+            while (!closed.get()) {
+                WatchKey key = watcher.take();
+                boolean committed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                            || event.context() instanceof Path && ((Path) event.context()).getFileName().toString().startsWith(SEGMENTS_PREFIX))
+                        committed = true;
+                }
+                if (!key.reset())
+                    watched.values().remove(key);
+                if (committed)
+                    requestScan();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * Scan after the commit delay, unless a scan is already waiting
+     */
+    void requestScan() {
+        if (!closed.get() && scanPending.compareAndSet(false, true))
+            scheduler.schedule(this::scan, commitDelaySeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Scan the node and publish its metrics. The metrics of a failed scan are dropped, keeping the previous ones.
+     */
+    void scan() {
+        scanPending.set(false);
+        StringWriter text = new StringWriter();
+        Set<Path> directories = new HashSet<>();
+        PrometheusReportWriter writer = new PrometheusReportWriter(text) {
+            @Override
+            public void writeGroup(IndexGroup group) {
+                for (IndexShard shard : group.indices)
+                    directories.add(Paths.get(shard.getIndexDirectoryName()));
+                super.writeGroup(group);
+            }
+
+            @Override
+            public void finish(Collection<IndexGroup> groups, IoStats io) throws IOException {
+                bytesRead += io.bytesRead.sum();
+                super.finish(groups, io);
+            }
+        };
+        long started = System.nanoTime();
+        boolean analysed;
+        try {
+            analysed = scan.run(writer);
+        } catch (RuntimeException e) {
+            LOG.error("Scan failed", e);
+            analysed = false;
+        }
+        scans++;
+        scanSeconds += (System.nanoTime() - started) / 1e9;
+        if (analysed) {
+            groupMetrics = text.toString();
+            lastSuccess = System.currentTimeMillis() / 1000.0;
+            watch(directories);
+        } else
+            failedScans++;
+        metrics = groupMetrics + totals();
+    }
+
+    /**
+     * Watch the index directories of the shards just scanned, and stop watching those of shards that have gone
+     */
+    private void watch(Set<Path> directories) {
+        for (Map.Entry<Path, WatchKey> entry : watched.entrySet()) {
+            if (!directories.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                watched.remove(entry.getKey());
+            }
+        }
+        for (Path directory : directories) {
+            if (watched.containsKey(directory))
+                continue;
+            try {
+                watched.put(directory, directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE));
+            } catch (IOException | ClosedWatchServiceException e) {
+                LOG.warn("Unable to watch {}: {}", directory, e.getLocalizedMessage());
+            }
+        }
+    }
+
+    int getWatchedDirectories() {
+        return watched.size();
+    }
+
+    String getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Counters and latency of the scans since the daemon started
+     */
+    private String totals() {
+        StringWriter text = new StringWriter();
+        String duration = PrometheusReportWriter.PREFIX + "scan_duration_seconds";
+        String[] none = {};
+        try {
+            PrometheusReportWriter.write(text, "scans_total", "Scans started", "counter", scans);
+            PrometheusReportWriter.write(text, "scan_failures_total", "Scans that failed", "counter", failedScans);
+            PrometheusReportWriter.write(text, duration, "Time taken by each scan, including loading the node's state", "summary",
+                    PrometheusReportWriter.sample(duration + "_sum", none, scanSeconds) + PrometheusReportWriter.sample(duration + "_count", none, scans));
+            PrometheusReportWriter.write(text, "read_bytes_total", "Bytes read from the shards by every scan", "counter", bytesRead);
+            PrometheusReportWriter.write(text, "last_success_timestamp_seconds", "When the last successful scan finished", "gauge", lastSuccess);
+        } catch (IOException e) {
+            // A StringWriter doesn't throw
+        }
+        return text.toString();
+    }
+
+    /**
+     * Stop watching for commits, so that run returns and no more scans are requested. Safe to call from a shutdown
+     * hook while run is in progress; close releases the rest.
+     */
+    void stop() throws IOException {
+        if (closed.compareAndSet(false, true))
+            watcher.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        if (!scheduler.isShutdown()) {
+            server.stop(0);
+            scheduler.shutdownNow();
+        }
+    }
+}
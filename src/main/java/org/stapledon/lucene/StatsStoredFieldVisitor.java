@@ -1,57 +1,195 @@
 package org.stapledon.lucene;
 
 import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.FieldInfos;
 import org.apache.lucene.index.StoredFieldVisitor;
 import org.apache.lucene.util.BytesRef;
 
 import java.io.IOException;
-import java.util.TreeMap;
 
+/**
+ * Counts the stored bytes of every field in a segment.
+ *
+ * Counters are primitive arrays indexed by FieldInfo.number, sized once per segment from its FieldInfos, so visiting
+ * a field is an array increment with no map lookup, boxing or string comparison.
+ */
 public class StatsStoredFieldVisitor extends StoredFieldVisitor {
 
-    public final TreeMap<String, Long> STATS = new TreeMap<>();
-    public final TreeMap<String, String> SAMPLE = new TreeMap<>();
+    private final long[] bytes;
+    private final long[] deletedBytes;
+    private boolean deleted;
+    private final boolean[] sourceFields;
+    private final String[] samples;
+    private final boolean captureSamples;
+
+    // Per-document tracking, used to calculate the error of sampled estimates
+    private final boolean perDocument;
+    private final double[] squares;
+    private final long[] document;
+    private final boolean[] inDocument;
+    private final int[] documentFields;
+    private int documentFieldCount;
+    long documents;
+    double documentBytes;
+    double documentBytesSquares;
+
+    /**
+     * @param fieldInfos     - Fields of the segment being visited
+     * @param perDocument    - Track the bytes of each document, to calculate the error of sampled estimates
+     * @param captureSamples - Keep the first value seen of each field as a sample. Values are otherwise only counted.
+     */
+    public StatsStoredFieldVisitor(FieldInfos fieldInfos, boolean perDocument, boolean captureSamples) {
+        int size = 0;
+        for (FieldInfo fieldInfo : fieldInfos)
+            size = Math.max(size, fieldInfo.number + 1);
+
+        this.bytes = new long[size];
+        this.deletedBytes = new long[size];
+        this.sourceFields = new boolean[size];
+        for (FieldInfo fieldInfo : fieldInfos)
+            sourceFields[fieldInfo.number] = fieldInfo.name.equalsIgnoreCase("_source") || fieldInfo.name.equalsIgnoreCase("_recovery_source");
+        this.captureSamples = captureSamples;
+        this.samples = captureSamples ? new String[size] : null;
+
+        this.perDocument = perDocument;
+        this.squares = perDocument ? new double[size] : null;
+        this.document = perDocument ? new long[size] : null;
+        this.inDocument = perDocument ? new boolean[size] : null;
+        this.documentFields = perDocument ? new int[size] : null;
+    }
 
     @Override
     public Status needsField(FieldInfo fieldInfo) throws IOException {
-        STATS.putIfAbsent(fieldInfo.name, 0L);
         return Status.YES;
     }
 
     public void binaryField(FieldInfo fieldInfo, byte[] value) throws IOException {
-        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name)+value.length);
-        if (fieldInfo.name.equalsIgnoreCase("_source") || fieldInfo.name.equalsIgnoreCase("_recovery_source"))
-            SAMPLE.put(fieldInfo.name, (new BytesRef(value)).utf8ToString());
-        else
-            SAMPLE.put(fieldInfo.name, (new BytesRef(value)).toString());
+        accumulate(fieldInfo.number, value.length);
+        if (captureSamples && samples[fieldInfo.number] == null)
+            samples[fieldInfo.number] = sourceFields[fieldInfo.number] ? (new BytesRef(value)).utf8ToString() : (new BytesRef(value)).toString();
     }
 
     /** Process a string field; the provided byte[] value is a UTF-8 encoded string value. */
     public void stringField(FieldInfo fieldInfo, byte[] value) throws IOException {
-        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name)+value.length);
-        if (fieldInfo.name.equalsIgnoreCase("_source"))
-            SAMPLE.put(fieldInfo.name, (new BytesRef(value)).utf8ToString());
-        else
-            SAMPLE.put(fieldInfo.name, (new BytesRef(value)).toString());
+        binaryField(fieldInfo, value);
     }
 
     /** Process a int numeric field. */
     public void intField(FieldInfo fieldInfo, int value) throws IOException {
-        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name)+1);
+        accumulate(fieldInfo.number, 1);
     }
 
     /** Process a long numeric field. */
     public void longField(FieldInfo fieldInfo, long value) throws IOException {
-        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name)+1);
+        accumulate(fieldInfo.number, 1);
     }
 
     /** Process a float numeric field. */
     public void floatField(FieldInfo fieldInfo, float value) throws IOException {
-        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name)+1);
+        accumulate(fieldInfo.number, 1);
     }
 
     /** Process a double numeric field. */
     public void doubleField(FieldInfo fieldInfo, double value) throws IOException {
-        STATS.put(fieldInfo.name, STATS.get(fieldInfo.name)+1);
+        accumulate(fieldInfo.number, 1);
+    }
+
+    private void accumulate(int field, long length) {
+        bytes[field] += length;
+        if (deleted)
+            deletedBytes[field] += length;
+        if (perDocument) {
+            if (!inDocument[field]) {
+                inDocument[field] = true;
+                documentFields[documentFieldCount++] = field;
+            }
+            document[field] += length;
+        }
+    }
+
+    /**
+     * Set before visiting each document, to count the bytes of deleted documents separately as well
+     */
+    public void setDeleted(boolean deleted) {
+        this.deleted = deleted;
+    }
+
+    /**
+     * Called after each document when tracking per-document values; folds the document into the sums of squares.
+     */
+    public void finishDocument() {
+        long total = 0;
+        for (int i = 0; i < documentFieldCount; i++) {
+            int field = documentFields[i];
+            double value = document[field];
+            squares[field] += value * value;
+            total += document[field];
+            document[field] = 0;
+            inDocument[field] = false;
+        }
+        documentFieldCount = 0;
+        documents++;
+        documentBytes += total;
+        documentBytesSquares += (double) total * total;
+    }
+
+    /**
+     * @return Stored bytes of the field across all visited documents
+     */
+    public long bytes(FieldInfo fieldInfo) {
+        return bytes[fieldInfo.number];
+    }
+
+    /**
+     * @return Stored bytes of the field across the visited documents that were deleted
+     */
+    public long deletedBytes(FieldInfo fieldInfo) {
+        return deletedBytes[fieldInfo.number];
+    }
+
+    /**
+     * @return Sum of the squares of the field's bytes in each visited document, when tracking per-document values
+     */
+    public double squares(FieldInfo fieldInfo) {
+        return squares == null ? 0.0 : squares[fieldInfo.number];
+    }
+
+    /**
+     * @return The first value seen for the field, or null if not capturing samples
+     */
+    public String sample(FieldInfo fieldInfo) {
+        return samples == null ? null : samples[fieldInfo.number];
+    }
+
+    /**
+     * @return Stored bytes of all fields across all visited documents
+     */
+    public long totalBytes() {
+        long total = 0;
+        for (long value : bytes)
+            total += value;
+        return total;
+    }
+
+    /**
+     * @return Stored bytes of all fields across the visited documents that were deleted
+     */
+    public long totalDeletedBytes() {
+        long total = 0;
+        for (long value : deletedBytes)
+            total += value;
+        return total;
+    }
+
+    /**
+     * Relative standard error of the estimated total stored bytes, across all fields, for a segment of the given size
+     */
+    public double relativeError(long populationSize) {
+        long estimate = DocumentSampler.estimateTotal(documentBytes, documents, populationSize);
+        if (documents < 2)
+            return Double.MAX_VALUE;
+        if (estimate == 0)
+            return 0.0;
+        return Math.sqrt(DocumentSampler.estimateVariance(documentBytes, documentBytesSquares, documents, populationSize)) / estimate;
     }
 }
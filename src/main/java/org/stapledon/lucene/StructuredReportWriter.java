@@ -0,0 +1,458 @@
+package org.stapledon.lucene;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Base for the machine readable reports, which write one flat record per report, group, shard and field, and per
+ * segment, simulated merge and segment size tier when segments are profiled, and per compression candidate with
+ * --compression. The I/O summary is written last, followed by the run profile: the time of each phase and the slowest
+ * segments and fields. A comparison writes a report record per compared report, then a
+ * delta record per field, group and the whole node.
+ *
+ * Records are maps keyed by the names in COLUMNS; a key is absent when it doesn't apply to that kind of record.
+ * Output is flushed after every group, so a report being written can be read while the scan continues.
+ */
+abstract class StructuredReportWriter implements ReportWriter, ComparisonWriter {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    static final String TYPE_REPORT = "report";
+    static final String TYPE_GROUP = "group";
+    static final String TYPE_SHARD = "shard";
+    static final String TYPE_FIELD = "field";
+    static final String TYPE_SEGMENT = "segment";
+    static final String TYPE_MERGE = "merge";
+    static final String TYPE_TIER = "tier";
+    static final String TYPE_COMPRESSION = "compression";
+    static final String TYPE_IO = "io";
+    static final String TYPE_TERMS = "terms";
+    static final String TYPE_MEMORY = "memory";
+    static final String TYPE_FILES = "files";
+    static final String TYPE_TRANSLOG = "translog";
+    static final String TYPE_SOURCE = "source";
+    static final String TYPE_DELTA = "delta";
+    static final String TYPE_PHASE = "phase";
+    static final String TYPE_TIMING = "timing";
+
+    static final List<String> COLUMNS = Collections.unmodifiableList(Arrays.asList(
+            "type", "time", "path", "group", "index", "shard", "segment", "field", "indexOptions",
+            "codec", "compound", "version", "source", "tier", "extension", "files", "projectedBytes", "mode", "chunkBytes",
+            "sampleBytes", "ratio", "compressMBps", "decompressMBps", "ioMode", "bytesRead", "seconds", "throughputMBps",
+            "throttledSeconds", "backoffSeconds", "phase", "calls", "cpuSeconds", "docsPerSecond",
+            "docs", "deletedDocs", "segments", "diskBytes", "translogBytes", "storedFieldsDiskBytes", "reclaimableBytes",
+            "forceMergedBytes", "percentage",
+            "generations", "operations", "uncommittedOperations", "uncommittedBytes", "localCheckpoint", "globalCheckpoint",
+            "replaySeconds", "warnings", "status", "reports", "days", "deltaBytes", "bytesPerDay", "deltaDocs", "docsPerDay",
+            "bytesPerDoc", "bytesPerDocChange", "drivers",
+            "totalBytes", "storedBytes", "storedBytesError", "storedDeletedBytes", "storedDiskBytes", "deletedBytes", "indexBytes", "terms", "termBytes",
+            "uniqueTerms", "singletonTerms", "termLengths", "docFreqs", "prefixes", "sourceBytes", "averageBytes",
+            "blockSuffixBytes", "uncompressedBlockSuffixBytes", "blockStatsBytes", "blockOtherBytes",
+            "termsDiskBytes", "postingsBytes", "docValuesBytes", "pointsBytes", "normsBytes", "termVectorsBytes",
+            "heapBytes", "postingsHeapBytes", "termsIndexHeapBytes", "docValuesHeapBytes", "pointsHeapBytes", "normsHeapBytes",
+            "storedFieldsHeapBytes", "termVectorsHeapBytes", "offHeapBytes", "termsIndexOffHeapBytes", "pointsIndexOffHeapBytes",
+            "fielddataBytes", "heapBytesPerShard", "heapBytesPerMillionDocs", "sample"));
+
+    protected final Writer out;
+    private long nodeDiskBytes;
+
+    StructuredReportWriter(Writer out) {
+        this.out = out;
+    }
+
+    /**
+     * Open a buffered writer over a channel to the output file, replacing any previous report
+     */
+    static Writer open(String output) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(output), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        return new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), BUFFER_SIZE), BUFFER_SIZE);
+    }
+
+    protected abstract void writeRecord(Map<String, Object> record) throws IOException;
+
+    @Override
+    public void start(String stateDirectory, long nodeDiskBytes) throws IOException {
+        this.nodeDiskBytes = nodeDiskBytes;
+        Map<String, Object> record = record(TYPE_REPORT);
+        record.put("time", Instant.now().toString());
+        record.put("path", stateDirectory);
+        record.put("diskBytes", nodeDiskBytes);
+        writeRecord(record);
+        out.flush();
+    }
+
+    @Override
+    public void writeGroup(IndexGroup group) throws IOException {
+        Map<String, Object> record = record(TYPE_GROUP);
+        record.put("group", group.indexGroupName);
+        record.put("docs", group.docs);
+        record.put("deletedDocs", group.deletedDocs);
+        record.put("diskBytes", group.totalDiskSize);
+        record.put("translogBytes", group.totalTransLogSize);
+        record.put("storedFieldsDiskBytes", group.storedFieldsDiskBytes);
+        record.put("reclaimableBytes", group.reclaimableBytes);
+        record.put("forceMergedBytes", group.getForceMergedSize());
+        record.put("percentage", percentage(group.totalDiskSize, nodeDiskBytes));
+        record.put("totalBytes", group.totalCalculatedSize);
+        writeRecord(record);
+
+        for (IndexShard shard : group.indices) {
+            record = record(TYPE_SHARD);
+            record.put("group", group.indexGroupName);
+            record.put("index", shard.getIndexName());
+            record.put("shard", shard.getShardId());
+            record.put("docs", shard.numDocs);
+            record.put("deletedDocs", shard.numDeleted);
+            record.put("segments", shard.numSegments);
+            record.put("diskBytes", shard.indexByteSize);
+            record.put("translogBytes", shard.transLogByteSize);
+            record.put("reclaimableBytes", shard.reclaimableBytes);
+            record.put("forceMergedBytes", shard.indexByteSize - shard.reclaimableBytes);
+            record.put("percentage", percentage(shard.indexByteSize, nodeDiskBytes));
+            writeRecord(record);
+            if (shard.translog != null)
+                writeTranslog(group, shard);
+            writeSegments(group, shard);
+        }
+        for (int i = 0; i < SegmentProfile.TIER_LABELS.length; i++) {
+            if (group.segmentTierCounts[i] == 0)
+                continue;
+            record = record(TYPE_TIER);
+            record.put("group", group.indexGroupName);
+            record.put("tier", SegmentProfile.TIER_LABELS[i]);
+            record.put("segments", group.segmentTierCounts[i]);
+            record.put("diskBytes", group.segmentTierBytes[i]);
+            writeRecord(record);
+        }
+
+        if (group.compression != null) {
+            long storedBytes = group.getStoredUncompressedBytes();
+            for (int i = 0; i < CompressionWhatIf.CANDIDATES.size(); i++) {
+                CompressionWhatIf.Candidate candidate = CompressionWhatIf.CANDIDATES.get(i);
+                record = record(TYPE_COMPRESSION);
+                record.put("group", group.indexGroupName);
+                record.put("mode", candidate.name);
+                record.put("chunkBytes", candidate.chunkSize);
+                record.put("docs", group.compression.docs);
+                record.put("sampleBytes", group.compression.uncompressedBytes);
+                record.put("storedFieldsDiskBytes", group.storedFieldsDiskBytes);
+                record.put("ratio", round(group.compression.ratio(i)));
+                record.put("projectedBytes", group.compression.projectedBytes(i, storedBytes));
+                record.put("compressMBps", round(group.compression.compressMegabytesPerSecond(i)));
+                record.put("decompressMBps", round(group.compression.decompressMegabytesPerSecond(i)));
+                writeRecord(record);
+            }
+        }
+
+        writeFileTypes(group.indexGroupName, group.fileTypes, group.totalDiskSize + group.totalTransLogSize);
+        if (group.memory != null)
+            writeMemory(group.indexGroupName, group.memory, group.indices.size());
+        if (group.source != null)
+            writeSourceProfile(group.indexGroupName, group.source);
+
+        for (FieldStatsHolder field : group.fields.values()) {
+            record = record(TYPE_FIELD);
+            record.put("group", group.indexGroupName);
+            record.put("field", field.name);
+            record.put("indexOptions", String.valueOf(field.getIndexOptions()));
+            record.put("percentage", percentage(field.getTotal(), group.totalCalculatedSize));
+            record.put("totalBytes", field.getTotal());
+            record.put("storedBytes", field.storedFieldBytes);
+            if (field.storedFieldVariance > 0)
+                record.put("storedBytesError", Math.round(Math.sqrt(field.storedFieldVariance)));
+            record.put("storedDeletedBytes", field.storedFieldDeletedBytes);
+            record.put("storedDiskBytes", field.storedFieldDiskBytes);
+            record.put("deletedBytes", field.deletedBytes);
+            record.put("indexBytes", field.indexNumBytes);
+            record.put("terms", field.totalTermCount);
+            record.put("termBytes", field.totalTermBytes);
+            record.put("blockSuffixBytes", field.totalBlockSuffixBytes);
+            record.put("uncompressedBlockSuffixBytes", field.totalUncompressedBlockSuffixBytes);
+            record.put("blockStatsBytes", field.totalBlockStatsBytes);
+            record.put("blockOtherBytes", field.totalBlockOtherBytes);
+            record.put("termsDiskBytes", field.termsBytes);
+            record.put("postingsBytes", field.postingsBytes);
+            record.put("docValuesBytes", field.docValuesBytes);
+            record.put("pointsBytes", field.pointsBytes);
+            record.put("normsBytes", field.normsBytes);
+            record.put("termVectorsBytes", field.termVectorsBytes);
+            record.put("termsIndexHeapBytes", field.termsIndexHeapBytes);
+            record.put("fielddataBytes", field.fielddataBytes);
+            if (field.sampleDoc != null)
+                record.put("sample", field.sampleDoc);
+            writeRecord(record);
+        }
+        for (FieldStatsHolder field : group.fields.values()) {
+            if (field.termsProfile != null)
+                writeTermsProfile(group, field);
+        }
+        out.flush();
+    }
+
+    /**
+     * Files of a group by extension, or of the whole node if group is null
+     */
+    private void writeFileTypes(String group, Map<String, DirectorySizes.FileStats> fileTypes, long totalBytes) throws IOException {
+        for (Map.Entry<String, DirectorySizes.FileStats> entry : fileTypes.entrySet()) {
+            Map<String, Object> record = record(TYPE_FILES);
+            if (group != null)
+                record.put("group", group);
+            record.put("extension", entry.getKey());
+            record.put("files", entry.getValue().files);
+            record.put("diskBytes", entry.getValue().bytes);
+            record.put("percentage", percentage(entry.getValue().bytes, totalBytes));
+            writeRecord(record);
+        }
+    }
+
+    /**
+     * Memory of a group, or of the whole node if group is null
+     */
+    private void writeMemory(String group, MemoryStats memory, int shards) throws IOException {
+        Map<String, Object> record = record(TYPE_MEMORY);
+        if (group != null)
+            record.put("group", group);
+        record.put("segments", memory.segments);
+        record.put("docs", memory.docs);
+        record.put("heapBytes", memory.getHeapBytes());
+        record.put("postingsHeapBytes", memory.postingsHeapBytes);
+        record.put("termsIndexHeapBytes", memory.termsIndexHeapBytes);
+        record.put("docValuesHeapBytes", memory.docValuesHeapBytes);
+        record.put("pointsHeapBytes", memory.pointsHeapBytes);
+        record.put("normsHeapBytes", memory.normsHeapBytes);
+        record.put("storedFieldsHeapBytes", memory.storedFieldsHeapBytes);
+        record.put("termVectorsHeapBytes", memory.termVectorsHeapBytes);
+        record.put("offHeapBytes", memory.getOffHeapBytes());
+        record.put("termsIndexOffHeapBytes", memory.termsIndexOffHeapBytes);
+        record.put("pointsIndexOffHeapBytes", memory.pointsIndexOffHeapBytes);
+        record.put("fielddataBytes", memory.fielddataBytes);
+        if (shards > 0)
+            record.put("heapBytesPerShard", memory.getHeapBytes() / shards);
+        record.put("heapBytesPerMillionDocs", memory.getHeapBytesPerMillionDocs());
+        writeRecord(record);
+    }
+
+    private void writeTermsProfile(IndexGroup group, FieldStatsHolder field) throws IOException {
+        TermsProfile profile = field.termsProfile;
+        Map<String, Object> record = record(TYPE_TERMS);
+        record.put("group", group.indexGroupName);
+        record.put("field", field.name);
+        record.put("terms", profile.terms);
+        record.put("termBytes", profile.termBytes);
+        record.put("uniqueTerms", profile.uniqueTerms());
+        record.put("singletonTerms", profile.docFreqCounts[0]);
+        record.put("termLengths", profile.getLengthHistogram());
+        record.put("docFreqs", profile.getDocFreqHistogram());
+        record.put("prefixes", profile.getTopPrefixes());
+        writeRecord(record);
+    }
+
+    /**
+     * One record per JSON path of the _source, heaviest first; a path's bytes include the paths below it
+     */
+    private void writeSourceProfile(String group, SourceProfile source) throws IOException {
+        for (SourceProfile.Path path : source.getPaths()) {
+            Map<String, Object> record = record(TYPE_SOURCE);
+            record.put("group", group);
+            record.put("path", path.path);
+            record.put("docs", Math.round(path.docs));
+            record.put("sourceBytes", Math.round(path.bytes));
+            record.put("averageBytes", round(path.getAverageBytes()));
+            record.put("percentage", percentage(Math.round(path.bytes), Math.round(source.sourceBytes)));
+            writeRecord(record);
+        }
+    }
+
+    private void writeTranslog(IndexGroup group, IndexShard shard) throws IOException {
+        TranslogStats translog = shard.translog;
+        Map<String, Object> record = record(TYPE_TRANSLOG);
+        record.put("group", group.indexGroupName);
+        record.put("index", shard.getIndexName());
+        record.put("shard", shard.getShardId());
+        record.put("generations", translog.generations);
+        record.put("operations", translog.operations);
+        record.put("translogBytes", translog.translogBytes);
+        record.put("uncommittedOperations", translog.uncommittedOperations);
+        record.put("uncommittedBytes", translog.uncommittedBytes);
+        record.put("localCheckpoint", translog.localCheckpoint);
+        record.put("globalCheckpoint", translog.globalCheckpoint);
+        record.put("replaySeconds", translog.replaySeconds);
+        record.put("warnings", String.join("; ", translog.warnings));
+        writeRecord(record);
+    }
+
+    private void writeSegments(IndexGroup group, IndexShard shard) throws IOException {
+        for (SegmentProfile segment : shard.segments) {
+            Map<String, Object> record = record(TYPE_SEGMENT);
+            record.put("group", group.indexGroupName);
+            record.put("index", shard.getIndexName());
+            record.put("shard", shard.getShardId());
+            record.put("segment", segment.name);
+            record.put("codec", segment.codec);
+            record.put("compound", segment.compound);
+            record.put("version", segment.version);
+            record.put("source", segment.source);
+            record.put("tier", SegmentProfile.TIER_LABELS[segment.getTier()]);
+            record.put("docs", segment.maxDoc - segment.deletedDocs);
+            record.put("deletedDocs", segment.deletedDocs);
+            record.put("diskBytes", segment.sizeBytes);
+            writeRecord(record);
+        }
+        for (MergeSimulator.Merge merge : shard.merges) {
+            Map<String, Object> record = record(TYPE_MERGE);
+            record.put("group", group.indexGroupName);
+            record.put("index", shard.getIndexName());
+            record.put("shard", shard.getShardId());
+            record.put("segment", String.join(" ", merge.segments));
+            record.put("segments", merge.segments.size());
+            record.put("docs", merge.docs);
+            record.put("diskBytes", merge.sizeBytes);
+            record.put("projectedBytes", merge.projectedBytes);
+            writeRecord(record);
+        }
+    }
+
+    @Override
+    public void finish(Collection<IndexGroup> groups, IoStats io) throws IOException {
+        MemoryStats nodeMemory = null;
+        Map<String, DirectorySizes.FileStats> nodeFileTypes = new TreeMap<>();
+        long nodeBytes = 0;
+        int shards = 0;
+        for (IndexGroup group : groups) {
+            nodeMemory = MemoryStats.merge(nodeMemory, group.memory);
+            DirectorySizes.mergeInto(nodeFileTypes, group.fileTypes);
+            nodeBytes += group.totalDiskSize + group.totalTransLogSize;
+            shards += group.indices.size();
+        }
+        writeFileTypes(null, nodeFileTypes, nodeBytes);
+        if (nodeMemory != null)
+            writeMemory(null, nodeMemory, shards);
+
+        Map<String, Object> record = record(TYPE_IO);
+        record.put("ioMode", io.mode.name().toLowerCase());
+        if (io.countBytes)
+            record.put("bytesRead", io.bytesRead.sum());
+        record.put("seconds", round(io.getSeconds()));
+        if (io.countBytes)
+            record.put("throughputMBps", round(io.getMegabytesPerSecond()));
+        record.put("throttledSeconds", round(io.throttledNanos.sum() / 1e9));
+        record.put("backoffSeconds", round(io.backoffNanos.sum() / 1e9));
+        writeRecord(record);
+        writeRunProfile(io.profile);
+        out.flush();
+    }
+
+    /**
+     * A phase record per phase that ran, then a timing record per slowest segment and per slowest field. cpuSeconds is
+     * absent for phases whose CPU time isn't measured.
+     */
+    private void writeRunProfile(RunProfile profile) throws IOException {
+        for (RunProfile.Phase phase : RunProfile.Phase.values()) {
+            if (profile.getCalls(phase) == 0)
+                continue;
+            Map<String, Object> record = record(TYPE_PHASE);
+            record.put("phase", phase.label);
+            record.put("calls", profile.getCalls(phase));
+            record.put("seconds", round(profile.getSeconds(phase)));
+            if (profile.getCpuSeconds(phase) >= 0)
+                record.put("cpuSeconds", round(profile.getCpuSeconds(phase)));
+            writeRecord(record);
+        }
+        for (RunProfile.Segment segment : profile.getSlowestSegments()) {
+            Map<String, Object> record = record(TYPE_TIMING);
+            record.put("index", segment.index);
+            record.put("shard", segment.shard);
+            record.put("segment", segment.segment);
+            record.put("docs", segment.docs);
+            record.put("diskBytes", segment.bytes);
+            record.put("seconds", round(segment.getSeconds()));
+            record.put("docsPerSecond", Math.round(segment.getDocsPerSecond()));
+            record.put("throughputMBps", round(segment.getBytesPerSecond() / (1024.0 * 1024.0)));
+            writeRecord(record);
+        }
+        for (RunProfile.Field field : profile.getSlowestFields()) {
+            Map<String, Object> record = record(TYPE_TIMING);
+            record.put("field", field.name);
+            record.put("segments", field.segments);
+            record.put("seconds", round(field.getSeconds()));
+            writeRecord(record);
+        }
+    }
+
+    @Override
+    public void startComparison(List<ReportComparison.Snapshot> snapshots) throws IOException {
+        for (ReportComparison.Snapshot snapshot : snapshots) {
+            Map<String, Object> record = record(TYPE_REPORT);
+            record.put("time", snapshot.time.toString());
+            record.put("path", snapshot.path);
+            record.put("diskBytes", snapshot.diskBytes);
+            writeRecord(record);
+        }
+        out.flush();
+    }
+
+    /**
+     * A field's bytes are its totalBytes, a group's and the node's their size on disk; drivers maps the fields driving
+     * a group's growth to their change in bytes. The per day rates are left out of comparisons taken at the same time.
+     */
+    @Override
+    public void writeDelta(ReportComparison.Delta delta) throws IOException {
+        Map<String, Object> record = record(TYPE_DELTA);
+        if (delta.group != null)
+            record.put("group", delta.group);
+        if (delta.field != null)
+            record.put("field", delta.field);
+        record.put("status", delta.getStatus());
+        record.put("reports", delta.getReports());
+        record.put("days", round(delta.getDays()));
+        record.put(delta.field != null ? "totalBytes" : "diskBytes", delta.getLastBytes());
+        record.put("deltaBytes", delta.getDeltaBytes());
+        if (delta.isOverTime())
+            record.put("bytesPerDay", Math.round(delta.getBytesPerDay()));
+        record.put("docs", delta.docs[delta.docs.length - 1]);
+        record.put("deltaDocs", delta.getDeltaDocs());
+        if (delta.isOverTime())
+            record.put("docsPerDay", Math.round(delta.getDocsPerDay()));
+        record.put("bytesPerDoc", round(delta.getLastBytesPerDoc()));
+        record.put("bytesPerDocChange", round(delta.getLastBytesPerDoc() - delta.getFirstBytesPerDoc()));
+        if (!delta.drivers.isEmpty()) {
+            Map<String, Long> drivers = new LinkedHashMap<>();
+            for (ReportComparison.Delta driver : delta.drivers)
+                drivers.put(driver.field, driver.getDeltaBytes());
+            record.put("drivers", drivers);
+        }
+        writeRecord(record);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    private static Map<String, Object> record(String type) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("type", type);
+        return record;
+    }
+
+    private static double round(double value) {
+        return Math.round(value * 10000) / 10000.0;
+    }
+
+    private static double percentage(long bytes, long total) {
+        return total > 0 ? Math.round((double) bytes / total * 10000) / 100.0 : 0;
+    }
+}
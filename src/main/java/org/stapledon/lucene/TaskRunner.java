@@ -0,0 +1,101 @@
+package org.stapledon.lucene;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+
+/**
+ * Runs independent analysis tasks, either inline on the calling thread or on a fork-join pool.
+ *
+ * Results are always returned in the order the tasks were supplied, so callers can merge them deterministically
+ * regardless of which thread completed first. Tasks may themselves call invokeAll; nested tasks are forked into the
+ * same pool and joined with work-stealing, so a shard task waiting on its segment tasks never starves the pool.
+ */
+class TaskRunner implements AutoCloseable {
+    private final ForkJoinPool pool;
+
+    TaskRunner(int threads) {
+        this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    int getParallelism() {
+        return pool == null ? 1 : pool.getParallelism();
+    }
+
+    <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = new ArrayList<>(tasks.size());
+        if (pool == null) {
+            for (Callable<T> task : tasks)
+                results.add(call(task));
+            return results;
+        }
+        if (ForkJoinTask.getPool() != pool)
+            return pool.invoke(ForkJoinTask.adapt(() -> invokeAll(tasks)));
+
+        List<ForkJoinTask<T>> forked = new ArrayList<>(tasks.size());
+        for (Callable<T> task : tasks)
+            forked.add(ForkJoinTask.adapt(task));
+        ForkJoinTask.invokeAll(forked);
+        for (ForkJoinTask<T> task : forked)
+            results.add(task.join());
+        return results;
+    }
+
+    /**
+     * Start the first inFlight tasks without waiting for them, and return their results in task order. Taking a result
+     * starts the next task, so no more than inFlight tasks are ever started but not yet taken, however far the
+     * finished tasks run ahead of the caller. Without a pool, each task runs on the calling thread when its result is
+     * taken.
+     */
+    <T> Iterator<T> submit(List<Callable<T>> tasks, int inFlight) {
+        Iterator<Callable<T>> pending = tasks.iterator();
+        Deque<Supplier<T>> started = new ArrayDeque<>();
+        while (started.size() < Math.max(inFlight, 1) && pending.hasNext())
+            started.add(start(pending.next()));
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return !started.isEmpty();
+            }
+
+            @Override
+            public T next() {
+                if (started.isEmpty())
+                    throw new NoSuchElementException();
+                Supplier<T> result = started.remove();
+                if (pending.hasNext())
+                    started.add(start(pending.next()));
+                return result.get();
+            }
+        };
+    }
+
+    private <T> Supplier<T> start(Callable<T> task) {
+        if (pool == null)
+            return () -> call(task);
+        return pool.submit(task)::join;
+    }
+
+    private static <T> T call(Callable<T> task) {
+        try {
+            return task.call();
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null)
+            pool.shutdown();
+    }
+}
@@ -0,0 +1,189 @@
+package org.stapledon.lucene;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Streaming profile of a field's terms dictionary: distinct terms, the spread of term lengths and document
+ * frequencies, and the prefixes shared by the most terms.
+ *
+ * A segment's terms are read once, in order, and only sketches are kept, so the memory used doesn't grow with the
+ * number of terms. Distinct terms are counted with a HyperLogLog and prefix counts with a count-min sketch; both
+ * merge across segments and shards, where the same term or prefix appears in many of them.
+ */
+class TermsProfile {
+    // Prefixes are the first bytes of each term
+    static final int PREFIX_LENGTH = 4;
+    static final int TOP_PREFIXES = 10;
+
+    static final String[] LENGTH_LABELS = {"0-1", "2", "3-4", "5-8", "9-16", "17-32", "33-64", "65-128", "129+"};
+    static final String[] DOC_FREQ_LABELS = {"1", "2-9", "10-99", "100-999", "1000-9999", "10000-99999", "100000+"};
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    // Terms in each segment, summed; a term in several segments is counted in each
+    long terms;
+    long termBytes;
+    final long[] lengthCounts = new long[LENGTH_LABELS.length];
+    final long[] docFreqCounts = new long[DOC_FREQ_LABELS.length];
+    final HyperLogLog unique = new HyperLogLog();
+    final CountMinSketch prefixCounts = new CountMinSketch();
+    // Candidates for the heaviest prefixes, keyed by the prefix bytes as ISO-8859-1 so any bytes round-trip
+    Map<String, Long> topPrefixes = new LinkedHashMap<>();
+
+    /**
+     * Profile the terms of one field of a segment
+     */
+    static TermsProfile profile(Terms terms) throws IOException {
+        TermsProfile profile = new TermsProfile();
+        TermsEnum termsEnum = terms.iterator();
+        // Terms arrive sorted, so the terms sharing a prefix are consecutive and counted exactly within the segment
+        String prefix = null;
+        long prefixTerms = 0;
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+            profile.terms++;
+            profile.termBytes += term.length;
+            profile.lengthCounts[lengthBucket(term.length)]++;
+            profile.docFreqCounts[docFreqBucket(termsEnum.docFreq())]++;
+            profile.unique.offer(HASH.hashBytes(term.bytes, term.offset, term.length).asLong());
+
+            String termPrefix = new String(term.bytes, term.offset, Math.min(term.length, PREFIX_LENGTH), StandardCharsets.ISO_8859_1);
+            if (!termPrefix.equals(prefix)) {
+                profile.addPrefix(prefix, prefixTerms);
+                prefix = termPrefix;
+                prefixTerms = 0;
+            }
+            prefixTerms++;
+        }
+        profile.addPrefix(prefix, prefixTerms);
+        profile.trimPrefixes();
+        return profile;
+    }
+
+    /**
+     * Add another profile of the same field; either may be null
+     */
+    static TermsProfile merge(TermsProfile into, TermsProfile source) {
+        if (source == null)
+            return into;
+        TermsProfile target = into != null ? into : new TermsProfile();
+        target.terms += source.terms;
+        target.termBytes += source.termBytes;
+        for (int i = 0; i < target.lengthCounts.length; i++)
+            target.lengthCounts[i] += source.lengthCounts[i];
+        for (int i = 0; i < target.docFreqCounts.length; i++)
+            target.docFreqCounts[i] += source.docFreqCounts[i];
+        target.unique.merge(source.unique);
+        target.prefixCounts.merge(source.prefixCounts);
+        // The candidates are those of both sides, re-counted from the merged sketch
+        for (String prefix : source.topPrefixes.keySet())
+            target.topPrefixes.put(prefix, 0L);
+        target.topPrefixes.replaceAll((prefix, count) -> target.estimatePrefix(prefix));
+        target.trimPrefixes();
+        return target;
+    }
+
+    /**
+     * @return Estimated number of distinct terms; see HyperLogLog.STANDARD_ERROR
+     */
+    long uniqueTerms() {
+        return unique.estimate();
+    }
+
+    /**
+     * @return Share of the terms found in a single document, typical of IDs that are never searched
+     */
+    double singletonShare() {
+        return terms > 0 ? (double) docFreqCounts[0] / terms : 0.0;
+    }
+
+    /**
+     * @return The heaviest prefixes, printable, with their estimated number of terms
+     */
+    Map<String, Long> getTopPrefixes() {
+        Map<String, Long> printable = new LinkedHashMap<>();
+        topPrefixes.forEach((prefix, count) -> printable.put(new String(prefix.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8), count));
+        return printable;
+    }
+
+    static int lengthBucket(int length) {
+        return length <= 1 ? 0 : Math.min(Integer.SIZE - Integer.numberOfLeadingZeros(length - 1), LENGTH_LABELS.length - 1);
+    }
+
+    static int docFreqBucket(int docFreq) {
+        if (docFreq <= 1)
+            return 0;
+        // 2-9 is bucket 1, 10-99 bucket 2, and so on by number of digits
+        return Math.min((int) Math.log10(docFreq) + 1, DOC_FREQ_LABELS.length - 1);
+    }
+
+    /**
+     * @return The non-empty buckets of a histogram, by label
+     */
+    static Map<String, Long> histogram(String[] labels, long[] counts) {
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0)
+                histogram.put(labels[i], counts[i]);
+        }
+        return histogram;
+    }
+
+    Map<String, Long> getLengthHistogram() {
+        return histogram(LENGTH_LABELS, lengthCounts);
+    }
+
+    Map<String, Long> getDocFreqHistogram() {
+        return histogram(DOC_FREQ_LABELS, docFreqCounts);
+    }
+
+    private void addPrefix(String prefix, long count) {
+        if (prefix == null || count == 0)
+            return;
+        HashCode hash = hashPrefix(prefix);
+        prefixCounts.add(hash1(hash), hash2(hash), count);
+        topPrefixes.merge(prefix, count, Long::sum);
+        if (topPrefixes.size() > 4 * TOP_PREFIXES)
+            trimPrefixes();
+    }
+
+    private long estimatePrefix(String prefix) {
+        HashCode hash = hashPrefix(prefix);
+        return prefixCounts.estimate(hash1(hash), hash2(hash));
+    }
+
+    // Keep the heaviest candidates, heaviest first; ties are broken by prefix so the result doesn't depend on order
+    private void trimPrefixes() {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(topPrefixes.entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue(Comparator.reverseOrder()).thenComparing(Map.Entry.comparingByKey()));
+        Map<String, Long> trimmed = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : entries.subList(0, Math.min(TOP_PREFIXES, entries.size())))
+            trimmed.put(entry.getKey(), entry.getValue());
+        topPrefixes = trimmed;
+    }
+
+    private static HashCode hashPrefix(String prefix) {
+        return HASH.hashBytes(prefix.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static long hash1(HashCode hash) {
+        return ByteBuffer.wrap(hash.asBytes()).getLong(0);
+    }
+
+    private static long hash2(HashCode hash) {
+        return ByteBuffer.wrap(hash.asBytes()).getLong(Long.BYTES);
+    }
+}
@@ -0,0 +1,47 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FilterDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RateLimiter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate at which Lucene reads from the wrapped directory, the read-side counterpart of Lucene's
+ * RateLimitedIndexOutput. Every input, clone and slice of the directory adds its reads to one count, and the read that
+ * takes the count past the limiter's pause check pauses for all of them, so the many short-lived clones Lucene reads
+ * postings and doc values through are limited too, and all of the analysis threads together stay under the limit.
+ */
+class ThrottledDirectory extends FilterDirectory {
+    private final RateLimiter rateLimiter;
+    private final IoStats stats;
+    private final ListeningIndexInput.Listener throttle = new Throttle();
+
+    ThrottledDirectory(Directory in, RateLimiter rateLimiter, IoStats stats) {
+        super(in);
+        this.rateLimiter = rateLimiter;
+        this.stats = stats;
+    }
+
+    @Override
+    public IndexInput openInput(String name, IOContext context) throws IOException {
+        return new ListeningIndexInput(in.openInput(name, context), throttle);
+    }
+
+    private class Throttle implements ListeningIndexInput.Listener {
+        private final AtomicLong bytesSinceLastPause = new AtomicLong();
+
+        @Override
+        public void onRead(long bytes) throws IOException {
+            if (bytesSinceLastPause.addAndGet(bytes) < rateLimiter.getMinPauseCheckBytes())
+                return;
+            // Whichever thread takes the count pauses for it
+            long pending = bytesSinceLastPause.getAndSet(0);
+            if (pending > 0)
+                stats.throttledNanos.add(rateLimiter.pause(pending));
+        }
+    }
+}
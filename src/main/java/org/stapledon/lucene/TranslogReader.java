@@ -0,0 +1,209 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads a shard's translog directory: the checkpoint of each generation and, where needed, its operations.
+ *
+ * Each generation's checkpoint records how many operations it holds, their size and their range of sequence numbers.
+ * Generations entirely below or above the Lucene commit's local checkpoint are counted from their checkpoint alone;
+ * only the generations that straddle it are read, one operation at a time and skipping over each operation's source,
+ * so a translog of any size is read in constant memory.
+ */
+class TranslogReader {
+    private static final Logger LOG = LoggerFactory.getLogger(TranslogReader.class);
+
+    // Key of the local checkpoint in the user data of the Lucene commit
+    static final String LOCAL_CHECKPOINT_KEY = "local_checkpoint";
+    static final String CHECKPOINT_FILE = "translog.ckp";
+    static final String CHECKPOINT_CODEC = "ckp";
+    static final String TRANSLOG_CODEC = "translog";
+    // Checkpoint version 3 adds trimmedAboveSeqNo; translog version 3 adds the primary term and a header checksum
+    static final int CHECKPOINT_VERSION_START = 2;
+    static final int CHECKPOINT_VERSION_CURRENT = 3;
+    static final int TRANSLOG_VERSION_START = 2;
+    static final int TRANSLOG_VERSION_CURRENT = 3;
+    // Operation types, the first byte of each operation; a no-op holds its sequence number straight after it
+    static final byte OP_NO_OP = 4;
+
+    // Replaying more than this at startup holds a shard's recovery too long
+    static final double MAX_REPLAY_SECONDS = 300;
+    // More generations than this suggest the generation threshold is too small
+    static final int MAX_GENERATIONS = 64;
+
+    /**
+     * The state of one generation as of its checkpoint
+     */
+    static class Checkpoint {
+        long offset;
+        int numOps;
+        long generation;
+        long minSeqNo;
+        long maxSeqNo;
+        long globalCheckpoint;
+        long minTranslogGeneration;
+    }
+
+    static String translogFile(long generation) {
+        return "translog-" + generation + ".tlog";
+    }
+
+    static String checkpointFile(long generation) {
+        return "translog-" + generation + ".ckp";
+    }
+
+    /**
+     * @return The local checkpoint stored with the Lucene commit, or -1 if the commit has none
+     */
+    static long localCheckpoint(Map<String, String> commitUserData) {
+        String value = commitUserData.get(LOCAL_CHECKPOINT_KEY);
+        return value != null ? Long.parseLong(value) : -1;
+    }
+
+    /**
+     * Read the translog of a shard whose Lucene commit holds every operation up to localCheckpoint
+     *
+     * @return The translog's statistics, or null if the directory has no translog checkpoint
+     */
+    static TranslogStats read(Directory directory, long localCheckpoint) throws IOException {
+        Set<String> files = new HashSet<>(Arrays.asList(directory.listAll()));
+        if (!files.contains(CHECKPOINT_FILE))
+            return null;
+        Checkpoint current = readCheckpoint(directory, CHECKPOINT_FILE);
+        TranslogStats stats = new TranslogStats();
+        stats.localCheckpoint = localCheckpoint;
+        stats.globalCheckpoint = current.globalCheckpoint;
+        for (long generation = current.minTranslogGeneration; generation <= current.generation; generation++) {
+            String translog = translogFile(generation);
+            if (!files.contains(translog))
+                continue;
+            // Every generation but the current one was sealed with a checkpoint of its own
+            Checkpoint checkpoint = current;
+            if (generation != current.generation) {
+                if (!files.contains(checkpointFile(generation))) {
+                    LOG.debug("No checkpoint for {}", translog);
+                    continue;
+                }
+                checkpoint = readCheckpoint(directory, checkpointFile(generation));
+            }
+            stats.generations++;
+            stats.operations += checkpoint.numOps;
+            stats.translogBytes += checkpoint.offset;
+            if (checkpoint.numOps == 0 || checkpoint.maxSeqNo <= localCheckpoint)
+                continue;
+            try (IndexInput in = directory.openInput(translog, IOContext.READONCE)) {
+                long headerLength = readHeader(in);
+                if (checkpoint.minSeqNo > localCheckpoint) {
+                    stats.uncommittedOperations += checkpoint.numOps;
+                    stats.uncommittedBytes += checkpoint.offset - headerLength;
+                } else
+                    readOperations(in, translog, checkpoint.offset, localCheckpoint, stats);
+            }
+        }
+        return stats;
+    }
+
+    static Checkpoint readCheckpoint(Directory directory, String name) throws IOException {
+        try (ChecksumIndexInput in = directory.openChecksumInput(name, IOContext.READONCE)) {
+            int version = CodecUtil.checkHeader(in, CHECKPOINT_CODEC, CHECKPOINT_VERSION_START, CHECKPOINT_VERSION_CURRENT);
+            Checkpoint checkpoint = new Checkpoint();
+            checkpoint.offset = in.readLong();
+            checkpoint.numOps = in.readInt();
+            checkpoint.generation = in.readLong();
+            checkpoint.minSeqNo = in.readLong();
+            checkpoint.maxSeqNo = in.readLong();
+            checkpoint.globalCheckpoint = in.readLong();
+            checkpoint.minTranslogGeneration = in.readLong();
+            if (version >= 3)
+                in.readLong(); // trimmedAboveSeqNo
+            CodecUtil.checkFooter(in);
+            return checkpoint;
+        }
+    }
+
+    /**
+     * Read past the header of a translog generation
+     *
+     * @return The length of the header
+     */
+    static long readHeader(IndexInput in) throws IOException {
+        int version = CodecUtil.checkHeader(in, TRANSLOG_CODEC, TRANSLOG_VERSION_START, TRANSLOG_VERSION_CURRENT);
+        int uuidLength = in.readInt();
+        in.seek(in.getFilePointer() + uuidLength);
+        if (version >= 3) {
+            in.readLong(); // primary term
+            in.readInt(); // header checksum
+        }
+        return in.getFilePointer();
+    }
+
+    /**
+     * Count the operations of a generation, up to the offset of its checkpoint, that are above the local checkpoint.
+     *
+     * Each operation is its size, then its type, its body and a checksum. The sequence number follows the type of a
+     * no-op; every other operation ends with its sequence number and primary term, so nothing else is decoded.
+     */
+    static void readOperations(IndexInput in, String name, long offset, long localCheckpoint, TranslogStats stats) throws IOException {
+        long end = Math.min(offset, in.length());
+        while (in.getFilePointer() + Integer.BYTES <= end) {
+            long start = in.getFilePointer();
+            int size = in.readInt();
+            // Type, sequence number and checksum at least
+            if (size < 1 + Long.BYTES + Integer.BYTES || start + Integer.BYTES + size > end) {
+                LOG.error("Translog {} has a corrupt operation at offset {}", name, start);
+                return;
+            }
+            long body = in.getFilePointer();
+            byte type = in.readByte();
+            if (type != OP_NO_OP)
+                in.seek(body + size - Integer.BYTES - 2 * Long.BYTES);
+            long seqNo = in.readLong();
+            if (seqNo > localCheckpoint) {
+                stats.uncommittedOperations++;
+                stats.uncommittedBytes += Integer.BYTES + size;
+            }
+            in.seek(body + size);
+        }
+    }
+
+    /**
+     * Estimate the replay time of the uncommitted operations, and add a warning to the statistics for each translog
+     * setting of the index that the translog shows to be misconfigured
+     *
+     * @param metadata The index's settings, or null to check Elasticsearch's defaults
+     * @param operationsPerSecond Rate at which operations are replayed at startup
+     */
+    static void checkSettings(TranslogStats stats, IndexMetadata metadata, double operationsPerSecond) {
+        long flushThreshold = metadata != null ? metadata.getTranslogFlushThresholdBytes() : IndexMetadata.DEFAULT_TRANSLOG_FLUSH_THRESHOLD_BYTES;
+        long generationThreshold = metadata != null ? metadata.getTranslogGenerationThresholdBytes() : IndexMetadata.DEFAULT_TRANSLOG_GENERATION_THRESHOLD_BYTES;
+        long retention = metadata != null ? metadata.translogRetentionBytes : -1;
+        stats.replaySeconds = operationsPerSecond > 0 ? stats.uncommittedOperations / operationsPerSecond : 0.0;
+        if (stats.uncommittedBytes > flushThreshold)
+            stats.warnings.add(String.format("%,d uncommitted bytes exceed flush_threshold_size of %,d bytes; flushes aren't keeping up", stats.uncommittedBytes, flushThreshold));
+        if (generationThreshold > flushThreshold)
+            stats.warnings.add(String.format("generation_threshold_size of %,d bytes is above flush_threshold_size of %,d bytes", generationThreshold, flushThreshold));
+        long bytesPerOperation = stats.getBytesPerOperation();
+        if (bytesPerOperation > 0 && operationsPerSecond > 0) {
+            double fullReplaySeconds = (double) flushThreshold / bytesPerOperation / operationsPerSecond;
+            if (fullReplaySeconds > MAX_REPLAY_SECONDS)
+                stats.warnings.add(String.format("flush_threshold_size of %,d bytes holds ~%,d operations of %,d bytes, ~%,.0fs to replay; lower it",
+                        flushThreshold, flushThreshold / bytesPerOperation, bytesPerOperation, fullReplaySeconds));
+        }
+        if (retention >= 0 && stats.getCommittedBytes() > retention)
+            stats.warnings.add(String.format("%,d bytes of committed operations retained, above retention.size of %,d bytes", stats.getCommittedBytes(), retention));
+        if (stats.generations > MAX_GENERATIONS)
+            stats.warnings.add(String.format("%,d generations; generation_threshold_size of %,d bytes may be too small", stats.generations, generationThreshold));
+    }
+}
@@ -0,0 +1,44 @@
+package org.stapledon.lucene;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What a shard's translog holds, from its checkpoints and the operations not yet committed to Lucene.
+ */
+class TranslogStats {
+    // Generations still on disk, the operations they hold and their size, as of their checkpoints
+    int generations;
+    long operations;
+    long translogBytes;
+    // Operations above the Lucene commit's local checkpoint, which a restart or recovery replays
+    long uncommittedOperations;
+    long uncommittedBytes;
+    // The commit's local checkpoint (-1 if it has none) and the shard's global checkpoint
+    long localCheckpoint = -1;
+    long globalCheckpoint = -1;
+    // Estimated time to replay the uncommitted operations at startup
+    double replaySeconds;
+    // Misconfigured or overgrown translog settings, in words
+    final List<String> warnings = new ArrayList<>();
+
+    /**
+     * @return Bytes of the translog besides the uncommitted operations, mostly operations already in the Lucene commit
+     */
+    long getCommittedBytes() {
+        return translogBytes - uncommittedBytes;
+    }
+
+    /**
+     * @return Average size of an operation, or 0 if there are none
+     */
+    long getBytesPerOperation() {
+        return operations > 0 ? translogBytes / operations : 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%,d generations, %,d operations, %,d bytes;  %,d uncommitted operations, %,d uncommitted bytes;  local checkpoint %,d, global checkpoint %,d",
+                generations, operations, translogBytes, uncommittedOperations, uncommittedBytes, localCheckpoint, globalCheckpoint);
+    }
+}
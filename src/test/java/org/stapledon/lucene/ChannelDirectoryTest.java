@@ -0,0 +1,83 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChannelDirectoryTest {
+
+    @Test
+    void readIndexTest(@TempDir Path path) throws IOException {
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(path), new IndexWriterConfig())) {
+            for (int i = 0; i < 5000; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+                doc.add(new StoredField("body", "document number " + i + " with some repeated text to store"));
+                writer.addDocument(doc);
+            }
+        }
+
+        for (IoMode mode : IoMode.values()) {
+            IoStats stats = new IoStats(mode);
+            try (Directory directory = mode.open(path, stats);
+                 DirectoryReader reader = DirectoryReader.open(directory)) {
+                assertEquals(5000, reader.numDocs());
+                assertEquals("document number 4321 with some repeated text to store", reader.document(4321).get("body"));
+                assertEquals("0", reader.document(0).get("id"));
+            }
+            assertTrue(stats.bytesRead.sum() > 0, mode.name());
+        }
+    }
+
+    @Test
+    void countPrimitiveReadsTest(@TempDir Path path) throws IOException {
+        try (Directory directory = FSDirectory.open(path);
+             IndexOutput out = directory.createOutput("values", IOContext.DEFAULT)) {
+            out.writeShort((short) 1);
+            out.writeInt(2);
+            out.writeLong(3);
+            out.writeVInt(300);
+            out.writeVLong(1L << 40);
+            out.writeZInt(-5);
+            out.writeString("text");
+            out.writeBytes(new byte[100], 100);
+        }
+
+        IoStats stats = new IoStats(IoMode.MMAP);
+        try (Directory directory = IoMode.MMAP.open(path, stats);
+             IndexInput in = directory.openInput("values", IOContext.DEFAULT)) {
+            IndexInput clone = in.clone();
+            assertEquals(1, clone.readShort());
+            assertEquals(2, clone.readInt());
+            assertEquals(3, clone.readLong());
+            assertEquals(300, clone.readVInt());
+            assertEquals(1L << 40, clone.readVLong());
+            assertEquals(-5, clone.readZInt());
+            assertEquals("text", clone.readString());
+            clone.skipBytes(100);
+            // Every byte is counted once, however it was read
+            assertEquals(in.length(), stats.bytesRead.sum());
+        }
+
+        // The default mode isn't wrapped unless bytes are counted
+        try (Directory directory = IoMode.AUTO.open(path, new IoStats(IoMode.AUTO, false))) {
+            assertFalse(directory instanceof CountingDirectory);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.stapledon.lucene;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressionWhatIfTest {
+    private static final String[] WORDS = {"login", "logout", "error", "warning", "user", "host", "session", "request"};
+
+    @Test
+    void measureTest() throws IOException {
+        List<byte[]> documents = documents(2000, new Random(0));
+        long uncompressed = documents.stream().mapToLong(d -> d.length).sum();
+
+        CompressionStats subject = CompressionWhatIf.measure(documents);
+
+        assertEquals(2000, subject.docs);
+        assertEquals(uncompressed, subject.uncompressedBytes);
+        for (int i = 0; i < CompressionWhatIf.CANDIDATES.size(); i++) {
+            assertTrue(subject.ratio(i) > 0.0 && subject.ratio(i) < 1.0, CompressionWhatIf.CANDIDATES.get(i).name);
+            assertTrue(subject.decompressNanos[i] > 0);
+            assertEquals(Math.round(1_000_000 * subject.ratio(i)), subject.projectedBytes(i, 1_000_000));
+        }
+        // DEFLATE at the default best_compression chunk size beats LZ4 at the default chunk size
+        assertTrue(subject.ratio(4) < subject.ratio(1));
+    }
+
+    @Test
+    void samplesTest() {
+        long mb = 1024 * 1024;
+        // The default budget is split between the largest segments
+        assertEquals(CompressionWhatIf.MAX_SAMPLES, CompressionWhatIf.samples(16 * mb));
+        assertEquals(4 * mb, CompressionWhatIf.sampleBytes(16 * mb));
+        // Every sample holds at least one of the largest chunks, even if the budget is smaller
+        assertEquals(960 * 1024, CompressionWhatIf.MIN_SAMPLE_BYTES);
+        assertEquals(1, CompressionWhatIf.samples(100 * 1024));
+        assertEquals(CompressionWhatIf.MIN_SAMPLE_BYTES, CompressionWhatIf.sampleBytes(100 * 1024));
+        assertEquals(2, CompressionWhatIf.samples(2 * mb));
+        assertEquals(mb, CompressionWhatIf.sampleBytes(2 * mb));
+    }
+
+    @Test
+    void mergeTest() throws IOException {
+        CompressionStats first = CompressionWhatIf.measure(documents(10, new Random(1)));
+        CompressionStats second = CompressionWhatIf.measure(documents(20, new Random(2)));
+        long compressed = first.compressedBytes[0] + second.compressedBytes[0];
+
+        CompressionStats merged = CompressionStats.merge(CompressionStats.merge(null, first), second);
+
+        assertEquals(30, merged.docs);
+        assertEquals(compressed, merged.compressedBytes[0]);
+        assertSame(merged, CompressionStats.merge(merged, null));
+    }
+
+    private static List<byte[]> documents(int count, Random random) {
+        List<byte[]> documents = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            StringBuilder document = new StringBuilder("{\"message\":\"");
+            for (int w = 0; w < 20; w++)
+                document.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            document.append("\",\"id\":").append(random.nextInt(100000)).append('}');
+            documents.add(document.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return documents;
+    }
+}
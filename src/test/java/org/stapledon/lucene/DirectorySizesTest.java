@@ -0,0 +1,80 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DirectorySizesTest {
+
+    @Test
+    void sizeTreeTest(@TempDir Path indices) throws IOException {
+        Path index = Files.createDirectories(indices.resolve("uuid").resolve("0").resolve("index"));
+        Path translog = Files.createDirectories(indices.resolve("uuid").resolve("0").resolve("translog"));
+        Files.write(translog.resolve("translog-1.tlog"), new byte[100]);
+        Files.write(translog.resolve("translog.ckp"), new byte[20]);
+        // Small segments are written as compound files
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(index), new IndexWriterConfig())) {
+            for (int i = 0; i < 100; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", Integer.toString(i), Field.Store.NO));
+                doc.add(new StoredField("body", "document " + i));
+                writer.addDocument(doc);
+            }
+        }
+
+        DirectorySizes sizes;
+        try (TaskRunner runner = new TaskRunner(2)) {
+            sizes = DirectorySizes.walk(runner, Collections.singletonList(indices));
+        }
+
+        long indexBytes;
+        long indexFiles;
+        try (Stream<Path> files = Files.list(index)) {
+            indexBytes = files.mapToLong(f -> f.toFile().length()).sum();
+        }
+        try (Stream<Path> files = Files.list(index)) {
+            indexFiles = files.count();
+        }
+        assertEquals(indexBytes, sizes.size(index));
+        assertEquals(indexFiles, sizes.files(index));
+        assertEquals(indexBytes + 120, sizes.size(indices.resolve("uuid")));
+        assertEquals(indexBytes + 120, sizes.total());
+
+        // The compound file's contents are counted by their own extensions, and the totals still add up
+        Map<String, DirectorySizes.FileStats> extensions = sizes.extensions(index);
+        assertTrue(extensions.containsKey("cfe"));
+        assertTrue(extensions.get("fdt").bytes > 0);
+        assertTrue(extensions.get("tim").bytes > 0);
+        assertEquals(1, extensions.get("segments").files);
+        assertEquals(indexBytes, extensions.values().stream().mapToLong(f -> f.bytes).sum());
+
+        Map<String, DirectorySizes.FileStats> shard = sizes.extensions(indices.resolve("uuid").resolve("0"));
+        assertEquals(100, shard.get("tlog").bytes);
+        assertEquals(20, shard.get("ckp").bytes);
+        assertEquals(0, sizes.size(indices.resolve("missing")));
+    }
+
+    @Test
+    void extensionTest() {
+        assertEquals("fdt", DirectorySizes.extension("_0.fdt"));
+        assertEquals("doc", DirectorySizes.extension("_0_Lucene84_0.doc"));
+        assertEquals("segments", DirectorySizes.extension("segments_5"));
+        assertEquals("tlog", DirectorySizes.extension("translog-12.tlog"));
+        assertEquals(DirectorySizes.NO_EXTENSION, DirectorySizes.extension("README"));
+    }
+}
@@ -0,0 +1,87 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.util.FixedBitSet;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DocumentSamplerTest {
+
+    @Test
+    void smallSegmentReturnsAllLiveDocsTest() {
+        FixedBitSet liveDocs = new FixedBitSet(10);
+        liveDocs.set(0, 10);
+        liveDocs.clear(3);
+
+        int[] docs = DocumentSampler.sample(10, liveDocs, 100, new Random(0));
+
+        assertArrayEquals(new int[]{0, 1, 2, 4, 5, 6, 7, 8, 9}, docs);
+    }
+
+    @Test
+    void sampleSkipsDeletedDocsTest() {
+        FixedBitSet liveDocs = new FixedBitSet(10_000);
+        for (int i = 0; i < 10_000; i += 2)
+            liveDocs.set(i);
+
+        int[] docs = DocumentSampler.sample(10_000, liveDocs, 500, new Random(0));
+
+        assertEquals(500, docs.length);
+        assertTrue(Arrays.stream(docs).allMatch(liveDocs::get));
+        assertEquals(500, Arrays.stream(docs).distinct().count());
+    }
+
+    @Test
+    void sampleCoversWholeSegmentTest() {
+        int[] docs = DocumentSampler.sample(100_000, null, 100, new Random(42));
+
+        // One document from each stratum of 1,000 doc IDs
+        int[] sorted = docs.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < sorted.length; i++)
+            assertEquals(i, sorted[i] / 1_000);
+    }
+
+    @Test
+    void skewedDeletesEstimateTest() {
+        // The first half of the segment is almost all deleted, and its documents are ten times larger
+        int maxDoc = 100_000;
+        FixedBitSet liveDocs = new FixedBitSet(maxDoc);
+        long total = 0;
+        for (int doc = 0; doc < maxDoc; doc++) {
+            if (doc >= maxDoc / 2 || doc % 50 == 0) {
+                liveDocs.set(doc);
+                total += size(doc);
+            }
+        }
+        int numLive = liveDocs.cardinality();
+
+        double sum = 0;
+        int[] docs = DocumentSampler.sample(maxDoc, liveDocs, 1_000, new Random(7));
+        for (int doc : docs)
+            sum += size(doc);
+
+        assertEquals(1_000, docs.length);
+        assertTrue(Arrays.stream(docs).allMatch(liveDocs::get));
+        // Strata of equal doc-ID width would put half the picks in the first half, overestimating by ~5x
+        assertEquals(total, DocumentSampler.estimateTotal(sum, docs.length, numLive), total * 0.02);
+    }
+
+    private static int size(int doc) {
+        return doc < 50_000 ? 1_000 : 100;
+    }
+
+    @Test
+    void estimateTest() {
+        // 10 documents of 5 bytes each out of a population of 1,000
+        assertEquals(5_000, DocumentSampler.estimateTotal(50, 10, 1_000));
+        assertEquals(0.0, DocumentSampler.estimateVariance(50, 250, 10, 1_000));
+
+        // Varying sizes have a non-zero error, which disappears once everything is visited
+        assertTrue(DocumentSampler.estimateVariance(50, 400, 10, 1_000) > 0);
+        assertEquals(0.0, DocumentSampler.estimateVariance(50, 400, 10, 10));
+    }
+}
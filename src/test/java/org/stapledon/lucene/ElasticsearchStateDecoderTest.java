@@ -1,7 +1,11 @@
 package org.stapledon.lucene;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -56,4 +60,27 @@ void generateGroupingsSingleDigitTidTest() {
         assertEquals(1, subject.INDEX_GROUPS.size());
         assertEquals("entity_stats_0", subject.INDEX_GROUPS.keySet().stream().findFirst().get());
     }
-}
\ No newline at end of file
+
+    @Test
+    void generateGroupingsMultipleShardsTest(@TempDir Path node1, @TempDir Path node2) throws IOException {
+        ElasticsearchStateDecoder subject = new ElasticsearchStateDecoder();
+        subject.indexHome = node1.resolve("_state").toString();
+        subject.addDataPath(node2.toString());
+
+        // Shards 0 and 2 are on the first data path, shard 1 on the second, and shard 3 is on another node
+        Files.createDirectories(node1.resolve("indices/uuid1/0"));
+        Files.createDirectories(node2.resolve("indices/uuid1/1"));
+        Files.createDirectories(node1.resolve("indices/uuid1/2"));
+        subject.indexMappings.put("entity_stats_0_2020-12-11_00_48_35", "uuid1");
+        subject.indexShards.put("entity_stats_0_2020-12-11_00_48_35", 4);
+
+        subject.generateGroupings();
+
+        IndexGroup group = subject.INDEX_GROUPS.get("entity_stats_0");
+        assertEquals(3, group.indices.size());
+        assertEquals(0, group.indices.get(0).getShardId());
+        assertEquals(1, group.indices.get(1).getShardId());
+        assertEquals(2, group.indices.get(2).getShardId());
+        assertTrue(group.indices.get(1).getIndexDirectoryName().startsWith(node2.resolve("indices").toString()));
+    }
+}
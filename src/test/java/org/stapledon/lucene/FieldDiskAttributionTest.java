@@ -0,0 +1,155 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.BinaryDocValuesField;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.SortedNumericDocValuesField;
+import org.apache.lucene.document.SortedSetDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FieldDiskAttributionTest {
+
+    @Test
+    void shareByWeightTest() {
+        Map<String, Double> weights = new TreeMap<>();
+        weights.put("a", 3.0);
+        weights.put("b", 1.0);
+        Map<String, Long> shares = new TreeMap<>();
+
+        FieldDiskAttribution.share(1_000, weights, shares::put);
+
+        assertEquals(750L, shares.get("a"));
+        assertEquals(250L, shares.get("b"));
+    }
+
+    @Test
+    void shareEvenlyWithoutWeightsTest() {
+        Map<String, Double> weights = new TreeMap<>();
+        weights.put("a", 0.0);
+        weights.put("b", 0.0);
+        Map<String, Long> shares = new TreeMap<>();
+
+        FieldDiskAttribution.share(100, weights, shares::put);
+
+        assertEquals(50L, shares.get("a"));
+        assertEquals(50L, shares.get("b"));
+    }
+
+    @Test
+    void attributeSegmentFilesTest() throws IOException {
+        FieldType vectors = new FieldType(TextField.TYPE_NOT_STORED);
+        vectors.setStoreTermVectors(true);
+        vectors.setStoreTermVectorPositions(true);
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setUseCompoundFile(false).setMergePolicy(NoMergePolicy.INSTANCE))) {
+                for (int i = 0; i < 3000; i++) {
+                    Document doc = new Document();
+                    doc.add(new TextField("message", "event " + i + " from host " + (i % 10), Field.Store.NO));
+                    doc.add(new Field("body", "some text with vectors " + (i % 7), vectors));
+                    doc.add(new StringField("host", "host" + (i % 10), Field.Store.NO));
+                    doc.add(new SortedDocValuesField("host", new BytesRef("host" + (i % 10))));
+                    doc.add(new NumericDocValuesField("bytes", i * 1000L));
+                    doc.add(new SortedNumericDocValuesField("latency", i % 100));
+                    doc.add(new SortedNumericDocValuesField("latency", i % 300));
+                    doc.add(new SortedSetDocValuesField("tags", new BytesRef("tag" + (i % 5))));
+                    if (i % 3 == 0)
+                        doc.add(new BinaryDocValuesField("raw", new BytesRef("raw value " + i)));
+                    doc.add(new LongPoint("timestamp", 1_600_000_000_000L + i));
+                    doc.add(new IntPoint("status", i % 5));
+                    writer.addDocument(doc);
+                }
+            }
+
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReader leaf = FilterLeafReader.unwrap(reader.leaves().get(0).reader());
+                Map<String, Long> fileSizes = SegmentFiles.sizesByExtension(leaf);
+                PartialStats stats = new PartialStats();
+                leaf.getFieldInfos().forEach(field -> stats.field(field.name, field.getIndexOptions()));
+
+                FieldDiskAttribution.attribute(leaf, fileSizes, stats);
+
+                // Each structure's files are shared out whole, give or take rounding per field
+                assertShared(stats, fileSizes, f -> f.termsBytes, FieldDiskAttribution.TERMS_DICTIONARY_EXTENSIONS);
+                assertShared(stats, fileSizes, f -> f.docValuesBytes, FieldDiskAttribution.DOC_VALUES_EXTENSIONS);
+                assertShared(stats, fileSizes, f -> f.pointsBytes, FieldDiskAttribution.POINTS_EXTENSIONS);
+                assertShared(stats, fileSizes, f -> f.normsBytes, FieldDiskAttribution.NORMS_EXTENSIONS);
+                assertShared(stats, fileSizes, f -> f.termVectorsBytes, FieldDiskAttribution.TERM_VECTORS_EXTENSIONS);
+                assertShared(stats, fileSizes, f -> f.postingsBytes, FieldDiskAttribution.DOCS_EXTENSIONS,
+                        FieldDiskAttribution.POSITIONS_EXTENSIONS, FieldDiskAttribution.PAYLOADS_EXTENSIONS);
+                assertTrue(stats.fields.get("bytes").docValuesBytes > 0);
+                assertTrue(stats.fields.get("raw").docValuesBytes > 0);
+                assertEquals(0, stats.fields.get("host").pointsBytes);
+                assertTrue(stats.fields.get("body").termVectorsBytes > 0);
+            }
+        }
+    }
+
+    private static void assertShared(PartialStats stats, Map<String, Long> fileSizes, ToLongFunction<FieldStatsHolder> bytes, String[]... extensions) {
+        long total = 0;
+        for (String[] extension : extensions)
+            total += SegmentFiles.sum(fileSizes, extension);
+        assertTrue(total > 0);
+        long shared = stats.fields.values().stream().mapToLong(bytes).sum();
+        assertEquals(total, shared, stats.fields.size());
+    }
+
+    @Test
+    void estimateTermsDictionaryTest() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setUseCompoundFile(false).setMergePolicy(NoMergePolicy.INSTANCE))) {
+                for (int i = 0; i < 2000; i++) {
+                    Document doc = new Document();
+                    doc.add(new StringField("id", "document-" + i, Field.Store.NO));
+                    doc.add(new StringField("status", i % 2 == 0 ? "ok" : "failed", Field.Store.NO));
+                    writer.addDocument(doc);
+                }
+            }
+
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReader leaf = FilterLeafReader.unwrap(reader.leaves().get(0).reader());
+                Map<String, Long> fileSizes = SegmentFiles.sizesByExtension(leaf);
+                Map<String, Long> estimates = FieldDiskAttribution.termsDictionaryBytes(leaf, fileSizes);
+
+                // The terms files are shared out whole, mostly to the field with many long terms
+                assertEquals(SegmentFiles.sum(fileSizes, FieldDiskAttribution.TERMS_DICTIONARY_EXTENSIONS),
+                        estimates.get("id") + estimates.get("status"));
+                assertTrue(estimates.get("id") > 100 * estimates.get("status"), estimates.toString());
+                assertEquals(2000, FieldDiskAttribution.termCount(leaf.terms("id")));
+                assertEquals(4.0, FieldDiskAttribution.averageTermLength(leaf.terms("status")), 1e-9);
+            }
+        }
+    }
+
+    @Test
+    void shareNothingTest() {
+        Map<String, Long> shares = new TreeMap<>();
+
+        FieldDiskAttribution.share(100, new TreeMap<>(), shares::put);
+        FieldDiskAttribution.share(0, Map.of("a", 1.0), shares::put);
+
+        assertTrue(shares.isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package org.stapledon.lucene;
+
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IndexMetadataTest {
+
+    @Test
+    void parseFlatSettingsTest() throws IOException {
+        XContentBuilder builder = XContentFactory.smileBuilder();
+        builder.startObject().startObject("reporting_tags_adm")
+                .field("version", 3)
+                .startArray("mappings").value(new byte[64]).endArray()
+                .startObject("settings")
+                .field("index.analysis.analyzer.typeahead-analyzer.filter", new String[]{"typeahead-ngrams", "lowercase"})
+                .field("index.creation_date", "1603912611994")
+                .field("index.uuid", "IJdq3RdBSSKR2SRitZmBcw")
+                .field("index.provided_name", "reporting_tags_adm")
+                .field("index.number_of_shards", "3")
+                .endObject()
+                .startObject("in_sync_allocations").startArray("0").value("siIOtwSxTIaakTP4k9N6Ng").endArray().endObject()
+                .field("state", "close")
+                .endObject().endObject();
+
+        IndexMetadata subject = IndexMetadata.parse(bytes(builder));
+
+        assertEquals("reporting_tags_adm", subject.name);
+        assertEquals("IJdq3RdBSSKR2SRitZmBcw", subject.uuid);
+        assertEquals(3, subject.numberOfShards);
+        assertEquals(1603912611994L, subject.creationDate);
+        assertEquals("close", subject.state);
+    }
+
+    @Test
+    void parseNestedSettingsTest() throws IOException {
+        XContentBuilder builder = XContentFactory.smileBuilder();
+        builder.startObject().startObject("entity_stats_0")
+                .startObject("settings").startObject("index")
+                .field("uuid", "abc")
+                .field("provided_name", "entity_stats_0")
+                .startObject("translog").field("flush_threshold_size", "1gb").endObject()
+                .endObject().endObject()
+                .endObject().endObject();
+
+        IndexMetadata subject = IndexMetadata.parse(bytes(builder));
+
+        assertEquals("entity_stats_0", subject.name);
+        assertEquals("abc", subject.uuid);
+        assertEquals(1, subject.numberOfShards);
+        assertEquals(-1, subject.creationDate);
+        assertNull(subject.state);
+        assertEquals(1024L * 1024 * 1024, subject.getTranslogFlushThresholdBytes());
+        assertEquals(IndexMetadata.DEFAULT_TRANSLOG_GENERATION_THRESHOLD_BYTES, subject.getTranslogGenerationThresholdBytes());
+        assertEquals(-1, subject.translogRetentionBytes);
+    }
+
+    @Test
+    void parseBytesTest() {
+        assertEquals(512L * 1024 * 1024, IndexMetadata.parseBytes("512mb"));
+        assertEquals(1536L * 1024 * 1024, IndexMetadata.parseBytes("1.5gb"));
+        assertEquals(2048, IndexMetadata.parseBytes("2KB"));
+        assertEquals(100, IndexMetadata.parseBytes("100b"));
+        assertEquals(100, IndexMetadata.parseBytes("100"));
+        assertEquals(-1, IndexMetadata.parseBytes("-1"));
+        assertEquals(-1, IndexMetadata.parseBytes("lots"));
+    }
+
+    @Test
+    void parseWithoutSettingsTest() throws IOException {
+        XContentBuilder builder = XContentFactory.smileBuilder();
+        builder.startObject().startObject("entity_stats_0").field("version", 3).endObject().endObject();
+
+        assertNull(IndexMetadata.parse(bytes(builder)));
+    }
+
+    private static byte[] bytes(XContentBuilder builder) {
+        builder.close();
+        return ((ByteArrayOutputStream) builder.getOutputStream()).toByteArray();
+    }
+}
@@ -0,0 +1,33 @@
+package org.stapledon.lucene;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoadGovernorTest {
+
+    @Test
+    void waitsWhileLoadIsHighTest() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+        IoStats stats = new IoStats(IoMode.AUTO);
+        // Load is high for the first check only
+        LoadGovernor governor = new LoadGovernor(4.0, 1.0, stats, () -> checks.incrementAndGet() == 1 ? 8.0 : 1.0);
+
+        assertEquals("done", governor.govern(() -> "done").call());
+        assertEquals(2, checks.get());
+        assertTrue(stats.backoffNanos.sum() > 0);
+    }
+
+    @Test
+    void noLimitsRunsTaskDirectlyTest() throws Exception {
+        IoStats stats = new IoStats(IoMode.AUTO);
+        LoadGovernor governor = new LoadGovernor(0, 1.0, stats, () -> 100.0);
+
+        assertEquals(42, governor.govern(() -> 42).call());
+        assertEquals(0, stats.backoffNanos.sum());
+        assertThrows(IllegalArgumentException.class, () -> new LoadGovernor(0, 0, stats));
+        assertThrows(IllegalArgumentException.class, () -> new LoadGovernor(0, 1.5, stats));
+    }
+}
@@ -1,8 +1,35 @@
 package org.stapledon.lucene;
 
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import org.apache.commons.cli.CommandLine;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -38,6 +65,163 @@ void runTestIncludeDoc() {
         subject.process();
     }
 
+    @Test
+    void parallelReportTest(@TempDir Path node) throws IOException {
+        Path state = createNode(node);
+
+        List<String> sequential = report(state, node.resolve("sequential.jsonl"), "--threads", "1");
+        List<String> parallel = report(state, node.resolve("parallel.jsonl"), "--threads", "4");
+
+        assertTrue(sequential.stream().anyMatch(r -> r.contains("\"type\":\"shard\"") && r.contains("\"segments\":10,")), String.join("\n", sequential));
+        assertTrue(sequential.stream().anyMatch(r -> r.contains("\"type\":\"field\"")));
+        assertEquals(sequential, parallel);
+    }
+
+    @Test
+    void sampleDocsTest(@TempDir Path node) throws IOException {
+        Path state = createNode(node);
+
+        List<String> withoutDocs = report(state, node.resolve("report.jsonl"));
+        List<String> withDocs = report(state, node.resolve("docs.jsonl"), "--doc");
+
+        // Sample values are only captured with --doc, one per field
+        assertTrue(withoutDocs.stream().noneMatch(r -> r.contains("\"sample\":")));
+        assertTrue(withDocs.stream().anyMatch(r -> r.contains("\"field\":\"_source\"") && r.contains("\"sample\":\"{\\\"message\\\":\\\"event ")), String.join("\n", withDocs));
+    }
+
+    @Test
+    void storedDeletedBytesTest(@TempDir Path node) throws IOException {
+        Path state = createNode(node);
+
+        List<String> records = report(state, node.resolve("report.jsonl"));
+
+        // Every ninth document of the logs index is deleted
+        long live = 0;
+        long deleted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (i % 9 == 0)
+                deleted += source(i).length();
+            else
+                live += source(i).length();
+        }
+        JsonObject field = records.stream().map(r -> new Gson().fromJson(r, JsonObject.class))
+                .filter(r -> r.has("field") && "logs_0".equals(r.get("group").getAsString()) && "_source".equals(r.get("field").getAsString()))
+                .findFirst().orElseThrow(AssertionError::new);
+        assertEquals(live, field.get("storedBytes").getAsLong());
+        assertEquals(deleted, field.get("storedDeletedBytes").getAsLong());
+        // _source has only stored fields, so its deleted bytes are the deleted documents' share of them on disk, taken
+        // per segment
+        long storedDiskBytes = field.get("storedDiskBytes").getAsLong();
+        assertEquals(storedDiskBytes, field.get("totalBytes").getAsLong());
+        assertEquals((double) storedDiskBytes * deleted / (live + deleted), field.get("deletedBytes").getAsLong(), storedDiskBytes * 0.01);
+    }
+
+    @Test
+    void termsStatsTotalsTest(@TempDir Path node) throws IOException {
+        Path state = createNode(node);
+
+        List<JsonObject> walked = fields(report(state, node.resolve("walked.jsonl")));
+        List<JsonObject> unwalked = fields(report(state, node.resolve("unwalked.jsonl"), "--termsStats", "none"));
+
+        // Skipping the blocktree walk drops its statistics, but not the field's share of the terms files or its total
+        JsonObject message = walked.stream().filter(r -> "message".equals(r.get("field").getAsString())).findFirst().orElseThrow(AssertionError::new);
+        assertTrue(message.get("termBytes").getAsLong() > 0);
+        assertTrue(message.get("termsDiskBytes").getAsLong() > 0);
+        assertEquals(walked.size(), unwalked.size());
+        for (int i = 0; i < walked.size(); i++) {
+            assertEquals(0, unwalked.get(i).get("termBytes").getAsLong());
+            for (String column : Arrays.asList("field", "termsDiskBytes", "totalBytes", "percentage"))
+                assertEquals(walked.get(i).get(column), unwalked.get(i).get(column), column);
+        }
+    }
+
+    @Test
+    void invalidSampleOptionsTest(@TempDir Path node) throws IOException {
+        Path state = createNode(node);
 
+        // Each is rejected before any segment is read, so no report is written
+        for (String[] args : Arrays.asList(new String[]{"--sampleSize", "-1"}, new String[]{"--sampleSize", "0"}, new String[]{"--targetError", "-0.1"},
+                new String[]{"--sourceProfile", "--sourceSample", "-5"})) {
+            Path output = node.resolve("report.jsonl");
+            List<String> arguments = new ArrayList<>(Arrays.asList("-d", state.toString(), "--format", "jsonl", "--output", output.toString(), "--sample"));
+            arguments.addAll(Arrays.asList(args));
+            new ElasticLuceneStats(StartupUtils.parseOptions(arguments.toArray(new String[0]))).process();
+            assertFalse(Files.exists(output), String.join(" ", args));
+        }
+    }
+
+    private static List<JsonObject> fields(List<String> records) {
+        Gson gson = new Gson();
+        return records.stream().map(r -> gson.fromJson(r, JsonObject.class)).filter(r -> "field".equals(r.get("type").getAsString())).collect(Collectors.toList());
+    }
 
-}
\ No newline at end of file
+    /**
+     * Create a node with two indices, each of one shard
+     *
+     * @return The node's "_state" directory
+     */
+    private static Path createNode(Path node) throws IOException {
+        Path state = node.resolve("_state");
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(state), new IndexWriterConfig())) {
+            writer.addDocument(stateEntry("logs_0-0001", "uuid1"));
+            writer.addDocument(stateEntry("metrics_0-0001", "uuid2"));
+        }
+        createIndex(node.resolve("indices/uuid1/0/index"), 1000);
+        createIndex(node.resolve("indices/uuid2/0/index"), 500);
+        return state;
+    }
+
+    /**
+     * Analyse the node into a JSON Lines report, and return its records without the ones that hold times
+     */
+    private static List<String> report(Path state, Path output, String... args) throws IOException {
+        List<String> arguments = new ArrayList<>(Arrays.asList("-d", state.toString(), "--format", "jsonl", "--output", output.toString()));
+        arguments.addAll(Arrays.asList(args));
+        CommandLine options = StartupUtils.parseOptions(arguments.toArray(new String[0]));
+        new ElasticLuceneStats(options).process();
+        return Files.readAllLines(output).stream()
+                .filter(r -> !r.contains("\"type\":\"report\"") && !r.contains("\"type\":\"io\"") && !r.contains("\"type\":\"phase\"") && !r.contains("\"type\":\"timing\""))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Index documents a hundred at a time into separate segments, and delete some from each
+     */
+    private static void createIndex(Path directory, int docs) throws IOException {
+        try (IndexWriter writer = new IndexWriter(FSDirectory.open(directory), new IndexWriterConfig().setMaxBufferedDocs(100).setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int i = 0; i < docs; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("_id", Integer.toString(i), Field.Store.YES));
+                doc.add(new TextField("message", "event " + i + " on host" + (i % 7), Field.Store.NO));
+                doc.add(new NumericDocValuesField("bytes", i * 31L));
+                doc.add(new StoredField("_source", new BytesRef(source(i))));
+                writer.addDocument(doc);
+            }
+            writer.commit();
+            for (int i = 0; i < docs; i += 9)
+                writer.deleteDocuments(new Term("_id", Integer.toString(i)));
+        }
+    }
+
+    private static String source(int i) {
+        return "{\"message\":\"event " + i + " on host" + (i % 7) + "\",\"bytes\":" + i * 31L + "}";
+    }
+
+    private static Document stateEntry(String name, String uuid) throws IOException {
+        XContentBuilder builder = XContentFactory.smileBuilder();
+        builder.startObject().startObject(name)
+                .field("version", 3)
+                .startObject("settings")
+                .field("index.creation_date", "1603912611994")
+                .field("index.uuid", uuid)
+                .field("index.provided_name", name)
+                .field("index.number_of_shards", "1")
+                .endObject()
+                .field("state", "open")
+                .endObject().endObject();
+        builder.close();
+        Document doc = new Document();
+        doc.add(new StoredField("data", new BytesRef(((ByteArrayOutputStream) builder.getOutputStream()).toByteArray())));
+        return doc;
+    }
+}
@@ -0,0 +1,82 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.codecs.blocktree.FieldReader;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FilterLeafReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MemoryEstimatorTest {
+
+    @Test
+    void measureSegmentTest() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                for (int i = 0; i < 1000; i++) {
+                    Document doc = new Document();
+                    doc.add(new TextField("message", "event " + i + " from host " + (i % 10), Field.Store.NO));
+                    doc.add(new StringField("host", "host" + (i % 10), Field.Store.NO));
+                    doc.add(new SortedDocValuesField("host", new BytesRef("host" + (i % 10))));
+                    writer.addDocument(doc);
+                }
+            }
+
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReader leaf = FilterLeafReader.unwrap(reader.leaves().get(0).reader());
+                assertTrue(MemoryEstimator.isText(leaf.getFieldInfos().fieldInfo("message")));
+                assertFalse(MemoryEstimator.isText(leaf.getFieldInfos().fieldInfo("host")));
+
+                PartialStats stats = new PartialStats();
+                for (String name : new String[]{"message", "host"}) {
+                    FieldReader terms = (FieldReader) leaf.terms(name);
+                    FieldStatsHolder field = stats.field(name, leaf.getFieldInfos().fieldInfo(name).getIndexOptions());
+                    field.accumulateTermsIndexHeapBytes(terms.ramBytesUsed());
+                    if (MemoryEstimator.isText(leaf.getFieldInfos().fieldInfo(name)))
+                        field.accumulateFielddataBytes(MemoryEstimator.fielddataBytes(terms, terms.getStats().totalTermBytes, leaf.maxDoc()));
+                }
+                MemoryStats memory = MemoryEstimator.measure((CodecReader) leaf, stats.fields.values(), Map.of("tip", 100L, "kdi", 20L));
+
+                assertEquals(1, memory.segments);
+                assertEquals(1000, memory.docs);
+                assertTrue(memory.postingsHeapBytes >= memory.termsIndexHeapBytes);
+                assertTrue(memory.getHeapBytes() > 0);
+                assertEquals(120, memory.getOffHeapBytes());
+                // The text field's terms (at least 1,000 distinct ones) plus its ordinals
+                assertTrue(memory.fielddataBytes > 4000, Long.toString(memory.fielddataBytes));
+                assertEquals(memory.fielddataBytes, stats.fields.get("message").fielddataBytes);
+            }
+        }
+    }
+
+    @Test
+    void mergeTest() {
+        MemoryStats segment = new MemoryStats();
+        segment.docs = 500_000;
+        segment.normsHeapBytes = 100;
+        segment.fielddataBytes = 10;
+
+        MemoryStats total = MemoryStats.merge(MemoryStats.merge(null, segment), segment);
+
+        assertNull(MemoryStats.merge(null, null));
+        assertEquals(1_000_000, total.docs);
+        assertEquals(200, total.getHeapBytes());
+        assertEquals(20, total.fielddataBytes);
+        assertEquals(200, total.getHeapBytesPerMillionDocs());
+    }
+}
@@ -0,0 +1,77 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MergeSimulatorTest {
+
+    @Test
+    void tinySegmentsAreMergedTest() throws IOException {
+        try (Directory directory = createSegments(30)) {
+            SegmentInfos infos = SegmentInfos.readLatestCommit(directory);
+            assertEquals(30, infos.size());
+
+            List<MergeSimulator.Merge> merges = MergeSimulator.findMerges(infos);
+
+            assertFalse(merges.isEmpty());
+            MergeSimulator.Merge merge = merges.get(0);
+            assertTrue(merge.segments.size() > 1);
+            assertTrue(merge.projectedBytes <= merge.sizeBytes);
+        }
+    }
+
+    @Test
+    void singleSegmentIsNotMergedTest() throws IOException {
+        try (Directory directory = createSegments(1)) {
+            assertTrue(MergeSimulator.findMerges(SegmentInfos.readLatestCommit(directory)).isEmpty());
+        }
+    }
+
+    @Test
+    void segmentProfileTest() throws IOException {
+        try (Directory directory = createSegments(2)) {
+            SegmentProfile subject = new SegmentProfile(SegmentInfos.readLatestCommit(directory).info(0));
+
+            assertEquals(10, subject.maxDoc);
+            assertEquals(1, subject.deletedDocs);
+            assertEquals(0.1, subject.getDeleteRatio(), 1e-9);
+            assertEquals("flush", subject.source);
+            assertEquals(0, subject.getTier());
+            assertTrue(subject.sizeBytes > 0);
+        }
+    }
+
+    /**
+     * Each segment holds 10 documents, one of which is deleted
+     */
+    private static Directory createSegments(int segments) throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int s = 0; s < segments; s++) {
+                for (int d = 0; d < 10; d++) {
+                    Document doc = new Document();
+                    doc.add(new StringField("id", s + "-" + d, Field.Store.YES));
+                    writer.addDocument(doc);
+                }
+                writer.flush();
+                writer.deleteDocuments(new Term("id", s + "-0"));
+                writer.commit();
+            }
+        }
+        return directory;
+    }
+}
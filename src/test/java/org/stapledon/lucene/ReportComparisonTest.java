@@ -0,0 +1,157 @@
+package org.stapledon.lucene;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportComparisonTest {
+
+    /**
+     * Keeps the deltas instead of writing them
+     */
+    private static class CollectingWriter implements ComparisonWriter {
+        final List<ReportComparison.Snapshot> snapshots = new ArrayList<>();
+        final List<ReportComparison.Delta> deltas = new ArrayList<>();
+
+        @Override
+        public void startComparison(List<ReportComparison.Snapshot> snapshots) {
+            this.snapshots.addAll(snapshots);
+        }
+
+        @Override
+        public void writeDelta(ReportComparison.Delta delta) {
+            deltas.add(delta);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        ReportComparison.Delta get(String group, String field) {
+            return deltas.stream().filter(d -> Objects.equals(d.group, group) && Objects.equals(d.field, field)).findFirst().orElse(null);
+        }
+    }
+
+    @Test
+    void compareOverTimeTest(@TempDir Path directory) throws IOException {
+        // Given out of order: the comparison orders them by report time
+        Path later = write(directory, "later.jsonl", "2024-01-11T00:00:00Z", 3000,
+                group("logs", 2000, 20),
+                field("logs", "message", 1500),
+                field("logs", "tags", 100),
+                group("metrics", 1000, 100),
+                field("metrics", "value", 800));
+        Path earlier = write(directory, "earlier.jsonl", "2024-01-01T00:00:00Z", 1500,
+                group("logs", 1000, 10),
+                field("logs", "host", 50),
+                field("logs", "message", 500),
+                "{\"type\":\"shard\",\"group\":\"logs\",\"index\":\"logs-1\"}",
+                group("old", 500, 5),
+                field("old", "x", 400));
+
+        CollectingWriter out = new CollectingWriter();
+        try (ReportComparison comparison = ReportComparison.open(Arrays.asList(later, earlier))) {
+            comparison.compare(out);
+        }
+
+        assertEquals(earlier, out.snapshots.get(0).file);
+        ReportComparison.Delta logs = out.get("logs", null);
+        assertEquals("changed", logs.getStatus());
+        assertEquals(10.0, logs.getDays(), 1e-9);
+        assertEquals(1000, logs.getDeltaBytes());
+        assertEquals(100.0, logs.getBytesPerDay(), 1e-9);
+        assertEquals(10, logs.getDeltaDocs());
+        assertEquals(100.0, logs.getFirstBytesPerDoc(), 1e-9);
+
+        // Fields are measured against their group's documents in each report
+        ReportComparison.Delta message = out.get("logs", "message");
+        assertEquals(1000, message.getDeltaBytes());
+        assertEquals(50.0, message.getFirstBytesPerDoc(), 1e-9);
+        assertEquals(75.0, message.getLastBytesPerDoc(), 1e-9);
+        assertEquals("removed", out.get("logs", "host").getStatus());
+        assertEquals("added", out.get("logs", "tags").getStatus());
+        // Drivers, largest change first, whichever the direction
+        assertEquals(Arrays.asList("message", "tags", "host"), fieldNames(logs.drivers));
+
+        assertEquals("added", out.get("metrics", null).getStatus());
+        assertEquals(-500, out.get("old", null).getDeltaBytes());
+        // Groups follow their fields, and the node comes last
+        assertTrue(out.deltas.indexOf(logs) > out.deltas.indexOf(message));
+        ReportComparison.Delta node = out.deltas.get(out.deltas.size() - 1);
+        assertNull(node.group);
+        assertEquals(1500, node.getDeltaBytes());
+        assertEquals(105, node.getDeltaDocs());
+    }
+
+    @Test
+    void fitGrowthAndCapDriversTest(@TempDir Path directory) throws IOException {
+        List<Path> reports = new ArrayList<>();
+        long[] bytes = {1000, 1600, 1900};
+        for (int i = 0; i < bytes.length; i++) {
+            List<String> records = new ArrayList<>();
+            records.add(group("logs", bytes[i], 10));
+            for (int f = 0; f < ReportComparison.TOP_DRIVERS + 3; f++)
+                records.add(field("logs", "field" + f, (f + 1) * 10L * i));
+            reports.add(write(directory, i + ".jsonl", "2024-01-0" + (1 + i) + "T00:00:00Z", bytes[i], records.toArray(new String[0])));
+        }
+
+        CollectingWriter out = new CollectingWriter();
+        try (ReportComparison comparison = ReportComparison.open(reports)) {
+            comparison.compare(out);
+        }
+
+        ReportComparison.Delta logs = out.get("logs", null);
+        assertEquals(3, logs.getReports());
+        // The least squares line through the three reports
+        assertEquals(450.0, logs.getBytesPerDay(), 1e-9);
+        assertEquals(ReportComparison.TOP_DRIVERS, logs.drivers.size());
+        assertEquals("field7", logs.drivers.get(0).field);
+    }
+
+    @Test
+    void rejectUnorderedReportTest(@TempDir Path directory) throws IOException {
+        Path first = write(directory, "a.jsonl", "2024-01-01T00:00:00Z", 0, group("b", 1, 1), group("a", 1, 1));
+        Path second = write(directory, "b.jsonl", "2024-01-02T00:00:00Z", 0, group("a", 1, 1));
+        try (ReportComparison comparison = ReportComparison.open(Arrays.asList(first, second))) {
+            assertThrows(IOException.class, () -> comparison.compare(new CollectingWriter()));
+        }
+        Path notReport = directory.resolve("c.jsonl");
+        Files.write(notReport, Arrays.asList(group("a", 1, 1)), StandardCharsets.UTF_8);
+        assertThrows(IOException.class, () -> ReportComparison.open(Arrays.asList(first, notReport)));
+    }
+
+    private static List<String> fieldNames(List<ReportComparison.Delta> deltas) {
+        List<String> names = new ArrayList<>();
+        for (ReportComparison.Delta delta : deltas)
+            names.add(delta.field);
+        return names;
+    }
+
+    private static Path write(Path directory, String name, String time, long diskBytes, String... records) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("{\"type\":\"report\",\"time\":\"" + time + "\",\"path\":\"/data/nodes/0/_state\",\"diskBytes\":" + diskBytes + "}");
+        lines.addAll(Arrays.asList(records));
+        lines.add("{\"type\":\"io\",\"bytesRead\":1}");
+        Path file = directory.resolve(name);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static String group(String group, long diskBytes, long docs) {
+        return "{\"type\":\"group\",\"group\":\"" + group + "\",\"docs\":" + docs + ",\"diskBytes\":" + diskBytes + ",\"totalBytes\":1}";
+    }
+
+    private static String field(String group, String field, long totalBytes) {
+        return "{\"type\":\"field\",\"group\":\"" + group + "\",\"field\":\"" + field + "\",\"totalBytes\":" + totalBytes + "}";
+    }
+}
@@ -0,0 +1,130 @@
+package org.stapledon.lucene;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.read.ListAppender;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.apache.lucene.index.IndexOptions;
+import org.junit.jupiter.api.Test;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReportWriterTest {
+
+    @Test
+    void consoleTest() throws IOException {
+        Logger logger = (Logger) LoggerFactory.getLogger(ElasticLuceneStats.class);
+        ListAppender<ILoggingEvent> appender = new ListAppender<>();
+        appender.start();
+        logger.addAppender(appender);
+        try {
+            write(new ConsoleReportWriter(false));
+        } finally {
+            logger.detachAppender(appender);
+        }
+        List<String> lines = appender.list.stream().map(ILoggingEvent::getFormattedMessage).collect(Collectors.toList());
+
+        // Each group as it is analysed, then the overview of every group
+        int group = lines.indexOf("Index Group: logs");
+        int statistics = lines.indexOf("Index Statistics: logs");
+        int overview = lines.indexOf("Index Groups");
+        assertTrue(group >= 0 && group < statistics && statistics < overview, String.join("\n", lines));
+        assertTrue(lines.get(group + 2).startsWith("  -> logs-1[0]; 1 segments, 900 docs;  100 deleted docs;  50,000 bytes"));
+        assertEquals(" - # of Documents    :             900", lines.get(statistics + 1));
+        assertEquals(" - Overall Percentage:           50.00 %", lines.get(statistics + 3));
+        assertTrue(lines.stream().anyMatch(l -> l.startsWith("  -> message") && l.contains("Stored=60,000")));
+        assertTrue(lines.get(overview + 2).matches("Index Group: logs +Percentage:  50\\.00%,  Documents: +900,  Size: +50,000"));
+        assertTrue(lines.stream().anyMatch(l -> l.startsWith("I/O AUTO")));
+    }
+
+    @Test
+    void jsonLinesTest() throws IOException {
+        StringWriter out = new StringWriter();
+        write(new JsonLinesReportWriter(out));
+        Gson gson = new Gson();
+        List<JsonObject> records = Arrays.stream(out.toString().split("\n")).map(l -> gson.fromJson(l, JsonObject.class)).collect(Collectors.toList());
+
+        assertEquals(Arrays.asList("report", "group", "shard", "files", "field", "io"),
+                records.stream().map(r -> r.get("type").getAsString()).distinct().collect(Collectors.toList()).subList(0, 6));
+        assertEquals("/data/nodes/0/_state", records.get(0).get("path").getAsString());
+        assertEquals(100_000, records.get(0).get("diskBytes").getAsLong());
+        JsonObject group = records.get(1);
+        assertEquals("logs", group.get("group").getAsString());
+        assertEquals(900, group.get("docs").getAsLong());
+        assertEquals(50.0, group.get("percentage").getAsDouble());
+        assertEquals(40_000, group.get("totalBytes").getAsLong());
+        JsonObject shard = records.get(2);
+        assertEquals("logs-1", shard.get("index").getAsString());
+        assertEquals(100, shard.get("deletedDocs").getAsLong());
+        JsonObject field = records.stream().filter(r -> r.has("field") && "message".equals(r.get("field").getAsString())).findFirst().orElseThrow(AssertionError::new);
+        assertEquals(60_000, field.get("storedBytes").getAsLong());
+        assertEquals(30_000, field.get("storedDiskBytes").getAsLong());
+        assertEquals(30_000, field.get("totalBytes").getAsLong());
+        assertEquals(75.0, field.get("percentage").getAsDouble());
+        assertFalse(field.has("sample"));
+    }
+
+    @Test
+    void csvTest() throws IOException {
+        StringWriter out = new StringWriter();
+        write(new CsvReportWriter(out));
+        List<String> rows = Arrays.asList(out.toString().split("\n"));
+        List<String> header = Arrays.asList(rows.get(0).split(","));
+
+        assertEquals(StructuredReportWriter.COLUMNS.size() - 1, header.size());
+        assertFalse(header.contains("sample"));
+        // Every row has a value or an empty cell for each column
+        for (String row : rows)
+            assertEquals(header.size(), row.split(",", -1).length, row);
+        List<String> group = Arrays.asList(rows.get(2).split(",", -1));
+        assertEquals("group", group.get(header.indexOf("type")));
+        assertEquals("logs", group.get(header.indexOf("group")));
+        assertEquals("900", group.get(header.indexOf("docs")));
+        assertEquals("50000", group.get(header.indexOf("diskBytes")));
+        assertEquals("", group.get(header.indexOf("field")));
+        List<String> field = rows.stream().filter(r -> r.startsWith("field,") && r.contains(",message,")).findFirst().map(r -> Arrays.asList(r.split(",", -1))).orElseThrow(AssertionError::new);
+        assertEquals("field", field.get(header.indexOf("type")));
+        assertEquals("60000", field.get(header.indexOf("storedBytes")));
+        assertEquals("30000", field.get(header.indexOf("totalBytes")));
+    }
+
+    /**
+     * Write a report of one group, with one shard and two fields, on a node of 100,000 bytes
+     */
+    private static void write(ReportWriter writer) throws IOException {
+        IndexShard shard = new IndexShard("/data/nodes/0/indices", "logs-1", "abc", 0);
+        shard.updateDocs(900, 100);
+        shard.updateDiskUsage(50_000, 2_000);
+        IndexGroup group = new IndexGroup("logs");
+        group.addIndex(shard);
+        group.updateDocs(900, 100);
+        group.updateDiskUsage(50_000, 2_000);
+        FieldStatsHolder message = new FieldStatsHolder("message", IndexOptions.DOCS_AND_FREQS_AND_POSITIONS);
+        message.storedFieldBytes = 60_000;
+        message.storedFieldDiskBytes = 30_000;
+        FieldStatsHolder host = new FieldStatsHolder("host", IndexOptions.DOCS);
+        host.postingsBytes = 10_000;
+        group.fields.put(message.name, message);
+        group.fields.put(host.name, host);
+        DirectorySizes.FileStats storedFields = new DirectorySizes.FileStats();
+        storedFields.add(2, 20_000);
+        group.addFileTypes(Collections.singletonMap("fdt", storedFields));
+        group.calculate();
+        group.fields.values().forEach(f -> f.calculate(group.totalCalculatedSize));
+
+        try (ReportWriter report = writer) {
+            report.start("/data/nodes/0/_state", 100_000);
+            report.writeGroup(group);
+            report.finish(Collections.singletonList(group), new IoStats(IoMode.AUTO, false));
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.stapledon.lucene;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RunProfileTest {
+
+    @Test
+    void lapPhasesTest() throws InterruptedException {
+        RunProfile profile = new RunProfile();
+        RunProfile.Stopwatch stopwatch = profile.stopwatch();
+        Thread.sleep(20);
+        stopwatch.lap(RunProfile.Phase.STORED_FIELDS);
+        // Time between laps that is reset isn't charged to any phase
+        Thread.sleep(50);
+        stopwatch.reset();
+        stopwatch.lap(RunProfile.Phase.FIELDS);
+        stopwatch.lap(RunProfile.Phase.FIELDS);
+
+        assertEquals(1, profile.getCalls(RunProfile.Phase.STORED_FIELDS));
+        assertEquals(2, profile.getCalls(RunProfile.Phase.FIELDS));
+        assertEquals(0, profile.getCalls(RunProfile.Phase.MEMORY));
+        assertTrue(profile.getSeconds(RunProfile.Phase.STORED_FIELDS) >= 0.02);
+        assertTrue(profile.getSeconds(RunProfile.Phase.FIELDS) < 0.05);
+        // Phases that fan out over the task pool have no CPU time
+        stopwatch.lap(RunProfile.Phase.WALK);
+        assertEquals(-1, profile.getCpuSeconds(RunProfile.Phase.WALK));
+    }
+
+    @Test
+    void slowestSegmentsAndFieldsTest() {
+        RunProfile profile = new RunProfile();
+        for (int i = 0; i < RunProfile.SLOWEST + 5; i++)
+            profile.addSegment("logs", 0, "_" + i, 1000, 2_000_000, (i + 1) * 1_000_000_000L);
+        profile.addCachedSegment(500);
+
+        List<RunProfile.Segment> segments = profile.getSlowestSegments();
+        assertEquals(RunProfile.SLOWEST, segments.size());
+        assertEquals("_14", segments.get(0).segment);
+        assertEquals("_5", segments.get(segments.size() - 1).segment);
+        assertEquals(1000 / 15.0, segments.get(0).getDocsPerSecond(), 1e-9);
+        assertEquals(RunProfile.SLOWEST + 5, profile.analysedSegments.sum());
+        assertEquals(1, profile.cachedSegments.sum());
+
+        // A field's time adds up over its segments
+        profile.addField("message", 300);
+        profile.addField("host", 200);
+        profile.addField("host", 200);
+        List<RunProfile.Field> fields = profile.getSlowestFields();
+        assertEquals("host", fields.get(0).name);
+        assertEquals(2, fields.get(0).segments);
+        assertEquals(400, fields.get(0).nanos);
+        assertEquals("message", fields.get(1).name);
+    }
+}
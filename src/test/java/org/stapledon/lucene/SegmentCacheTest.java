@@ -0,0 +1,154 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.SegmentCommitInfo;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentCacheTest {
+
+    @Test
+    void roundTripTest(@TempDir Path directory) throws IOException {
+        List<SegmentCommitInfo> segments = createSegments(directory.resolve("index"), 2);
+        SegmentCache subject = new SegmentCache(directory.resolve("cache"), "sample=false");
+        assertNull(subject.load(segments.get(0)));
+
+        subject.store(segments.get(0), stats());
+
+        // A new cache over the same directory, as on the next run
+        PartialStats loaded = new SegmentCache(directory.resolve("cache"), "sample=false").load(segments.get(0));
+        assertNotNull(loaded);
+        assertEquals(900, loaded.docs);
+        assertEquals(12_345, loaded.storedFieldsDiskBytes);
+        assertEquals(4_000, loaded.fields.get("message").storedFieldBytes);
+        assertEquals(IndexOptions.DOCS_AND_FREQS, loaded.fields.get("message").getIndexOptions());
+        assertNull(subject.load(segments.get(1)));
+    }
+
+    @Test
+    void invalidationTest(@TempDir Path directory) throws IOException {
+        List<SegmentCommitInfo> segments = createSegments(directory.resolve("index"), 1);
+        Path cache = directory.resolve("cache");
+        new SegmentCache(cache, "sample=false").store(segments.get(0), stats());
+
+        // Gathered with other options
+        assertNull(new SegmentCache(cache, "sample=true").load(segments.get(0)));
+
+        // Written by an older version
+        Path entry;
+        try (Stream<Path> entries = Files.list(cache)) {
+            entry = entries.findFirst().orElseThrow(AssertionError::new);
+        }
+        String json = new String(Files.readAllBytes(entry), StandardCharsets.UTF_8);
+        assertTrue(json.contains("\"formatVersion\":" + SegmentCache.FORMAT_VERSION));
+        Files.write(entry, json.replace("\"formatVersion\":" + SegmentCache.FORMAT_VERSION, "\"formatVersion\":" + (SegmentCache.FORMAT_VERSION - 1)).getBytes(StandardCharsets.UTF_8));
+        assertNull(new SegmentCache(cache, "sample=false").load(segments.get(0)));
+
+        // The segment picked up deletes since it was cached
+        new SegmentCache(cache, "sample=false").store(segments.get(0), stats());
+        try (Directory index = FSDirectory.open(directory.resolve("index"));
+             IndexWriter writer = new IndexWriter(index, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            writer.deleteDocuments(new Term("id", "0-0"));
+        }
+        SegmentCommitInfo deleted = readSegments(directory.resolve("index")).get(0);
+        assertEquals(segments.get(0).info.name, deleted.info.name);
+        assertNull(new SegmentCache(cache, "sample=false").load(deleted));
+    }
+
+    @Test
+    void pruneTest(@TempDir Path directory) throws IOException {
+        List<SegmentCommitInfo> segments = createSegments(directory.resolve("index"), 3);
+        SegmentCache subject = new SegmentCache(directory.resolve("cache"), "sample=false");
+        // As in a run, each segment is looked up before its statistics are stored
+        for (SegmentCommitInfo si : segments) {
+            assertNull(subject.load(si));
+            subject.store(si, stats());
+        }
+        subject.prune();
+        try (Stream<Path> entries = Files.list(directory.resolve("cache"))) {
+            assertEquals(3, entries.count());
+        }
+
+        // The next run only sees the first segment; the others have been merged away
+        subject.load(segments.get(0));
+        subject.prune();
+
+        try (Stream<Path> entries = Files.list(directory.resolve("cache"))) {
+            assertEquals(1, entries.count());
+        }
+        assertNotNull(subject.load(segments.get(0)));
+        assertNull(subject.load(segments.get(1)));
+    }
+
+    @Test
+    void memoryTest(@TempDir Path directory) throws IOException {
+        List<SegmentCommitInfo> segments = createSegments(directory.resolve("index"), 2);
+        SegmentCache subject = new SegmentCache("sample=false");
+        for (SegmentCommitInfo si : segments) {
+            assertNull(subject.load(si));
+            subject.store(si, stats());
+        }
+        subject.prune();
+
+        // Each load is a fresh copy
+        subject.load(segments.get(0)).docs = 0;
+        assertEquals(900, subject.load(segments.get(0)).docs);
+
+        subject.prune();
+        assertNotNull(subject.load(segments.get(0)));
+        assertNull(subject.load(segments.get(1)));
+    }
+
+    private static PartialStats stats() {
+        PartialStats stats = new PartialStats();
+        stats.docs = 900;
+        stats.deletedDocs = 100;
+        stats.storedFieldsDiskBytes = 12_345;
+        stats.field("message", IndexOptions.DOCS_AND_FREQS).storedFieldBytes = 4_000;
+        return stats;
+    }
+
+    /**
+     * Commit the given number of segments of ten documents each
+     */
+    private static List<SegmentCommitInfo> createSegments(Path directory, int segments) throws IOException {
+        try (Directory index = FSDirectory.open(directory);
+             IndexWriter writer = new IndexWriter(index, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+            for (int s = 0; s < segments; s++) {
+                for (int i = 0; i < 10; i++) {
+                    Document doc = new Document();
+                    doc.add(new StringField("id", s + "-" + i, Field.Store.NO));
+                    writer.addDocument(doc);
+                }
+                writer.commit();
+            }
+        }
+        return readSegments(directory);
+    }
+
+    private static List<SegmentCommitInfo> readSegments(Path directory) throws IOException {
+        try (Directory index = FSDirectory.open(directory)) {
+            return new ArrayList<>(SegmentInfos.readLatestCommit(index).asList());
+        }
+    }
+}
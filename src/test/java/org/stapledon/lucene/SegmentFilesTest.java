@@ -0,0 +1,115 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.SegmentReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SegmentFilesTest {
+
+    @Test
+    void sizesByExtensionTest() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory, false);
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReader leaf = reader.leaves().get(0).reader();
+                Map<String, Long> sizes = SegmentFiles.sizesByExtension(leaf);
+
+                // Every file of the segment, by extension, including the deletes
+                long total = 0;
+                for (String file : ((SegmentReader) leaf).getSegmentInfo().files())
+                    total += directory.fileLength(file);
+                assertEquals(total, sizes.values().stream().mapToLong(Long::longValue).sum());
+                assertTrue(sizes.keySet().containsAll(Arrays.asList("si", "fnm", "fdt", "fdx", "fdm", "tim", "doc", "pos", "liv")), sizes.toString());
+                assertTrue(SegmentFiles.sum(sizes, SegmentFiles.STORED_FIELDS_EXTENSIONS) > 0);
+            }
+        }
+    }
+
+    @Test
+    void sizesByExtensionCompoundTest() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory, true);
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReader leaf = reader.leaves().get(0).reader();
+                Map<String, Long> sizes = SegmentFiles.sizesByExtension(leaf);
+
+                // The compound file is broken down into its entries rather than reported whole
+                assertFalse(sizes.containsKey("cfs"));
+                assertFalse(sizes.containsKey("cfe"));
+                assertTrue(sizes.keySet().containsAll(Arrays.asList("si", "fnm", "fdt", "tim", "doc", "liv")), sizes.toString());
+                long files = 0;
+                for (String file : ((SegmentReader) leaf).getSegmentInfo().files())
+                    files += directory.fileLength(file);
+                long entries = sizes.values().stream().mapToLong(Long::longValue).sum();
+                assertTrue(entries > files / 2 && entries <= files, sizes + " of " + files);
+            }
+        }
+    }
+
+    /**
+     * Index one segment of stored and indexed documents, some of them deleted
+     */
+    private static void index(Directory directory, boolean compound) throws IOException {
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setUseCompoundFile(compound))) {
+            for (int i = 0; i < 500; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("id", Integer.toString(i), Field.Store.YES));
+                doc.add(new TextField("message", "event " + i + " from host" + (i % 10), Field.Store.YES));
+                writer.addDocument(doc);
+            }
+            writer.commit();
+            writer.deleteDocuments(new Term("id", "7"));
+        }
+    }
+
+    @Test
+    void reclaimableBytesTest() {
+        Map<String, Long> sizes = new TreeMap<>();
+        sizes.put("fdt", 1000L);
+        sizes.put("fdx", 0L);
+        sizes.put("tim", 400L);
+        sizes.put("doc", 600L);
+        sizes.put("si", 300L);
+        sizes.put("fnm", 100L);
+        sizes.put("liv", 50L);
+
+        // A quarter of the stored bytes and a tenth of the documents are deleted
+        assertEquals(250 + 100 + 50, SegmentFiles.reclaimableBytes(sizes, 0.25, 0.1));
+    }
+
+    @Test
+    void reclaimableBytesNoDeletesTest() {
+        Map<String, Long> sizes = new TreeMap<>();
+        sizes.put("fdt", 1000L);
+        sizes.put("tim", 400L);
+
+        assertEquals(0, SegmentFiles.reclaimableBytes(sizes, 0.0, 0.0));
+    }
+
+    @Test
+    void reclaimableBytesAllDeletedTest() {
+        Map<String, Long> sizes = new TreeMap<>();
+        sizes.put("fdt", 1000L);
+        sizes.put("si", 300L);
+        sizes.put("liv", 50L);
+
+        assertEquals(1350, SegmentFiles.reclaimableBytes(sizes, 1.0, 1.0));
+    }
+}
@@ -0,0 +1,119 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.elasticsearch.xcontent.XContentBuilder;
+import org.elasticsearch.xcontent.XContentFactory;
+import org.elasticsearch.xcontent.XContentType;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SourceProfilerTest {
+
+    @Test
+    void attributeJsonAndSmileTest() throws IOException {
+        for (XContentBuilder builder : new XContentBuilder[]{XContentFactory.jsonBuilder(), XContentFactory.smileBuilder()}) {
+            byte[] source = event(builder, "x".repeat(1000), 3);
+            SourceProfile profile = new SourceProfile();
+            SourceProfiler.addDocument(profile, source, 0, source.length);
+
+            Map<String, SourceProfile.Path> paths = byPath(profile);
+            assertEquals(1, profile.sampledDocuments);
+            assertEquals(source.length, profile.sourceBytes, 1e-6);
+            // The top-level paths add up to the whole document, less its outer braces
+            assertEquals(source.length, paths.get("event").bytes + paths.get("tags").bytes + profile.root.bytes, 1e-6);
+            // The raw payload is most of the document, and holds most of its parent
+            SourceProfile.Path raw = paths.get("event.payload.raw");
+            assertTrue(profile.share(raw) > 0.8, builder.contentType() + " " + profile.share(raw));
+            assertTrue(raw.bytes < paths.get("event.payload").bytes);
+            assertEquals(1, raw.docs);
+            // Array elements, objects included, share their array's path
+            assertEquals(1, paths.get("tags.name").docs);
+        }
+    }
+
+    @Test
+    void detectSourceTypeTest() throws IOException {
+        for (XContentType type : new XContentType[]{XContentType.JSON, XContentType.SMILE, XContentType.CBOR, XContentType.YAML}) {
+            byte[] source = event(XContentFactory.contentBuilder(type), "raw", 1);
+            assertEquals(type, SourceProfiler.sourceType(source, 0, source.length));
+        }
+        byte[] padded = "  {\"a\":1}".getBytes(StandardCharsets.UTF_8);
+        assertEquals(XContentType.JSON, SourceProfiler.sourceType(padded, 0, padded.length));
+        byte[] text = "plain text".getBytes(StandardCharsets.UTF_8);
+        assertNull(SourceProfiler.sourceType(text, 0, text.length));
+    }
+
+    @Test
+    void capPathsTest() throws IOException {
+        SourceProfile profile = new SourceProfile();
+        XContentBuilder builder = XContentFactory.jsonBuilder().startObject().startObject("users");
+        for (int i = 0; i < SourceProfile.MAX_PATHS + 100; i++)
+            builder.field("user" + i, i);
+        byte[] source = bytes(builder.endObject().endObject());
+        SourceProfiler.addDocument(profile, source, 0, source.length);
+
+        assertTrue(profile.truncated);
+        assertEquals(SourceProfile.MAX_PATHS, profile.getPaths().size());
+        // Nothing is lost: the paths past the cap are counted in their parent
+        assertEquals(source.length, SourceProfile.totalBytes(profile.root), 1e-6);
+    }
+
+    @Test
+    void profileMergeAndUnparsedTest() throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            for (int i = 0; i < 100; i++) {
+                Document document = new Document();
+                document.add(new StoredField(SourceProfiler.SOURCE_FIELD, i == 0 ? new byte[]{1, 2, 3} : event(XContentFactory.jsonBuilder(), "raw " + i, i % 3)));
+                writer.addDocument(document);
+            }
+        }
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            SourceProfile segment = SourceProfiler.profile(reader.leaves().get(0).reader(), 20, new Random(0));
+            // Scaled up from the sample to every document
+            assertEquals(100, segment.documents, 1e-6);
+            assertEquals(20, segment.sampledDocuments + segment.unparsedDocuments);
+
+            SourceProfile merged = SourceProfile.merge(SourceProfile.merge(null, segment), segment);
+            assertEquals(200, merged.documents, 1e-6);
+            assertEquals(2 * segment.sourceBytes, merged.sourceBytes, 1e-6);
+            assertEquals(2 * byPath(segment).get("event.payload.raw").bytes, byPath(merged).get("event.payload.raw").bytes, 1e-6);
+        }
+    }
+
+    private static byte[] event(XContentBuilder builder, String raw, int tags) throws IOException {
+        builder.startObject()
+                .startObject("event").field("id", 42).field("ok", true)
+                .startObject("payload").field("raw", raw).nullField("extra").endObject()
+                .endObject()
+                .startArray("tags");
+        for (int i = 0; i < tags; i++)
+            builder.startObject().field("name", "tag" + i).endObject();
+        return bytes(builder.endArray().endObject());
+    }
+
+    private static Map<String, SourceProfile.Path> byPath(SourceProfile profile) {
+        return profile.getPaths().stream().collect(Collectors.toMap(p -> p.path, Function.identity()));
+    }
+
+    private static byte[] bytes(XContentBuilder builder) {
+        builder.close();
+        return ((ByteArrayOutputStream) builder.getOutputStream()).toByteArray();
+    }
+}
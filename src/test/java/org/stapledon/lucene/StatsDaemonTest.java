@@ -0,0 +1,115 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.index.IndexOptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsDaemonTest {
+
+    @Test
+    void writeMetricsTest() throws IOException {
+        StringWriter text = new StringWriter();
+        try (PrometheusReportWriter writer = new PrometheusReportWriter(text)) {
+            writer.start("/data/nodes/0/_state", 3000);
+            writer.writeGroup(group("logs", "/data/nodes/0/indices", "message"));
+            writer.writeGroup(group("with \"quotes\"", "/data/nodes/0/indices", "a\\b"));
+            writer.finish(Collections.emptyList(), new IoStats(IoMode.AUTO));
+        }
+        String metrics = text.toString();
+
+        // Each metric's samples are together, under a single HELP and TYPE
+        assertTrue(metrics.contains("# TYPE lucene_stats_group_disk_bytes gauge\n"
+                + "lucene_stats_group_disk_bytes{group=\"logs\"} 1000\n"
+                + "lucene_stats_group_disk_bytes{group=\"with \\\"quotes\\\"\"} 1000\n"), metrics);
+        assertTrue(metrics.contains("lucene_stats_field_bytes{group=\"logs\",field=\"message\"} 500\n"), metrics);
+        assertTrue(metrics.contains("field=\"a\\\\b\""), metrics);
+        assertTrue(metrics.contains("lucene_stats_node_disk_bytes 3000\n"), metrics);
+        assertEquals(1, count(metrics, "# TYPE lucene_stats_field_bytes "));
+    }
+
+    @Test
+    void scanAndServeTest(@TempDir Path directory) throws Exception {
+        Path indices = Files.createDirectories(directory.resolve("indices"));
+        Path index = Files.createDirectories(indices.resolve("uuid/0/index"));
+        AtomicInteger runs = new AtomicInteger();
+        StatsDaemon.Scan scan = writer -> {
+            runs.incrementAndGet();
+            try {
+                writer.start(directory.toString(), 1000);
+                writer.writeGroup(group("logs", indices.toString(), "message"));
+                writer.finish(Collections.emptyList(), new IoStats(IoMode.AUTO));
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        };
+
+        try (StatsDaemon daemon = new StatsDaemon(0, 3600, 0, scan)) {
+            Thread thread = new Thread(daemon::run);
+            thread.start();
+            waitFor(() -> runs.get() == 1 && daemon.getWatchedDirectories() == 1);
+            waitFor(() -> daemon.getMetrics().contains("lucene_stats_scans_total 1\n"));
+            String metrics = get(daemon.getPort());
+            assertTrue(metrics.contains("lucene_stats_group_disk_bytes{group=\"logs\"} 1000\n"), metrics);
+            assertTrue(metrics.contains("lucene_stats_scan_failures_total 0\n"), metrics);
+
+            // A new commit in a watched shard starts another scan
+            Files.createFile(index.resolve("_0.cfs"));
+            Files.createFile(index.resolve("segments_2"));
+            waitFor(() -> runs.get() == 2);
+            waitFor(() -> daemon.getMetrics().contains("lucene_stats_scan_duration_seconds_count 2\n"));
+
+            daemon.stop();
+            thread.join(10_000);
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    private static IndexGroup group(String name, String indicesDirectory, String field) {
+        IndexGroup group = new IndexGroup(name);
+        group.indices.add(new IndexShard(indicesDirectory, name, "uuid", 0));
+        group.totalDiskSize = 1000;
+        FieldStatsHolder holder = new FieldStatsHolder(field, IndexOptions.DOCS);
+        holder.storedFieldDiskBytes = 500;
+        group.fields.put(field, holder);
+        return group;
+    }
+
+    private static String get(int port) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + StatsDaemon.METRICS_PATH).openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("text/plain"));
+        try (InputStream in = connection.getInputStream()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 20_000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline, "Timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    private static int count(String text, String part) {
+        int count = 0;
+        for (int i = text.indexOf(part); i >= 0; i = text.indexOf(part, i + 1))
+            count++;
+        return count;
+    }
+}
@@ -0,0 +1,199 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatsStoredFieldVisitorTest {
+
+    @Test
+    void captureSamplesTest() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory);
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReader leaf = reader.leaves().get(0).reader();
+                StatsStoredFieldVisitor withoutSamples = new StatsStoredFieldVisitor(leaf.getFieldInfos(), false, false);
+                StatsStoredFieldVisitor withSamples = new StatsStoredFieldVisitor(leaf.getFieldInfos(), false, true);
+                for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                    leaf.document(doc, withoutSamples);
+                    leaf.document(doc, withSamples);
+                }
+
+                // Only the first value of each field is kept, and only when asked for
+                assertNull(withoutSamples.sample(leaf.getFieldInfos().fieldInfo("_source")));
+                assertNull(withoutSamples.sample(leaf.getFieldInfos().fieldInfo("_id")));
+                assertEquals("{\"message\":\"event 0\"}", withSamples.sample(leaf.getFieldInfos().fieldInfo("_source")));
+                assertEquals(new BytesRef("0").toString(), withSamples.sample(leaf.getFieldInfos().fieldInfo("_id")));
+                assertNull(withSamples.sample(leaf.getFieldInfos().fieldInfo("count")));
+                assertEquals(withSamples.totalBytes(), withoutSamples.totalBytes());
+            }
+        }
+    }
+
+    @Test
+    void fieldBytesTest() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory);
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReader leaf = reader.leaves().get(0).reader();
+                StatsStoredFieldVisitor subject = new StatsStoredFieldVisitor(leaf.getFieldInfos(), true, false);
+                NamedFieldVisitor expected = new NamedFieldVisitor();
+                for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                    leaf.document(doc, subject);
+                    subject.finishDocument();
+                    leaf.document(doc, expected);
+                    expected.finishDocument();
+                }
+
+                assertEquals(4, expected.bytes.size());
+                for (FieldInfo field : leaf.getFieldInfos()) {
+                    assertEquals(expected.bytes.getOrDefault(field.name, 0L), subject.bytes(field), field.name);
+                    assertEquals(expected.squares.getOrDefault(field.name, 0.0), subject.squares(field), 1e-6, field.name);
+                }
+                // Numbers count one each, strings and binary values their length
+                assertEquals(100, subject.bytes(leaf.getFieldInfos().fieldInfo("count")));
+                assertEquals(190, subject.bytes(leaf.getFieldInfos().fieldInfo("_id")));
+                assertEquals(expected.bytes.values().stream().mapToLong(Long::longValue).sum(), subject.totalBytes());
+                assertEquals(100, subject.documents);
+                assertEquals(expected.documentBytesSquares, subject.documentBytesSquares, 1e-6);
+            }
+        }
+    }
+
+    @Test
+    void deletedBytesTest() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            index(directory);
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+                for (int i = 0; i < 100; i += 4)
+                    writer.deleteDocuments(new Term("_id", Integer.toString(i)));
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                LeafReader leaf = reader.leaves().get(0).reader();
+                Bits liveDocs = leaf.getLiveDocs();
+                StatsStoredFieldVisitor subject = new StatsStoredFieldVisitor(leaf.getFieldInfos(), false, false);
+                for (int doc = 0; doc < leaf.maxDoc(); doc++) {
+                    subject.setDeleted(!liveDocs.get(doc));
+                    leaf.document(doc, subject);
+                }
+
+                long live = 0;
+                long deleted = 0;
+                for (int i = 0; i < 100; i++) {
+                    if (i % 4 == 0)
+                        deleted += source(i).length();
+                    else
+                        live += source(i).length();
+                }
+                FieldInfo source = leaf.getFieldInfos().fieldInfo("_source");
+                assertEquals(25, leaf.numDeletedDocs());
+                assertEquals(deleted, subject.deletedBytes(source));
+                assertEquals(live, subject.bytes(source) - subject.deletedBytes(source));
+                // Every fourth document is deleted, so every fourth count too
+                assertEquals(25, subject.deletedBytes(leaf.getFieldInfos().fieldInfo("count")));
+                assertEquals(deleted + 25 + subject.deletedBytes(leaf.getFieldInfos().fieldInfo("_id"))
+                        + subject.deletedBytes(leaf.getFieldInfos().fieldInfo("tags")), subject.totalDeletedBytes());
+            }
+        }
+    }
+
+    /**
+     * Counts stored bytes by field name, the way the visitor did before it used arrays indexed by field number
+     */
+    private static class NamedFieldVisitor extends StoredFieldVisitor {
+        final Map<String, Long> bytes = new TreeMap<>();
+        final Map<String, Double> squares = new TreeMap<>();
+        private final Map<String, Long> document = new TreeMap<>();
+        double documentBytesSquares;
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            return Status.YES;
+        }
+
+        @Override
+        public void binaryField(FieldInfo fieldInfo, byte[] value) {
+            accumulate(fieldInfo, value.length);
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, byte[] value) {
+            accumulate(fieldInfo, value.length);
+        }
+
+        @Override
+        public void intField(FieldInfo fieldInfo, int value) {
+            accumulate(fieldInfo, 1);
+        }
+
+        @Override
+        public void longField(FieldInfo fieldInfo, long value) {
+            accumulate(fieldInfo, 1);
+        }
+
+        @Override
+        public void floatField(FieldInfo fieldInfo, float value) {
+            accumulate(fieldInfo, 1);
+        }
+
+        @Override
+        public void doubleField(FieldInfo fieldInfo, double value) {
+            accumulate(fieldInfo, 1);
+        }
+
+        private void accumulate(FieldInfo fieldInfo, long length) {
+            bytes.merge(fieldInfo.name, length, Long::sum);
+            document.merge(fieldInfo.name, length, Long::sum);
+        }
+
+        void finishDocument() {
+            long total = 0;
+            for (Map.Entry<String, Long> entry : document.entrySet()) {
+                squares.merge(entry.getKey(), (double) entry.getValue() * entry.getValue(), Double::sum);
+                total += entry.getValue();
+            }
+            document.clear();
+            documentBytesSquares += (double) total * total;
+        }
+    }
+
+    /**
+     * Index one segment with string, binary and numeric stored fields
+     */
+    private static void index(Directory directory) throws IOException {
+        try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig())) {
+            for (int i = 0; i < 100; i++) {
+                Document doc = new Document();
+                doc.add(new StringField("_id", Integer.toString(i), Field.Store.YES));
+                doc.add(new StoredField("_source", new BytesRef(source(i))));
+                doc.add(new StoredField("count", i));
+                if (i % 3 == 0)
+                    doc.add(new StoredField("tags", "tag" + i));
+                writer.addDocument(doc);
+            }
+        }
+    }
+
+    private static String source(int i) {
+        return "{\"message\":\"event " + i + "\"}";
+    }
+}
@@ -0,0 +1,99 @@
+package org.stapledon.lucene;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TaskRunnerTest {
+
+    @Test
+    void resultsAreInTaskOrderTest() {
+        try (TaskRunner subject = new TaskRunner(4)) {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                int value = i;
+                tasks.add(() -> value);
+            }
+
+            List<Integer> results = subject.invokeAll(tasks);
+
+            assertEquals(100, results.size());
+            for (int i = 0; i < 100; i++)
+                assertEquals(i, results.get(i));
+        }
+    }
+
+    @Test
+    void nestedTasksTest() {
+        try (TaskRunner subject = new TaskRunner(2)) {
+            List<Callable<Integer>> outer = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                outer.add(() -> {
+                    List<Callable<Integer>> inner = new ArrayList<>();
+                    for (int j = 0; j < 8; j++)
+                        inner.add(() -> 1);
+                    return subject.invokeAll(inner).stream().mapToInt(Integer::intValue).sum();
+                });
+            }
+
+            assertEquals(64, subject.invokeAll(outer).stream().mapToInt(Integer::intValue).sum());
+        }
+    }
+
+    @Test
+    void sequentialTest() {
+        try (TaskRunner subject = new TaskRunner(1)) {
+            assertEquals(1, subject.getParallelism());
+            List<Callable<String>> tasks = new ArrayList<>();
+            tasks.add(() -> Thread.currentThread().getName());
+
+            assertEquals(Thread.currentThread().getName(), subject.invokeAll(tasks).get(0));
+        }
+    }
+
+    @Test
+    void submittedResultsAreInTaskOrderTest() {
+        try (TaskRunner subject = new TaskRunner(4)) {
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                int value = i;
+                tasks.add(() -> subject.invokeAll(List.<Callable<Integer>>of(() -> value)).get(0));
+            }
+
+            Iterator<Integer> results = subject.submit(tasks, 8);
+
+            for (int i = 0; i < 100; i++)
+                assertEquals(i, results.next());
+            assertFalse(results.hasNext());
+        }
+    }
+
+    @Test
+    void submittedTasksAreBoundedTest() {
+        try (TaskRunner subject = new TaskRunner(4)) {
+            AtomicInteger started = new AtomicInteger();
+            List<Callable<Integer>> tasks = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                int value = i;
+                tasks.add(() -> {
+                    started.incrementAndGet();
+                    return value;
+                });
+            }
+
+            Iterator<Integer> results = subject.submit(tasks, 8);
+
+            // However quickly the tasks finish, none start more than 8 ahead of the results taken
+            for (int taken = 1; taken <= 100; taken++) {
+                assertEquals(taken - 1, results.next());
+                assertTrue(started.get() - taken <= 8, started.get() + " started, " + taken + " taken");
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.stapledon.lucene;
+
+import com.google.common.hash.Hashing;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TermsProfileTest {
+
+    @Test
+    void hyperLogLogEstimateTest() {
+        HyperLogLog first = new HyperLogLog();
+        HyperLogLog second = new HyperLogLog();
+        // Two overlapping halves of 100,000 distinct values
+        for (int i = 0; i < 100_000; i++) {
+            long hash = Hashing.murmur3_128().hashInt(i).asLong();
+            if (i < 60_000)
+                first.offer(hash);
+            if (i >= 40_000)
+                second.offer(hash);
+        }
+        assertEquals(60_000, first.estimate(), 60_000 * 4 * HyperLogLog.STANDARD_ERROR);
+        first.merge(second);
+        assertEquals(100_000, first.estimate(), 100_000 * 4 * HyperLogLog.STANDARD_ERROR);
+    }
+
+    @Test
+    void profileAndMergeSegmentsTest() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig().setMergePolicy(NoMergePolicy.INSTANCE))) {
+                // Two segments: unique IDs sharing the "user" prefix, and a status repeated in every document
+                for (int segment = 0; segment < 2; segment++) {
+                    for (int i = 0; i < 500; i++) {
+                        Document doc = new Document();
+                        doc.add(new StringField("id", "user-" + (segment * 500 + i), Field.Store.NO));
+                        doc.add(new StringField("status", i % 2 == 0 ? "ok" : "failed", Field.Store.NO));
+                        writer.addDocument(doc);
+                    }
+                    writer.commit();
+                }
+            }
+
+            TermsProfile ids = null;
+            TermsProfile statuses = null;
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                assertEquals(2, reader.leaves().size());
+                for (LeafReaderContext context : reader.leaves()) {
+                    ids = TermsProfile.merge(ids, TermsProfile.profile(context.reader().terms("id")));
+                    statuses = TermsProfile.merge(statuses, TermsProfile.profile(context.reader().terms("status")));
+                }
+            }
+
+            assertEquals(1000, ids.terms);
+            assertEquals(1000, ids.uniqueTerms(), 1000 * 4 * HyperLogLog.STANDARD_ERROR);
+            assertEquals(1.0, ids.singletonShare(), 1e-9);
+            assertEquals(1000L, ids.getTopPrefixes().get("user"));
+            assertEquals(1000L, ids.getLengthHistogram().get("5-8"));
+
+            // The same two terms in both segments are counted once each as distinct terms
+            assertEquals(4, statuses.terms);
+            assertEquals(2, statuses.uniqueTerms());
+            assertEquals(4L, statuses.getDocFreqHistogram().get("100-999"));
+            assertEquals(2L, statuses.getTopPrefixes().get("ok"));
+        }
+    }
+
+    @Test
+    void bucketsTest() {
+        assertEquals(0, TermsProfile.lengthBucket(0));
+        assertEquals(0, TermsProfile.lengthBucket(1));
+        assertEquals(2, TermsProfile.lengthBucket(4));
+        assertEquals(3, TermsProfile.lengthBucket(5));
+        assertEquals(TermsProfile.LENGTH_LABELS.length - 1, TermsProfile.lengthBucket(1000));
+        assertEquals(0, TermsProfile.docFreqBucket(1));
+        assertEquals(1, TermsProfile.docFreqBucket(9));
+        assertEquals(2, TermsProfile.docFreqBucket(10));
+        assertEquals(TermsProfile.DOC_FREQ_LABELS.length - 1, TermsProfile.docFreqBucket(5_000_000));
+    }
+}
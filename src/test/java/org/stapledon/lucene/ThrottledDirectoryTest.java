@@ -0,0 +1,65 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.RateLimiter;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ThrottledDirectoryTest {
+
+    @Test
+    void readsAreLimitedTest() throws IOException {
+        byte[] data = new byte[2 * 1024 * 1024];
+        Directory base = new ByteBuffersDirectory();
+        try (IndexOutput out = base.createOutput("data", IOContext.DEFAULT)) {
+            out.writeBytes(data, data.length);
+        }
+
+        // 2MB at 10MB/s should take about 200ms, read through both the input and a clone
+        IoStats stats = new IoStats(IoMode.AUTO);
+        try (Directory directory = new ThrottledDirectory(base, new RateLimiter.SimpleRateLimiter(10), stats);
+             IndexInput in = directory.openInput("data", IOContext.DEFAULT)) {
+            long start = System.nanoTime();
+            byte[] buffer = new byte[64 * 1024];
+            IndexInput clone = in.clone();
+            for (int i = 0; i < data.length / buffer.length / 2; i++) {
+                in.readBytes(buffer, 0, buffer.length);
+                clone.readBytes(buffer, 0, buffer.length);
+            }
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(elapsedMillis >= 150, "took " + elapsedMillis + " ms");
+        }
+        assertTrue(stats.throttledNanos.sum() > 0);
+    }
+
+    @Test
+    void smallClonesAreLimitedTest() throws IOException {
+        byte[] data = new byte[1024 * 1024];
+        Directory base = new ByteBuffersDirectory();
+        try (IndexOutput out = base.createOutput("data", IOContext.DEFAULT)) {
+            out.writeBytes(data, data.length);
+        }
+
+        // Each clone reads far less than the limiter's pause check, but together they read 1MB
+        RateLimiter.SimpleRateLimiter limiter = new RateLimiter.SimpleRateLimiter(10);
+        assertTrue(limiter.getMinPauseCheckBytes() > 4096);
+        IoStats stats = new IoStats(IoMode.AUTO);
+        try (Directory directory = new ThrottledDirectory(base, limiter, stats);
+             IndexInput in = directory.openInput("data", IOContext.DEFAULT)) {
+            byte[] buffer = new byte[4096];
+            for (int i = 0; i < data.length / buffer.length; i++) {
+                IndexInput clone = in.clone();
+                clone.seek((long) i * buffer.length);
+                clone.readBytes(buffer, 0, buffer.length);
+            }
+        }
+        assertTrue(stats.throttledNanos.sum() > 0);
+    }
+}
@@ -0,0 +1,153 @@
+package org.stapledon.lucene;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TranslogReaderTest {
+    private static final byte OP_INDEX = 2;
+    private static final int SOURCE_BYTES = 100;
+
+    @Test
+    void countUncommittedOperationsTest() throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        // Generation 1 is committed, generation 2 straddles the local checkpoint and generation 3 is all uncommitted
+        long[] generation1 = writeGeneration(directory, 1, 0, 10, false);
+        writeCheckpoint(directory, TranslogReader.checkpointFile(1), generation1[0], 10, 1, 0, 9, 1);
+        long[] generation2 = writeGeneration(directory, 2, 10, 10, true);
+        writeCheckpoint(directory, TranslogReader.checkpointFile(2), generation2[0], 10, 2, 10, 19, 1);
+        long[] generation3 = writeGeneration(directory, 3, 20, 5, false);
+        writeCheckpoint(directory, TranslogReader.CHECKPOINT_FILE, generation3[0], 5, 3, 20, 24, 1);
+
+        TranslogStats stats = TranslogReader.read(directory, 14);
+
+        assertEquals(3, stats.generations);
+        assertEquals(25, stats.operations);
+        assertEquals(generation1[0] + generation2[0] + generation3[0], stats.translogBytes);
+        // 15 to 19 from generation 2, the last of them a no-op, and all of generation 3
+        assertEquals(10, stats.uncommittedOperations);
+        assertEquals(generation2[1] + generation3[1], stats.uncommittedBytes);
+        assertEquals(14, stats.localCheckpoint);
+        assertEquals(24, stats.globalCheckpoint);
+
+        TranslogReader.checkSettings(stats, null, 100_000);
+        assertEquals(1e-4, stats.replaySeconds, 1e-12);
+        assertEquals(Collections.emptyList(), stats.warnings);
+    }
+
+    @Test
+    void missingOrCommittedTranslogTest() throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        long[] generation = writeGeneration(directory, 1, 0, 4, false);
+        assertNull(TranslogReader.read(directory, -1));
+
+        writeCheckpoint(directory, TranslogReader.CHECKPOINT_FILE, generation[0], 4, 1, 0, 3, 1);
+        TranslogStats stats = TranslogReader.read(directory, 3);
+        assertEquals(1, stats.generations);
+        assertEquals(4, stats.operations);
+        assertEquals(0, stats.uncommittedOperations);
+        assertEquals(0, stats.uncommittedBytes);
+    }
+
+    @Test
+    void stopAtCorruptOperationTest() throws IOException {
+        Directory directory = new ByteBuffersDirectory();
+        long[] generation = writeGeneration(directory, 1, 0, 4, false);
+        // A checkpoint ending part way through the last operation; the operations up to it are still counted
+        writeCheckpoint(directory, TranslogReader.CHECKPOINT_FILE, generation[0] - 8, 4, 1, 0, 3, 1);
+        TranslogStats stats = TranslogReader.read(directory, 1);
+        assertEquals(1, stats.uncommittedOperations);
+    }
+
+    @Test
+    void checkSettingsTest() {
+        TranslogStats stats = new TranslogStats();
+        stats.generations = 100;
+        stats.operations = 1_000_000;
+        stats.translogBytes = 1024L * 1024 * 1024;
+        stats.uncommittedOperations = 700_000;
+        stats.uncommittedBytes = 700L * 1024 * 1024;
+        IndexMetadata metadata = new IndexMetadata();
+        metadata.translogRetentionBytes = 128L * 1024 * 1024;
+
+        TranslogReader.checkSettings(stats, metadata, 1000);
+
+        assertEquals(700.0, stats.replaySeconds, 1e-9);
+        // Uncommitted above the flush threshold, a threshold too slow to replay, too much retained and too many generations
+        assertEquals(4, stats.warnings.size(), stats.warnings.toString());
+        assertTrue(stats.warnings.get(0).contains("flush_threshold_size"));
+        assertTrue(stats.warnings.get(3).contains("generations"));
+    }
+
+    /**
+     * Write a translog generation of index operations with consecutive sequence numbers, the last of them a no-op if
+     * requested, as Elasticsearch writes them
+     *
+     * @return The length of the generation, and the bytes of its operations above the middle sequence number
+     */
+    private static long[] writeGeneration(Directory directory, long generation, long firstSeqNo, int operations, boolean lastNoOp) throws IOException {
+        long uncommittedBytes = 0;
+        try (IndexOutput out = directory.createOutput(TranslogReader.translogFile(generation), IOContext.DEFAULT)) {
+            byte[] uuid = "translog-uuid".getBytes(StandardCharsets.UTF_8);
+            CodecUtil.writeHeader(out, TranslogReader.TRANSLOG_CODEC, TranslogReader.TRANSLOG_VERSION_CURRENT);
+            out.writeInt(uuid.length);
+            out.writeBytes(uuid, uuid.length);
+            out.writeLong(1);
+            out.writeInt(0);
+            for (int i = 0; i < operations; i++) {
+                long seqNo = firstSeqNo + i;
+                long start = out.getFilePointer();
+                if (lastNoOp && i == operations - 1) {
+                    byte[] reason = "peer recovery".getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(1 + 2 * Long.BYTES + reason.length + Integer.BYTES);
+                    out.writeByte(TranslogReader.OP_NO_OP);
+                    out.writeLong(seqNo);
+                    out.writeLong(1);
+                    out.writeBytes(reason, reason.length);
+                } else {
+                    out.writeInt(1 + SOURCE_BYTES + 2 * Long.BYTES + Integer.BYTES);
+                    out.writeByte(OP_INDEX);
+                    out.writeBytes(new byte[SOURCE_BYTES], SOURCE_BYTES);
+                    out.writeLong(seqNo);
+                    out.writeLong(1);
+                }
+                out.writeInt(0);
+                if (i >= operations / 2)
+                    uncommittedBytes += out.getFilePointer() - start;
+            }
+            // Generations entirely above the local checkpoint count every operation
+            if (firstSeqNo >= 20)
+                uncommittedBytes = out.getFilePointer() - headerLength(uuid.length);
+            return new long[]{out.getFilePointer(), uncommittedBytes};
+        }
+    }
+
+    private static long headerLength(int uuidLength) {
+        return CodecUtil.headerLength(TranslogReader.TRANSLOG_CODEC) + Integer.BYTES + uuidLength + Long.BYTES + Integer.BYTES;
+    }
+
+    private static void writeCheckpoint(Directory directory, String name, long offset, int numOps, long generation, long minSeqNo, long maxSeqNo,
+                                        long minTranslogGeneration) throws IOException {
+        try (IndexOutput out = directory.createOutput(name, IOContext.DEFAULT)) {
+            CodecUtil.writeHeader(out, TranslogReader.CHECKPOINT_CODEC, TranslogReader.CHECKPOINT_VERSION_CURRENT);
+            out.writeLong(offset);
+            out.writeInt(numOps);
+            out.writeLong(generation);
+            out.writeLong(minSeqNo);
+            out.writeLong(maxSeqNo);
+            out.writeLong(maxSeqNo);
+            out.writeLong(minTranslogGeneration);
+            out.writeLong(-2);
+            CodecUtil.writeFooter(out);
+        }
+    }
+}